@@ -0,0 +1,101 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+
+import static java.util.Comparator.reverseOrder;
+
+/**
+ * The {@link QueueService} implementations under benchmark, each with the resources it needs.
+ */
+public enum Backend {
+
+  IN_MEMORY {
+    @Override
+    QueueService<String> create(Path directory) {
+      return new InMemoryQueueService<>(Clock.systemUTC());
+    }
+  },
+
+  FILE {
+    @Override
+    QueueService<String> create(Path directory) {
+      return new FileQueueService<>(directory.toString(), Clock.systemUTC(), Serializer.utf8());
+    }
+  },
+
+  MAPPED {
+    @Override
+    QueueService<String> create(Path directory) {
+      return new MappedQueueService<>(directory.toString(), Clock.systemUTC(), Serializer.utf8(), MAPPED_CAPACITY,
+          MAPPED_MAX_MESSAGE_BYTES);
+    }
+  },
+
+  SQS {
+    @Override
+    QueueService<String> create(Path directory) {
+      return new SqsQueueService<>(new InMemorySqsClient(Clock.systemUTC()), Serializer.utf8());
+    }
+  },
+
+  /**
+   * In-memory queues behind a {@link QueueServer} on the loopback interface, stopped when the client is closed.
+   */
+  REMOTE {
+    @Override
+    QueueService<String> create(Path directory) {
+      QueueServer server = QueueServer.start(new InMemoryQueueService<>(Clock.systemUTC()),
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      return new RemoteQueueService(server.getAddress(), Clock.systemUTC()) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            server.close();
+          }
+        }
+      };
+    }
+  };
+
+  static final int MAPPED_CAPACITY = 65_536;
+  static final int MAPPED_MAX_MESSAGE_BYTES = 10_000;
+
+  abstract QueueService<String> create(Path directory);
+
+  static Path createDirectory() {
+    try {
+      return Files.createTempDirectory("queue-benchmark");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static void deleteDirectory(Path directory) {
+    try {
+      Files.walk(directory)
+          .sorted(reverseOrder())
+          .map(Path::toFile)
+          .forEach(File::delete);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static String message(int size) {
+    StringBuilder message = new StringBuilder(size);
+    for (int i = 0; i < size; i++) {
+      message.append((char) ('a' + i % 26));
+    }
+    return message.toString();
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.nCopies;
+
+/**
+ * Push and pull+delete latency on queues holding a large backlog, to show whether the cost of an operation grows with
+ * the number of queued messages. Every consumed message is pushed again, so the backlog stays constant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BacklogBenchmark {
+
+  private static final String QUEUE = "backlog";
+  private static final int BATCH_SIZE = 1_000;
+
+  @Param({"IN_MEMORY", "FILE", "SQS"})
+  public Backend backend;
+
+  @Param({"100", "10000"})
+  public int messageSize;
+
+  @Param({"10000", "100000", "1000000"})
+  public int backlog;
+
+  private Path directory;
+  private QueueService<String> queueService;
+  private String message;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    directory = Backend.createDirectory();
+    queueService = backend.create(directory);
+    message = Backend.message(messageSize);
+    for (int pushed = 0; pushed < backlog; pushed += BATCH_SIZE) {
+      queueService.pushBatch(QUEUE, nCopies(Math.min(BATCH_SIZE, backlog - pushed), message));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Backend.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  public Optional<Message<String>> recycle() {
+    Optional<Message<String>> pulled = queueService.pull(QUEUE);
+    pulled.ifPresent(message -> {
+      queueService.delete(QUEUE, message.getReceiptHandle());
+      queueService.push(QUEUE, message.getBody());
+    });
+    return pulled;
+  }
+
+}
@@ -0,0 +1,103 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * What compressing JSON bodies costs in CPU and saves in I/O: {@link #codec} encodes and decodes a record without
+ * touching the disk, {@link #fileRoundTrip} pushes, pulls and deletes it on the file backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+  private static final String QUEUE = "compression";
+  private static final int COMPRESSION_THRESHOLD = 1_000;
+
+  @Param({"10000", "200000"})
+  public int messageSize;
+
+  @Param({"false", "true"})
+  public boolean compressed;
+
+  private Path directory;
+  private FileQueueService<String> queueService;
+  private String message;
+  private byte[] body;
+  private int compressionThreshold;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    directory = Backend.createDirectory();
+    queueService = new FileQueueService<>(directory.toString(), Clock.systemUTC(), Serializer.utf8());
+    compressionThreshold = compressed ? COMPRESSION_THRESHOLD : Integer.MAX_VALUE;
+    queueService.configure(QUEUE, QueueConfig.builder().compressionThreshold(compressionThreshold).build());
+    message = json(messageSize);
+    body = message.getBytes(UTF_8);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    try {
+      queueService.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    Backend.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  public byte[] codec() {
+    return RecordCodec.decode(RecordCodec.encode(body, compressionThreshold));
+  }
+
+  @Benchmark
+  public String fileRoundTrip() {
+    queueService.push(QUEUE, message);
+    Message<String> pulled = queueService.pull(QUEUE).get();
+    queueService.delete(QUEUE, pulled.getReceiptHandle());
+    return pulled.getBody();
+  }
+
+  /**
+   * A JSON array of records with varying ids, names and scores, compressing about as well as typical documents.
+   */
+  static String json(int size) {
+    Random random = new Random(size);
+    StringBuilder json = new StringBuilder(size + 100).append('[');
+    while (json.length() < size) {
+      json.append("{\"id\":").append(random.nextInt(1_000_000))
+          .append(",\"name\":\"user-").append(Long.toString(random.nextLong(), Character.MAX_RADIX))
+          .append("\",\"active\":").append(random.nextBoolean())
+          .append(",\"score\":").append(random.nextDouble())
+          .append(",\"tags\":[\"alpha\",\"beta\"]},");
+    }
+    json.setCharAt(json.length() - 1, ']');
+    return json.toString();
+  }
+
+}
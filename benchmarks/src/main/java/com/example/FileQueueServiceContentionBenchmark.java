@@ -0,0 +1,96 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Comparator.reverseOrder;
+
+/**
+ * Measures push and pull latency of {@link FileQueueService} with many threads contending for one queue.
+ *
+ * Run with: java -cp benchmarks/target/benchmarks.jar com.example.FileQueueServiceContentionBenchmark [threads]
+ * [operationsPerThread]
+ */
+public class FileQueueServiceContentionBenchmark {
+
+  private static final String QUEUE = "contention";
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int operations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+    Path directory = Files.createTempDirectory("queues");
+    try {
+      QueueService<String> queueService = new FileQueueService<>(directory.toString(), Clock.systemUTC(), Serializer.utf8());
+      report("push", run(threads, operations, () -> queueService.push(QUEUE, "message")));
+      report("pull", run(threads, operations, () -> queueService.pull(QUEUE)));
+    } finally {
+      delete(directory);
+    }
+  }
+
+  private static long[] run(int threads, int operations, Runnable operation) throws InterruptedException {
+    long[] latencies = new long[threads * operations];
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    for (int thread = 0; thread < threads; thread++) {
+      int offset = thread * operations;
+      executor.execute(() -> {
+        awaitQuietly(start);
+        for (int i = 0; i < operations; i++) {
+          long begin = System.nanoTime();
+          operation.run();
+          latencies[offset + i] = System.nanoTime() - begin;
+        }
+      });
+    }
+
+    start.countDown();
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.HOURS);
+    return latencies;
+  }
+
+  private static void report(String operation, long[] latencies) {
+    Arrays.sort(latencies);
+    System.out.printf("%s: n=%d p50=%.3fms p99=%.3fms max=%.3fms%n",
+        operation,
+        latencies.length,
+        millis(percentile(latencies, 0.50)),
+        millis(percentile(latencies, 0.99)),
+        millis(latencies[latencies.length - 1]));
+  }
+
+  private static long percentile(long[] sortedLatencies, double percentile) {
+    return sortedLatencies[(int) Math.ceil(percentile * sortedLatencies.length) - 1];
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void delete(Path directory) throws IOException {
+    Files.walk(directory)
+        .sorted(reverseOrder())
+        .map(Path::toFile)
+        .forEach(File::delete);
+  }
+
+}
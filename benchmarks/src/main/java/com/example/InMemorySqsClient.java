@@ -0,0 +1,128 @@
+package com.example;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.services.sqs.model.SetQueueAttributesRequest;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Stand-in for {@link com.amazonaws.services.sqs.AmazonSQS} backed by an {@link InMemoryQueueService}, so that the
+ * overhead of {@link SqsQueueService} can be measured without a network. Queue URLs are the queue names.
+ */
+public class InMemorySqsClient extends AbstractAmazonSQS {
+
+  private final QueueService<String> queues;
+
+  public InMemorySqsClient(Clock clock) {
+    this.queues = new InMemoryQueueService<>(clock);
+  }
+
+  @Override
+  public CreateQueueResult createQueue(CreateQueueRequest request) {
+    return new CreateQueueResult().withQueueUrl(request.getQueueName());
+  }
+
+  @Override
+  public GetQueueUrlResult getQueueUrl(GetQueueUrlRequest request) {
+    return new GetQueueUrlResult().withQueueUrl(request.getQueueName());
+  }
+
+  @Override
+  public SendMessageResult sendMessage(SendMessageRequest request) {
+    queues.push(request.getQueueUrl(), request.getMessageBody());
+    return new SendMessageResult();
+  }
+
+  @Override
+  public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+    List<SendMessageBatchRequestEntry> entries = request.getEntries();
+    queues.pushBatch(request.getQueueUrl(), entries.stream()
+        .map(SendMessageBatchRequestEntry::getMessageBody)
+        .collect(toList()));
+    return new SendMessageBatchResult().withSuccessful(entries.stream()
+        .map(entry -> new SendMessageBatchResultEntry().withId(entry.getId()))
+        .collect(toList()));
+  }
+
+  @Override
+  public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+    String queueName = request.getQueueUrl();
+    List<Message<String>> messages;
+    if (request.getWaitTimeSeconds() != null && request.getWaitTimeSeconds() > 0) {
+      messages = queues.pull(queueName, Duration.ofSeconds(request.getWaitTimeSeconds()))
+          .map(Collections::singletonList)
+          .orElse(emptyList());
+    } else {
+      int maxMessages = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+      messages = request.getVisibilityTimeout() == null
+          ? queues.pull(queueName, maxMessages)
+          : queues.pull(queueName, maxMessages, Duration.ofSeconds(request.getVisibilityTimeout()));
+    }
+    return new ReceiveMessageResult().withMessages(messages.stream().map(this::toSqsMessage).collect(toList()));
+  }
+
+  private com.amazonaws.services.sqs.model.Message toSqsMessage(Message<String> message) {
+    return new com.amazonaws.services.sqs.model.Message()
+        .withReceiptHandle(message.getReceiptHandle())
+        .withBody(message.getBody())
+        .withAttributes(singletonMap(SqsQueueService.APPROXIMATE_RECEIVE_COUNT, String.valueOf(message.getAttempts())));
+  }
+
+  @Override
+  public void setQueueAttributes(SetQueueAttributesRequest request) {
+    String visibilityTimeout = request.getAttributes().get(SqsQueueService.VISIBILITY_TIMEOUT);
+    if (visibilityTimeout != null) {
+      queues.configure(request.getQueueUrl(), QueueConfig.builder()
+          .visibilityTimeout(Duration.ofSeconds(Long.parseLong(visibilityTimeout)))
+          .build());
+    }
+  }
+
+  @Override
+  public void changeMessageVisibility(ChangeMessageVisibilityRequest request) {
+    queues.changeVisibility(request.getQueueUrl(), request.getReceiptHandle(),
+        Duration.ofSeconds(request.getVisibilityTimeout()));
+  }
+
+  @Override
+  public void deleteMessage(DeleteMessageRequest request) {
+    queues.delete(request.getQueueUrl(), request.getReceiptHandle());
+  }
+
+  @Override
+  public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+    List<DeleteMessageBatchRequestEntry> entries = request.getEntries();
+    queues.deleteBatch(request.getQueueUrl(), entries.stream()
+        .map(DeleteMessageBatchRequestEntry::getReceiptHandle)
+        .collect(toList()));
+    return new DeleteMessageBatchResult().withSuccessful(entries.stream()
+        .map(entry -> new DeleteMessageBatchResultEntry().withId(entry.getId()))
+        .collect(toList()));
+  }
+
+}
@@ -0,0 +1,77 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.nCopies;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Messages per second moved from a producer to a consumer through a memory-mapped queue. Each side has its own
+ * {@link MappedQueueService}, and so its own mapping of the file, as two processes would. Every invocation pushes a
+ * batch and receives and deletes one, so the queue never fills up. Run with more threads using -t, e.g. -t 4.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappedQueueBenchmark {
+
+  private static final String QUEUE = "mapped";
+  private static final int BATCH_SIZE = 100;
+
+  @Param({"100", "1000"})
+  public int messageSize;
+
+  private Path directory;
+  private MappedQueueService<String> producer;
+  private MappedQueueService<String> consumer;
+  private List<String> batch;
+
+  @Setup(Level.Iteration)
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    directory = Backend.createDirectory();
+    producer = (MappedQueueService<String>) Backend.MAPPED.create(directory);
+    consumer = (MappedQueueService<String>) Backend.MAPPED.create(directory);
+    batch = nCopies(BATCH_SIZE, Backend.message(messageSize));
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    producer.close();
+    consumer.close();
+    Backend.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public int transfer() {
+    producer.pushBatch(QUEUE, batch);
+    List<String> receiptHandles = consumer.pull(QUEUE, BATCH_SIZE).stream()
+        .map(Message::getReceiptHandle)
+        .collect(toList());
+    consumer.deleteBatch(QUEUE, receiptHandles);
+    return receiptHandles.size();
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producers and consumers sharing one queue, with 1, 4 and 16 threads on each side.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixedBenchmark {
+
+  private static final String QUEUE = "mixed";
+
+  @Param({"IN_MEMORY", "FILE", "SQS"})
+  public Backend backend;
+
+  @Param({"100", "10000"})
+  public int messageSize;
+
+  private Path directory;
+  private QueueService<String> queueService;
+  private String message;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    directory = Backend.createDirectory();
+    queueService = backend.create(directory);
+    message = Backend.message(messageSize);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    Backend.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  @Group("threads1")
+  @GroupThreads(1)
+  public void produce1() {
+    produce();
+  }
+
+  @Benchmark
+  @Group("threads1")
+  @GroupThreads(1)
+  public Optional<Message<String>> consume1() {
+    return consume();
+  }
+
+  @Benchmark
+  @Group("threads4")
+  @GroupThreads(4)
+  public void produce4() {
+    produce();
+  }
+
+  @Benchmark
+  @Group("threads4")
+  @GroupThreads(4)
+  public Optional<Message<String>> consume4() {
+    return consume();
+  }
+
+  @Benchmark
+  @Group("threads16")
+  @GroupThreads(16)
+  public void produce16() {
+    produce();
+  }
+
+  @Benchmark
+  @Group("threads16")
+  @GroupThreads(16)
+  public Optional<Message<String>> consume16() {
+    return consume();
+  }
+
+  private void produce() {
+    queueService.push(QUEUE, message);
+  }
+
+  private Optional<Message<String>> consume() {
+    Optional<Message<String>> pulled = queueService.pull(QUEUE);
+    pulled.ifPresent(message -> queueService.delete(QUEUE, message.getReceiptHandle()));
+    return pulled;
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.nCopies;
+
+/**
+ * Push-only and pull+delete throughput of every backend by message size, on a queue with a small backlog.
+ * Run with more threads using -t, e.g. -t 4.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class QueueServiceBenchmark {
+
+  private static final String QUEUE = "benchmark";
+  private static final int REFILL = 1_000;
+
+  @Param({"IN_MEMORY", "FILE", "SQS", "REMOTE"})
+  public Backend backend;
+
+  @Param({"100", "10000"})
+  public int messageSize;
+
+  private Path directory;
+  private QueueService<String> queueService;
+  private String message;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    directory = Backend.createDirectory();
+    queueService = backend.create(directory);
+    message = Backend.message(messageSize);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    if (queueService instanceof Closeable) {
+      ((Closeable) queueService).close();
+    }
+    Backend.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  public void push() {
+    queueService.push(QUEUE, message);
+  }
+
+  @Benchmark
+  public Optional<Message<String>> pullAndDelete() {
+    Optional<Message<String>> pulled = queueService.pull(QUEUE);
+    if (pulled.isPresent()) {
+      queueService.delete(QUEUE, pulled.get().getReceiptHandle());
+    } else {
+      queueService.pushBatch(QUEUE, nCopies(REFILL, message));
+    }
+    return pulled;
+  }
+
+}
@@ -0,0 +1,54 @@
+package com.example;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variants of the essential {@link QueueService} operations, so that many operations can be in flight
+ * without a thread waiting on each. Invalid arguments are rejected right away with {@link IllegalArgumentException};
+ * failures of the operation itself complete the future exceptionally.
+ */
+public interface AsyncQueueService<T> {
+
+  /**
+   * Pushes a message onto a queue.
+   * @param queueName the name of the queue
+   * @param messageBody the message to push
+   * @return completes once the message is pushed
+   */
+  CompletableFuture<Void> pushAsync(String queueName, T messageBody);
+
+  /**
+   * Retrieves a single message from a queue.
+   * @param queueName the name of the queue
+   * @return completes with a message, or empty if none is visible
+   */
+  CompletableFuture<Optional<Message<T>>> pullAsync(String queueName);
+
+  /**
+   * Retrieves a single message from a queue, waiting for one to become visible if the queue is empty.
+   * @param queueName the name of the queue
+   * @param maxWait how long to wait for a message at most
+   * @return completes with a message, or empty if none became visible within maxWait
+   */
+  CompletableFuture<Optional<Message<T>>> pullAsync(String queueName, Duration maxWait);
+
+  /**
+   * Retrieves up to maxMessages messages from a queue in one operation.
+   * @param queueName the name of the queue
+   * @param maxMessages the maximum number of messages to return, at least 1
+   * @return completes with the received messages, empty if none are visible
+   */
+  CompletableFuture<List<Message<T>>> pullAsync(String queueName, int maxMessages);
+
+  /**
+   * Deletes a message from the queue that was received by a pull.
+   * @param queueName the name of the queue
+   * @param receiptHandle a unique receipt handle from Message.receiptHandle
+   * @return completes once the message is deleted
+   */
+  CompletableFuture<Void> deleteAsync(String queueName, String receiptHandle);
+
+}
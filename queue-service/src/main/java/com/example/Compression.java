@@ -0,0 +1,68 @@
+package com.example;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of message bodies, see {@link QueueConfig#getCompressionThreshold()}.
+ *
+ * Compressed data is the original length followed by the deflated bytes, so that inflating allocates the result once.
+ * The fastest level is used, as large text bodies shrink several times over at a fraction of the cost of the higher
+ * levels.
+ */
+final class Compression {
+
+  private static final int LENGTH_SIZE = 4;
+
+  private Compression() {
+  }
+
+  /**
+   * @return the compressed body, or null if compressing does not make it smaller
+   */
+  static byte[] compress(byte[] body) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(body);
+      deflater.finish();
+      byte[] buffer = new byte[LENGTH_SIZE + body.length];
+      int length = LENGTH_SIZE;
+      while (!deflater.finished() && length < buffer.length) {
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      if (!deflater.finished()) {
+        return null;
+      }
+      ByteBuffer.wrap(buffer).putInt(body.length);
+      byte[] compressed = new byte[length];
+      System.arraycopy(buffer, 0, compressed, 0, length);
+      return compressed;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  static byte[] decompress(byte[] data, int offset, int length) {
+    Inflater inflater = new Inflater();
+    try {
+      byte[] body = new byte[ByteBuffer.wrap(data, offset, LENGTH_SIZE).getInt()];
+      inflater.setInput(data, offset + LENGTH_SIZE, length - LENGTH_SIZE);
+      int inflated = 0;
+      while (inflated < body.length && !inflater.finished()) {
+        int count = inflater.inflate(body, inflated, body.length - inflated);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalStateException("Truncated compressed body");
+        }
+        inflated += count;
+      }
+      return body;
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Corrupt compressed body", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+}
@@ -0,0 +1,26 @@
+package com.example;
+
+/**
+ * When the changes an operation makes to a queue reach the disk. Honoured by {@link FileQueueService}; the other
+ * backends either keep no files or leave durability to the service behind them.
+ */
+public enum Durability {
+
+  /**
+   * Changes are handed to the operating system, which writes them back in its own time. They survive the crash of
+   * the process, but not of the host.
+   */
+  OS_BUFFERED,
+
+  /**
+   * Every operation forces its changes to disk before it returns.
+   */
+  FSYNC,
+
+  /**
+   * Every operation returns once its changes are on disk, but operations that complete within the group commit window
+   * of each other share a single force.
+   */
+  GROUP_COMMIT
+
+}
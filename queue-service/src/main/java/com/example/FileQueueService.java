@@ -0,0 +1,916 @@
+package com.example;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * File based queue, safe across threads and processes on the same host.
+ *
+ * Every queue lives in its own directory and is stored by a {@link SegmentStore}, so each operation costs I/O
+ * proportional to the messages it handles rather than to the size of the backlog. Bodies are converted by a
+ * {@link Serializer} and stored raw in the {@link RecordCodec} format. The messages of the former text format, kept
+ * in a single file for all queues of a directory without recording their queue, are moved into a queue of the
+ * caller's choice by {@link #migrate(Path, String, Function)}.
+ *
+ * Access to a queue is serialized by a {@link FileLock} between processes and by a fair {@link ReentrantLock} shared by
+ * all instances within the JVM, so that threads queue up in memory in arrival order instead of contending for the OS
+ * lock, which the JVM does not allow to be held twice anyway. OS locks are released by the kernel when a process dies,
+ * so a crash cannot leave a queue locked. The files of a queue stay open between operations until {@link #close()}.
+ *
+ * How soon changes reach the disk is chosen per queue with {@link QueueConfig#getDurability()}. Under group commit,
+ * operations wait for a shared force after releasing the queue lock, so that others can get their changes in.
+ *
+ * Asynchronous operations run on a dedicated pool of I/O threads, so callers never wait for a lock or the disk.
+ *
+ * Deletes of messages behind one still in flight leave dead records that the head cannot reclaim yet. Shortly after
+ * such deletes, a compaction on an I/O thread rewrites the segments whose dead share has reached
+ * {@link QueueConfig#getCompactionDeadRatio()}, copying at {@link QueueConfig#getCompactionBytesPerSecond()} at most
+ * and taking the queue lock only to plan and to swap each segment. A compaction that fails is logged and leaves the
+ * segments as they were.
+ *
+ * A message published to a topic is stored once by the {@link TopicStore} of the topic, and the subscribed queues get
+ * a small reference record that is replaced by the body on delivery. Publishing takes the topic lock, and the lock of
+ * every subscribed queue in turn while holding it. The bodies are on disk before any queue refers to them unless the
+ * topic is configured with {@link Durability#OS_BUFFERED}.
+ */
+public class FileQueueService<T> implements QueueService<T>, AsyncQueueService<T>, TopicService<T>, Closeable {
+
+  public static final int DEFAULT_IO_THREADS = 4;
+
+  static final long COMPACTION_DELAY_MILLISECONDS = 100L;
+
+  private static final String LOCK_FILE = "lock";
+  private static final String LEGACY_MESSAGES_FILE = "messages";
+  private static final String TOPICS_DIRECTORY = "topics";
+  private static final Map<Path, Lock> THREAD_LOCKS = new ConcurrentHashMap<>();
+  private static final QueueWatcher WATCHER = new QueueWatcher();
+  private static final Logger LOGGER = Logger.getLogger(FileQueueService.class.getName());
+
+  private final String queuesDirectory;
+  private final Clock clock;
+  private final Serializer<T> serializer;
+  private final Map<String, QueueConfig> configs = new ConcurrentHashMap<>();
+  private final Map<Path, OpenQueue> openQueues = new ConcurrentHashMap<>();
+  private final Map<Path, OpenTopic> openTopics = new ConcurrentHashMap<>();
+  private final ScheduledThreadPoolExecutor ioExecutor;
+  private final Set<CompletableFuture<?>> longPolls = ConcurrentHashMap.newKeySet();
+
+  public FileQueueService(String queuesDirectory, Clock clock, Serializer<T> serializer) {
+    this(queuesDirectory, clock, serializer, DEFAULT_IO_THREADS);
+  }
+
+  /**
+   * @param ioThreads the number of threads running the asynchronous operations
+   */
+  public FileQueueService(String queuesDirectory, Clock clock, Serializer<T> serializer, int ioThreads) {
+    if (serializer == null || ioThreads < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.queuesDirectory = queuesDirectory;
+    this.clock = clock;
+    this.serializer = serializer;
+    this.ioExecutor = new ScheduledThreadPoolExecutor(ioThreads,
+        new ThreadFactoryBuilder().setNameFormat("file-queue-io-%d").setDaemon(true).build());
+    this.ioExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    this.ioExecutor.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * The configuration is kept by this service only, so every process sets up its own; the visibility timeout applies
+   * to the messages this process receives.
+   */
+  @Override
+  public void configure(String queueName, QueueConfig config) {
+    if (isNullOrEmpty(queueName) || config == null) {
+      throw new IllegalArgumentException();
+    }
+
+    configs.put(queueName, config);
+  }
+
+  /**
+   * The file in which the former text format kept the messages of all queues of a directory.
+   */
+  public static Path legacyMessagesFile(String queuesDirectory) {
+    String directoryName = Hashing.md5().hashString(queuesDirectory, Charset.defaultCharset()).toString();
+    return Paths.get(queuesDirectory, directoryName, LEGACY_MESSAGES_FILE);
+  }
+
+  /**
+   * Moves the messages of a file in the former text format, see {@link #legacyMessagesFile(String)}, into a queue and
+   * deletes the file; does nothing if there is no such file. The messages become visible right away with no attempts
+   * counted, as receipt handles of the former format cannot be honoured. The file is deleted once the messages are
+   * forced to disk, so a crash in between moves them again on the next call.
+   * @param bodyOf converts a body of the former format, which held text only
+   */
+  public void migrate(Path legacyFile, String queueName, Function<String, T> bodyOf) {
+    if (legacyFile == null || isNullOrEmpty(queueName) || bodyOf == null) {
+      throw new IllegalArgumentException();
+    }
+
+    if (!Files.exists(legacyFile)) {
+      return;
+    }
+    QueueConfig config = config(queueName);
+    List<byte[]> records;
+    try (Stream<String> lines = Files.lines(legacyFile, Charset.defaultCharset())) {
+      records = lines
+          .filter(line -> !line.isEmpty())
+          .map(line -> new String(RecordCodec.decodeTextLine(line), Charset.defaultCharset()))
+          .map(body -> RecordCodec.encode(serializer.serialize(bodyOf.apply(body)), config.getCompressionThreshold()))
+          .collect(toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    Path queueDirectory = getQueueDirectory(queueName);
+    withStore(queueDirectory, QueueConfig.builder().durability(Durability.FSYNC).build(), store -> {
+      store.append(records);
+      return null;
+    });
+    try {
+      Files.delete(legacyFile);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    WATCHER.signal(queueDirectory);
+  }
+
+  @Override
+  public void push(String queueName, T messageBody) {
+    if (isNullOrEmpty(queueName) || messageBody == null) {
+      throw new IllegalArgumentException();
+    }
+
+    pushBatch(queueName, singletonList(messageBody));
+  }
+
+  @Override
+  public void pushBatch(String queueName, List<T> messageBodies) {
+    if (isNullOrEmpty(queueName) || messageBodies == null || messageBodies.contains(null)) {
+      throw new IllegalArgumentException();
+    }
+
+    QueueConfig config = config(queueName);
+    List<byte[]> records = messageBodies.stream()
+        .map(body -> RecordCodec.encode(serializer.serialize(body), config.getCompressionThreshold()))
+        .collect(toList());
+    Path queueDirectory = getQueueDirectory(queueName);
+    boolean filledSegmentWithDeletes = withStore(queueDirectory, config, store -> {
+      store.append(records);
+      return store.hasFullSegmentsWithDeletes();
+    });
+    WATCHER.signal(queueDirectory);
+    if (filledSegmentWithDeletes) {
+      scheduleCompaction(queueDirectory, config);
+    }
+  }
+
+  @Override
+  public Optional<Message<T>> pull(String queueName) {
+    if (isNullOrEmpty(queueName)) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, 1).stream().findFirst();
+  }
+
+  /**
+   * Waits for a push to this queue, from this or another process, or for an invisible message to time out, whichever
+   * comes first, instead of polling the queue files.
+   */
+  @Override
+  public Optional<Message<T>> pull(String queueName, Duration maxWait) {
+    if (isNullOrEmpty(queueName) || maxWait == null || maxWait.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    Path queueDirectory = getQueueDirectory(queueName);
+    QueueConfig config = config(queueName);
+    long deadline = System.nanoTime() + maxWait.toNanos();
+    createQueueDirectory(queueDirectory);
+    WATCHER.watch(queueDirectory);
+    try {
+      while (true) {
+        long version = WATCHER.version(queueDirectory);
+        Optional<Message<T>> message = pull(queueName, queueDirectory, config, 1,
+            config.getVisibilityTimeout().toMillis()).stream().findFirst();
+        long remainingMillis = NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (message.isPresent() || remainingMillis <= 0) {
+          return message;
+        }
+        long untilVisible = withStore(queueDirectory, config, SegmentStore::nextVisibleAt) - now();
+        WATCHER.await(queueDirectory, version, Math.max(1, Math.min(remainingMillis, untilVisible)));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      WATCHER.unwatch(queueDirectory);
+    }
+  }
+
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    QueueConfig config = config(queueName);
+    return pull(queueName, getQueueDirectory(queueName), config, maxMessages,
+        config.getVisibilityTimeout().toMillis());
+  }
+
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages, Duration visibilityTimeout) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1 || visibilityTimeout == null || visibilityTimeout.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, getQueueDirectory(queueName), config(queueName), maxMessages, visibilityTimeout.toMillis());
+  }
+
+  private List<Message<T>> pull(String queueName, Path queueDirectory, QueueConfig config, int maxMessages,
+                                     long visibilityTimeout) {
+    return Redrive.receive(this, queueName, config, maxMessages, count -> {
+      List<Message<byte[]>> records = withStore(queueDirectory, config,
+          store -> resolveReferences(store.deliver(count, now(), visibilityTimeout)));
+      return records.stream().map(this::decode).collect(toList());
+    }, deadLetters -> moveToDeadLetterQueue(queueDirectory, config, deadLetters));
+  }
+
+  /**
+   * Holds the locks of both queues, taken in the order of their directories so that queues which are each other's
+   * dead-letter queue cannot deadlock, while the messages still in flight are appended to the dead-letter queue and
+   * deleted. The dead-letter queue is committed first, so a crash in between leaves a message in both queues rather than
+   * in neither.
+   */
+  private void moveToDeadLetterQueue(Path queueDirectory, QueueConfig config, List<Message<T>> deadLetters) {
+    QueueConfig deadLetterConfig = config(config.getDeadLetterQueue());
+    Path deadLetterDirectory = getQueueDirectory(config.getDeadLetterQueue());
+    createQueueDirectory(deadLetterDirectory);
+    List<Path> directories = Stream.of(queueDirectory, deadLetterDirectory).distinct().sorted().collect(toList());
+    List<Lock> threadLocks = directories.stream()
+        .map(directory -> THREAD_LOCKS.computeIfAbsent(directory, d -> new ReentrantLock(true)))
+        .collect(toList());
+    long now = now();
+    threadLocks.forEach(Lock::lock);
+    try {
+      List<FileLock> processLocks = new ArrayList<>();
+      try {
+        for (Path directory : directories) {
+          processLocks.add(getOpenQueue(directory).lockChannel.lock());
+        }
+        SegmentStore store = getOpenQueue(queueDirectory).store;
+        SegmentStore deadLetterStore = getOpenQueue(deadLetterDirectory).store;
+        store.refresh();
+        deadLetterStore.refresh();
+
+        List<String> receiptHandles = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        for (Message<T> deadLetter : deadLetters) {
+          if (store.isInFlight(deadLetter.getReceiptHandle(), now)) {
+            receiptHandles.add(deadLetter.getReceiptHandle());
+            records.add(RecordCodec.encode(serializer.serialize(deadLetter.getBody()),
+                deadLetterConfig.getCompressionThreshold()));
+          }
+        }
+        deadLetterStore.append(records);
+        commit(deadLetterStore, deadLetterConfig);
+        for (String receiptHandle : receiptHandles) {
+          store.delete(receiptHandle, now);
+        }
+        commit(store, config);
+      } finally {
+        for (FileLock processLock : processLocks) {
+          processLock.release();
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      threadLocks.forEach(Lock::unlock);
+    }
+    WATCHER.signal(deadLetterDirectory);
+    scheduleCompaction(queueDirectory, config);
+  }
+
+  /**
+   * Commits a store right away, forcing it to disk unless its queue is {@link Durability#OS_BUFFERED}.
+   */
+  private static void commit(SegmentStore store, QueueConfig config) throws IOException {
+    if (store.commit() && config.getDurability() != Durability.OS_BUFFERED) {
+      store.force();
+    }
+  }
+
+  /**
+   * Replaces the references to bodies published to topics by the bodies, while the queue lock keeps them from being
+   * reclaimed.
+   */
+  private List<Message<byte[]>> resolveReferences(List<Message<byte[]>> records) throws IOException {
+    if (records.stream().noneMatch(record -> RecordCodec.isReference(record.getBody()))) {
+      return records;
+    }
+
+    try (TopicStore.Reader reader = new TopicStore.Reader(getTopicsDirectory())) {
+      List<Message<byte[]>> resolved = new ArrayList<>();
+      for (Message<byte[]> record : records) {
+        if (RecordCodec.isReference(record.getBody())) {
+          record = Message.<byte[]>builder()
+              .attempts(record.getAttempts())
+              .visibleFrom(record.getVisibleFrom())
+              .receiptHandle(record.getReceiptHandle())
+              .body(reader.read(record.getBody()))
+              .build();
+        }
+        resolved.add(record);
+      }
+      return resolved;
+    }
+  }
+
+  @Override
+  public void delete(String queueName, String receiptHandle) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle)) {
+      throw new IllegalArgumentException();
+    }
+
+    deleteBatch(queueName, singletonList(receiptHandle));
+  }
+
+  @Override
+  public void changeVisibility(String queueName, String receiptHandle, Duration visibilityTimeout) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle) || visibilityTimeout == null
+        || visibilityTimeout.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    long now = now();
+    Path queueDirectory = getQueueDirectory(queueName);
+    withStore(queueDirectory, config(queueName), store -> {
+      store.changeVisibility(receiptHandle, now, now + visibilityTimeout.toMillis());
+      return null;
+    });
+    WATCHER.signal(queueDirectory);
+  }
+
+  @Override
+  public void deleteBatch(String queueName, List<String> receiptHandles) {
+    if (isNullOrEmpty(queueName) || receiptHandles == null || receiptHandles.stream().anyMatch(Strings::isNullOrEmpty)) {
+      throw new IllegalArgumentException();
+    }
+
+    long now = now();
+    Path queueDirectory = getQueueDirectory(queueName);
+    QueueConfig config = config(queueName);
+    withStore(queueDirectory, config, store -> {
+      for (String receiptHandle : receiptHandles) {
+        store.delete(receiptHandle, now);
+      }
+      return null;
+    });
+    scheduleCompaction(queueDirectory, config);
+  }
+
+  /**
+   * The subscriptions are kept in the files of the topic, so they apply to every process.
+   */
+  @Override
+  public void subscribe(String topicName, String queueName) {
+    if (isNullOrEmpty(topicName) || isNullOrEmpty(queueName)) {
+      throw new IllegalArgumentException();
+    }
+
+    withTopic(getTopicDirectory(topicName), config(topicName), topic -> {
+      topic.subscribe(queueName);
+      return null;
+    });
+  }
+
+  @Override
+  public void publish(String topicName, T messageBody) {
+    if (isNullOrEmpty(topicName) || messageBody == null) {
+      throw new IllegalArgumentException();
+    }
+
+    publishBatch(topicName, singletonList(messageBody));
+  }
+
+  /**
+   * The bodies are compressed and made durable as configured for the topic, and the references as configured for each
+   * subscribed queue.
+   */
+  @Override
+  public void publishBatch(String topicName, List<T> messageBodies) {
+    if (isNullOrEmpty(topicName) || messageBodies == null || messageBodies.contains(null)) {
+      throw new IllegalArgumentException();
+    }
+
+    QueueConfig config = config(topicName);
+    List<byte[]> records = messageBodies.stream()
+        .map(body -> RecordCodec.encode(serializer.serialize(body), config.getCompressionThreshold()))
+        .collect(toList());
+    withTopic(getTopicDirectory(topicName), config, topic -> {
+      List<String> queueNames = topic.subscriptions();
+      if (queueNames.isEmpty() || records.isEmpty()) {
+        return null;
+      }
+      List<byte[]> references = topic.append(records);
+      if (topic.commit() && config.getDurability() != Durability.OS_BUFFERED) {
+        topic.force();
+      }
+      for (String queueName : queueNames) {
+        Path queueDirectory = getQueueDirectory(queueName);
+        QueueConfig queueConfig = config(queueName);
+        boolean filledSegmentWithDeletes = withStore(queueDirectory, queueConfig, store -> {
+          store.append(references);
+          return store.hasFullSegmentsWithDeletes();
+        });
+        WATCHER.signal(queueDirectory);
+        if (filledSegmentWithDeletes) {
+          scheduleCompaction(queueDirectory, queueConfig);
+        }
+      }
+      if (topic.filledSegment()) {
+        reclaim(topic, queueNames);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Deletes the bodies of a topic that no subscribed queue refers to any more.
+   */
+  private void reclaim(TopicStore topic, List<String> queueNames) throws IOException {
+    long oldest = topic.tail();
+    for (String queueName : queueNames) {
+      byte[] reference = withStore(getQueueDirectory(queueName), config(queueName),
+          store -> store.firstLiveReference(topic::isReference));
+      if (reference != null) {
+        oldest = Math.min(oldest, TopicStore.sequenceOf(reference));
+      }
+    }
+    topic.reclaim(oldest);
+  }
+
+  /**
+   * Lets deletes that follow each other closely share one compaction, and runs at most one per queue at a time. Pushes
+   * schedule one as well when they fill a segment that had deletes while it was the tail segment.
+   */
+  private void scheduleCompaction(Path queueDirectory, QueueConfig config) {
+    OpenQueue queue = openQueues.get(queueDirectory);
+    if (queue != null && queue.compacting.compareAndSet(false, true)) {
+      try {
+        ioExecutor.schedule(() -> compact(queueDirectory, config, queue), COMPACTION_DELAY_MILLISECONDS,
+            MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        queue.compacting.set(false);
+      }
+    }
+  }
+
+  private void compact(Path queueDirectory, QueueConfig config, OpenQueue queue) {
+    try {
+      Set<Long> segments;
+      while (!(segments = withStore(queueDirectory, config, SegmentStore::takeSegmentsWithDeletes)).isEmpty()) {
+        for (long segment : segments) {
+          SegmentStore.Compaction compaction = withStore(queueDirectory, config,
+              store -> store.planCompaction(segment, config.getCompactionDeadRatio()));
+          if (compaction != null) {
+            compaction.copy(queue.compactionRate(config.getCompactionBytesPerSecond()));
+            withStore(queueDirectory, config, store -> {
+              store.applyCompaction(compaction);
+              return null;
+            });
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Compaction of queue " + queueDirectory + " failed", e);
+    } finally {
+      queue.compacting.set(false);
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> pushAsync(String queueName, T messageBody) {
+    if (isNullOrEmpty(queueName) || messageBody == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return runAsync(() -> push(queueName, messageBody), ioExecutor);
+  }
+
+  @Override
+  public CompletableFuture<Optional<Message<T>>> pullAsync(String queueName) {
+    if (isNullOrEmpty(queueName)) {
+      throw new IllegalArgumentException();
+    }
+
+    return supplyAsync(() -> pull(queueName), ioExecutor);
+  }
+
+  /**
+   * Looks at the queue on an I/O thread and, while it is empty, looks again on the next push or when the earliest
+   * invisible message times out, so that no thread is taken up in between.
+   */
+  @Override
+  public CompletableFuture<Optional<Message<T>>> pullAsync(String queueName, Duration maxWait) {
+    if (isNullOrEmpty(queueName) || maxWait == null || maxWait.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    LongPoll longPoll = new LongPoll(queueName, System.nanoTime() + maxWait.toNanos());
+    longPoll.lookAgain();
+    return longPoll.result;
+  }
+
+  /**
+   * A pull waiting without a thread. Its looks at the queue run one at a time on I/O threads, each scheduling the next
+   * on a push or a timeout, whichever comes first, and forgetting the other. Completing the result from outside, as
+   * cancelling it does, wakes the poll up to stop waiting.
+   */
+  private final class LongPoll {
+
+    private final String queueName;
+    private final long deadline;
+    private final CompletableFuture<Optional<Message<T>>> result = new CompletableFuture<>();
+    private volatile CompletableFuture<Void> wakeup = CompletableFuture.completedFuture(null);
+    private Path watched;
+
+    private LongPoll(String queueName, long deadline) {
+      this.queueName = queueName;
+      this.deadline = deadline;
+      longPolls.add(result);
+      result.whenComplete((message, error) -> {
+        longPolls.remove(result);
+        wakeup.complete(null);
+      });
+    }
+
+    private void lookAgain() {
+      try {
+        ioExecutor.execute(this::look);
+      } catch (RejectedExecutionException e) {
+        stopWatching();
+        result.completeExceptionally(e);
+      }
+    }
+
+    private void look() {
+      if (result.isDone()) {
+        stopWatching();
+        return;
+      }
+      try {
+        Path queueDirectory = getQueueDirectory(queueName);
+        QueueConfig config = config(queueName);
+        if (watched == null) {
+          createQueueDirectory(queueDirectory);
+          WATCHER.watch(queueDirectory);
+          watched = queueDirectory;
+        }
+        long version = WATCHER.version(queueDirectory);
+        Optional<Message<T>> message = pull(queueName, queueDirectory, config, 1,
+            config.getVisibilityTimeout().toMillis()).stream().findFirst();
+        long remainingMillis = NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (message.isPresent() || remainingMillis <= 0) {
+          stopWatching();
+          result.complete(message);
+          return;
+        }
+        long untilVisible = withStore(queueDirectory, config, SegmentStore::nextVisibleAt) - now();
+        CompletableFuture<Void> next = new CompletableFuture<>();
+        wakeup = next;
+        ScheduledFuture<?> timeout = ioExecutor.schedule(() -> next.complete(null),
+            Math.max(1, Math.min(remainingMillis, untilVisible)), MILLISECONDS);
+        Runnable forgetSignal = WATCHER.onSignal(queueDirectory, version, () -> next.complete(null));
+        next.whenComplete((ignored, error) -> {
+          timeout.cancel(false);
+          forgetSignal.run();
+          lookAgain();
+        });
+        if (result.isDone()) {
+          next.complete(null);
+        }
+      } catch (RuntimeException e) {
+        stopWatching();
+        result.completeExceptionally(e);
+      }
+    }
+
+    private void stopWatching() {
+      if (watched != null) {
+        WATCHER.unwatch(watched);
+        watched = null;
+      }
+    }
+  }
+
+  @Override
+  public CompletableFuture<List<Message<T>>> pullAsync(String queueName, int maxMessages) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    return supplyAsync(() -> pull(queueName, maxMessages), ioExecutor);
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteAsync(String queueName, String receiptHandle) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle)) {
+      throw new IllegalArgumentException();
+    }
+
+    return runAsync(() -> delete(queueName, receiptHandle), ioExecutor);
+  }
+
+  /**
+   * Runs an operation with the queue locked and makes its changes as durable as configured before returning.
+   */
+  private <R> R withStore(Path queueDirectory, QueueConfig config, StoreOperation<R> operation) {
+    Lock threadLock = THREAD_LOCKS.computeIfAbsent(queueDirectory, directory -> new ReentrantLock(true));
+    OpenQueue queue;
+    R result;
+    long ticket = 0;
+    threadLock.lock();
+    try {
+      queue = getOpenQueue(queueDirectory);
+      FileLock processLock = queue.lockChannel.lock();
+      try {
+        queue.store.refresh();
+        result = operation.apply(queue.store);
+        if (queue.store.commit()) {
+          if (config.getDurability() == Durability.FSYNC) {
+            queue.store.force();
+          } else if (config.getDurability() == Durability.GROUP_COMMIT) {
+            ticket = queue.groupCommit.ticket();
+          }
+        }
+      } finally {
+        processLock.release();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      threadLock.unlock();
+    }
+
+    if (ticket > 0) {
+      awaitGroupCommit(queue, threadLock, ticket, config.getGroupCommitWindow());
+    }
+    return result;
+  }
+
+  /**
+   * Runs an operation with the topic locked, between threads and processes alike.
+   */
+  private <R> R withTopic(Path topicDirectory, QueueConfig config, TopicOperation<R> operation) {
+    Lock threadLock = THREAD_LOCKS.computeIfAbsent(topicDirectory, directory -> new ReentrantLock(true));
+    threadLock.lock();
+    try {
+      OpenTopic topic = openTopics.get(topicDirectory);
+      if (topic == null) {
+        createQueueDirectory(topicDirectory);
+        topic = new OpenTopic(FileChannel.open(topicDirectory.resolve(LOCK_FILE), CREATE, WRITE),
+            TopicStore.open(topicDirectory));
+        openTopics.put(topicDirectory, topic);
+      }
+      FileLock processLock = topic.lockChannel.lock();
+      try {
+        topic.store.refresh();
+        R result = operation.apply(topic.store);
+        if (topic.store.commit() && config.getDurability() != Durability.OS_BUFFERED) {
+          topic.store.force();
+        }
+        return result;
+      } finally {
+        processLock.release();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      threadLock.unlock();
+    }
+  }
+
+  private void awaitGroupCommit(OpenQueue queue, Lock threadLock, long ticket, Duration window) {
+    try {
+      queue.groupCommit.await(ticket, window, () -> {
+        threadLock.lock();
+        try {
+          queue.store.force();
+        } finally {
+          threadLock.unlock();
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Must be called with the thread lock of the queue held.
+   */
+  private OpenQueue getOpenQueue(Path queueDirectory) throws IOException {
+    OpenQueue queue = openQueues.get(queueDirectory);
+    if (queue == null) {
+      createQueueDirectory(queueDirectory);
+      queue = new OpenQueue(FileChannel.open(queueDirectory.resolve(LOCK_FILE), CREATE, WRITE),
+          SegmentStore.open(queueDirectory));
+      openQueues.put(queueDirectory, queue);
+    }
+    return queue;
+  }
+
+  private Message<T> decode(Message<byte[]> record) {
+    return Message.<T>builder()
+        .attempts(record.getAttempts())
+        .visibleFrom(record.getVisibleFrom())
+        .receiptHandle(record.getReceiptHandle())
+        .body(serializer.deserialize(RecordCodec.decode(record.getBody())))
+        .clock(clock)
+        .build();
+  }
+
+  private QueueConfig config(String queueName) {
+    return configs.getOrDefault(queueName, QueueConfig.DEFAULT);
+  }
+
+  private long now() {
+    return Instant.now(clock).toEpochMilli();
+  }
+
+  private Path getQueueDirectory(String queueName) {
+    return Paths.get(queuesDirectory, sanitize(queueName)).toAbsolutePath().normalize();
+  }
+
+  private Path getTopicsDirectory() {
+    return Paths.get(queuesDirectory, TOPICS_DIRECTORY).toAbsolutePath().normalize();
+  }
+
+  private Path getTopicDirectory(String topicName) {
+    return getTopicsDirectory().resolve(sanitize(topicName));
+  }
+
+  private void createQueueDirectory(Path queueDirectory) {
+    try {
+      Files.createDirectories(queueDirectory);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private String sanitize(String queueName) {
+    HashFunction hashFunction = Hashing.md5();
+    HashCode hashCode = hashFunction.hashString(queueName, Charset.defaultCharset());
+    return hashCode.toString();
+  }
+
+  /**
+   * Cancels pending long polls, waits for the other asynchronous operations and closes the queue files kept open by
+   * this service; it must not be used afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    longPolls.forEach(longPoll -> longPoll.cancel(false));
+    ioExecutor.shutdown();
+    try {
+      ioExecutor.awaitTermination(Long.MAX_VALUE, NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    for (Map.Entry<Path, OpenQueue> openQueue : openQueues.entrySet()) {
+      Lock threadLock = THREAD_LOCKS.computeIfAbsent(openQueue.getKey(), directory -> new ReentrantLock(true));
+      threadLock.lock();
+      try {
+        openQueue.getValue().close();
+      } finally {
+        threadLock.unlock();
+      }
+    }
+    openQueues.clear();
+    for (Map.Entry<Path, OpenTopic> openTopic : openTopics.entrySet()) {
+      Lock threadLock = THREAD_LOCKS.computeIfAbsent(openTopic.getKey(), directory -> new ReentrantLock(true));
+      threadLock.lock();
+      try {
+        openTopic.getValue().close();
+      } finally {
+        threadLock.unlock();
+      }
+    }
+    openTopics.clear();
+  }
+
+  private static final class OpenQueue implements Closeable {
+
+    private final FileChannel lockChannel;
+    private final SegmentStore store;
+    private final GroupCommit groupCommit = new GroupCommit();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private RateLimiter compactionRate;
+
+    private OpenQueue(FileChannel lockChannel, SegmentStore store) {
+      this.lockChannel = lockChannel;
+      this.store = store;
+    }
+
+    private synchronized RateLimiter compactionRate(long bytesPerSecond) {
+      if (compactionRate == null) {
+        compactionRate = RateLimiter.create(bytesPerSecond);
+      } else if (compactionRate.getRate() != bytesPerSecond) {
+        compactionRate.setRate(bytesPerSecond);
+      }
+      return compactionRate;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        store.close();
+      } finally {
+        lockChannel.close();
+      }
+    }
+  }
+
+  private static final class OpenTopic implements Closeable {
+
+    private final FileChannel lockChannel;
+    private final TopicStore store;
+
+    private OpenTopic(FileChannel lockChannel, TopicStore store) {
+      this.lockChannel = lockChannel;
+      this.store = store;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        store.close();
+      } finally {
+        lockChannel.close();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface StoreOperation<R> {
+    R apply(SegmentStore store) throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface TopicOperation<R> {
+    R apply(TopicStore store) throws IOException;
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.example;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Lets concurrent writers of a queue share one force of its files.
+ *
+ * A writer takes a ticket once its changes are written and then waits for a force that covers it. The first writer
+ * without a force in progress leads: it waits for the window, so that others can join, and forces on behalf of every
+ * ticket taken until then. Writers that joined too late lead the next round.
+ */
+final class GroupCommit {
+
+  private long requested;
+  private long committed;
+  private boolean leading;
+
+  /**
+   * Must be taken after the changes to be covered are written.
+   */
+  synchronized long ticket() {
+    return ++requested;
+  }
+
+  void await(long ticket, Duration window, Force force) throws IOException, InterruptedException {
+    synchronized (this) {
+      while (committed < ticket && leading) {
+        wait();
+      }
+      if (committed >= ticket) {
+        return;
+      }
+      leading = true;
+    }
+
+    long target = 0;
+    boolean forced = false;
+    try {
+      NANOSECONDS.sleep(window.toNanos());
+      synchronized (this) {
+        target = requested;
+      }
+      force.run();
+      forced = true;
+    } finally {
+      synchronized (this) {
+        if (forced) {
+          committed = Math.max(committed, target);
+        }
+        leading = false;
+        notifyAll();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  interface Force {
+    void run() throws IOException;
+  }
+
+}
@@ -0,0 +1,582 @@
+package com.example;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Write-ahead log of the queues of a persistent {@link InMemoryQueueService}.
+ *
+ * Queues hand their changes over to a writer thread and carry on. The writer appends everything handed over since its
+ * last write with one sequential write and one force, so forcing is shared by all changes of a batch, and a crash
+ * loses at most the batch being written. Records carry their length and checksum, so replay stops at one torn by a
+ * crash.
+ *
+ * The writer also applies the changes to an image of the live messages, holding their serialized bodies, attempts
+ * and visibility, the bodies counting against the {@link MemoryBudget} of the service. Once a log has grown by the
+ * snapshot size, and on close, the image is written to a snapshot and a new log is started, deleting the older files.
+ * Opening loads the latest snapshot and replays the logs after it.
+ *
+ * Receipt handles issued before a restart are not recognized after it; messages that were in flight are delivered
+ * again once their visibility timeout has passed.
+ */
+final class InMemoryJournal<T> implements Closeable {
+
+  static final long SNAPSHOT_LOG_BYTES = 64L << 20;
+
+  private static final String LOG_PREFIX = "log-";
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final byte SYNC = 0;
+  private static final byte PUSHED = 1;
+  private static final byte DELIVERED = 2;
+  private static final byte VISIBILITY_CHANGED = 3;
+  private static final byte DELETED = 4;
+  private static final byte CLOSE = 5;
+  private static final ThreadFactory WRITERS =
+      new ThreadFactoryBuilder().setNameFormat("in-memory-journal-%d").setDaemon(true).build();
+
+  private final Path directory;
+  private final Serializer<T> serializer;
+  private final Clock clock;
+  private final long snapshotLogBytes;
+  private final Map<String, Map<String, Entry>> image = new HashMap<>();
+  private final BlockingQueue<Change<T>> changes = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  private final AtomicInteger submitting = new AtomicInteger();
+  private volatile MemoryBudget budget;
+  private volatile IOException failure;
+  private volatile boolean closed;
+  private long imageBytes;
+  private long generation;
+  private FileChannel log;
+  private long logBytes;
+
+  private InMemoryJournal(Path directory, Serializer<T> serializer, Clock clock, long snapshotLogBytes) {
+    this.directory = directory;
+    this.serializer = serializer;
+    this.clock = clock;
+    this.snapshotLogBytes = snapshotLogBytes;
+    this.writer = WRITERS.newThread(this::write);
+  }
+
+  /**
+   * Recovers the queues journaled to a directory, creating it if needed, and starts a new log after them.
+   * @param snapshotLogBytes how large a log grows before the image is written to a snapshot
+   */
+  static <T> InMemoryJournal<T> open(Path directory, Serializer<T> serializer, Clock clock, long snapshotLogBytes) {
+    InMemoryJournal<T> journal = new InMemoryJournal<>(directory, serializer, clock, snapshotLogBytes);
+    try {
+      Files.createDirectories(directory);
+      journal.recover();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    journal.writer.start();
+    return journal;
+  }
+
+  private void recover() throws IOException {
+    TreeSet<Long> snapshots = generations(SNAPSHOT_PREFIX);
+    TreeSet<Long> logs = generations(LOG_PREFIX);
+    long snapshot = snapshots.isEmpty() ? 0 : snapshots.last();
+    if (snapshot > 0) {
+      readSnapshot(snapshotFile(snapshot));
+    }
+    for (long logGeneration : logs.tailSet(snapshot)) {
+      replay(logFile(logGeneration));
+    }
+    long last = Math.max(snapshot, logs.isEmpty() ? 0 : logs.last());
+    openLog(last + 1);
+  }
+
+  /**
+   * The messages recovered when the journal was opened, by queue name; must be taken before any change is journaled.
+   */
+  Map<String, List<Message<T>>> recovered() {
+    Map<String, List<Message<T>>> recovered = new HashMap<>();
+    image.forEach((queueName, entries) -> {
+      List<Message<T>> messages = new ArrayList<>(entries.size());
+      entries.forEach((receiptHandle, entry) ->
+          messages.add(new Message<>(entry.attempts, entry.visibleFrom, receiptHandle,
+              serializer.deserialize(entry.body), clock)));
+      recovered.put(queueName, messages);
+    });
+    return recovered;
+  }
+
+  /**
+   * Counts the bodies of the image against a memory budget from now on; must be called before any change is journaled.
+   */
+  void countAgainst(MemoryBudget budget) {
+    budget.reserve(imageBytes);
+    this.budget = budget;
+  }
+
+  InMemoryQueue.Journal<T> forQueue(String queueName) {
+    return new InMemoryQueue.Journal<T>() {
+      @Override
+      public void pushed(Message<T> message) {
+        submit(new Change<>(PUSHED, queueName, message.getReceiptHandle(), message, null));
+      }
+
+      @Override
+      public void delivered(String previousReceiptHandle, Message<T> delivery) {
+        submit(new Change<>(DELIVERED, queueName, previousReceiptHandle, delivery, null));
+      }
+
+      @Override
+      public void visibilityChanged(Message<T> delivery) {
+        submit(new Change<>(VISIBILITY_CHANGED, queueName, delivery.getReceiptHandle(), delivery, null));
+      }
+
+      @Override
+      public void deleted(String receiptHandle) {
+        submit(new Change<>(DELETED, queueName, receiptHandle, null, null));
+      }
+    };
+  }
+
+  /**
+   * Waits until the changes handed over so far are forced to disk.
+   */
+  void sync() {
+    CountDownLatch forced = new CountDownLatch(1);
+    submit(new Change<>(SYNC, null, null, null, forced));
+    try {
+      forced.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    if (failure != null) {
+      throw new UncheckedIOException(failure);
+    }
+  }
+
+  private void submit(Change<T> change) {
+    submitting.incrementAndGet();
+    try {
+      if (failure != null) {
+        throw new UncheckedIOException("Journal failed", failure);
+      }
+      if (closed) {
+        throw new IllegalStateException("Journal closed");
+      }
+      changes.add(change);
+    } finally {
+      submitting.decrementAndGet();
+    }
+  }
+
+  /**
+   * Writes the remaining changes and a snapshot of them. Changes handed over concurrently are either written or
+   * refused, as closing waits for those being handed over to get in line before it.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    while (submitting.get() > 0) {
+      Thread.yield();
+    }
+    changes.add(new Change<>(CLOSE, null, null, null, null));
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void write() {
+    List<Change<T>> batch = new ArrayList<>();
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    boolean closing = false;
+    while (!closing) {
+      try {
+        batch.add(changes.take());
+      } catch (InterruptedException e) {
+        continue;
+      }
+      changes.drainTo(batch);
+      try {
+        if (failure == null) {
+          append(batch, buffer);
+        }
+      } catch (IOException | RuntimeException e) {
+        failure = e instanceof IOException ? (IOException) e : new IOException(e);
+      }
+      for (Change<T> change : batch) {
+        closing |= change.type == CLOSE;
+        if (change.forced != null) {
+          change.forced.countDown();
+        }
+      }
+      batch.clear();
+    }
+    try {
+      log.close();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+  }
+
+  /**
+   * Writes and forces a batch of changes, then writes a snapshot if the journal is closing or the log is large enough.
+   */
+  private void append(List<Change<T>> batch, ByteArrayOutputStream buffer) throws IOException {
+    buffer.reset();
+    DataOutputStream out = new DataOutputStream(buffer);
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    CRC32 checksum = new CRC32();
+    boolean closing = false;
+    for (Change<T> change : batch) {
+      if (change.type == CLOSE) {
+        closing = true;
+      }
+      if (change.type == SYNC || change.type == CLOSE) {
+        continue;
+      }
+      Record record = toRecord(change);
+      payload.reset();
+      record.writeTo(new DataOutputStream(payload));
+      byte[] bytes = payload.toByteArray();
+      checksum.reset();
+      checksum.update(bytes, 0, bytes.length);
+      out.writeInt(bytes.length);
+      out.writeInt((int) checksum.getValue());
+      out.write(bytes);
+      apply(record);
+    }
+    if (buffer.size() > 0) {
+      ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+      while (bytes.hasRemaining()) {
+        log.write(bytes);
+      }
+      log.force(false);
+      logBytes += buffer.size();
+    }
+    if (closing || logBytes >= snapshotLogBytes) {
+      snapshot();
+    }
+  }
+
+  private Record toRecord(Change<T> change) {
+    Message<T> message = change.message;
+    switch (change.type) {
+      case PUSHED:
+        return new Record(PUSHED, change.queueName, change.receiptHandle, null, 0, message.getVisibleFrom(),
+            serializer.serialize(message.getBody()));
+      case DELIVERED:
+        return new Record(DELIVERED, change.queueName, change.receiptHandle, message.getReceiptHandle(),
+            message.getAttempts(), message.getVisibleFrom(), null);
+      case VISIBILITY_CHANGED:
+        return new Record(VISIBILITY_CHANGED, change.queueName, change.receiptHandle, null, 0,
+            message.getVisibleFrom(), null);
+      default:
+        return new Record(DELETED, change.queueName, change.receiptHandle, null, 0, 0, null);
+    }
+  }
+
+  /**
+   * Changes to messages the image no longer has are ignored, as a change can be journaled after one that superseded
+   * it.
+   */
+  private void apply(Record record) {
+    if (record.type == PUSHED) {
+      Entry replaced = image.computeIfAbsent(record.queueName, queueName -> new LinkedHashMap<>())
+          .put(record.receiptHandle, new Entry(0, record.visibleFrom, record.body));
+      count(record.body.length - (replaced == null ? 0 : replaced.body.length));
+      return;
+    }
+    Map<String, Entry> entries = image.get(record.queueName);
+    Entry entry = entries == null ? null : entries.get(record.receiptHandle);
+    if (entry == null) {
+      return;
+    }
+    switch (record.type) {
+      case DELIVERED:
+        entries.remove(record.receiptHandle);
+        entry.attempts = record.attempts;
+        entry.visibleFrom = record.visibleFrom;
+        entries.put(record.newReceiptHandle, entry);
+        break;
+      case VISIBILITY_CHANGED:
+        entry.visibleFrom = record.visibleFrom;
+        break;
+      default:
+        entries.remove(record.receiptHandle);
+        count(-entry.body.length);
+        if (entries.isEmpty()) {
+          image.remove(record.queueName);
+        }
+    }
+  }
+
+  private void count(long bytes) {
+    imageBytes += bytes;
+    MemoryBudget memoryBudget = budget;
+    if (memoryBudget == null || bytes == 0) {
+      return;
+    }
+    if (bytes > 0) {
+      memoryBudget.reserve(bytes);
+    } else {
+      memoryBudget.release(-bytes);
+    }
+  }
+
+  private void replay(Path logFile) throws IOException {
+    CRC32 checksum = new CRC32();
+    long size = Files.size(logFile);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile)))) {
+      while (true) {
+        byte[] bytes;
+        try {
+          int length = in.readInt();
+          int expected = in.readInt();
+          if (length < 0 || length > size) {
+            return;
+          }
+          bytes = new byte[length];
+          in.readFully(bytes);
+          checksum.reset();
+          checksum.update(bytes, 0, length);
+          if ((int) checksum.getValue() != expected) {
+            return;
+          }
+        } catch (EOFException e) {
+          return;
+        }
+        apply(Record.readFrom(new DataInputStream(new ByteArrayInputStream(bytes))));
+      }
+    }
+  }
+
+  private void snapshot() throws IOException {
+    long next = generation + 1;
+    Path temporary = directory.resolve(SNAPSHOT_PREFIX + next + TEMPORARY_SUFFIX);
+    try (FileChannel channel = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeInt(image.size());
+      for (Map.Entry<String, Map<String, Entry>> queue : image.entrySet()) {
+        out.writeUTF(queue.getKey());
+        out.writeInt(queue.getValue().size());
+        for (Map.Entry<String, Entry> message : queue.getValue().entrySet()) {
+          Entry entry = message.getValue();
+          out.writeUTF(message.getKey());
+          out.writeInt(entry.attempts);
+          out.writeLong(entry.visibleFrom);
+          out.writeInt(entry.body.length);
+          out.write(entry.body);
+        }
+      }
+      out.flush();
+      channel.force(true);
+    }
+    Files.move(temporary, snapshotFile(next), ATOMIC_MOVE);
+    openLog(next);
+    for (long old : generations(SNAPSHOT_PREFIX).headSet(next)) {
+      Files.deleteIfExists(snapshotFile(old));
+    }
+    for (long old : generations(LOG_PREFIX).headSet(next)) {
+      Files.deleteIfExists(logFile(old));
+    }
+  }
+
+  private void readSnapshot(Path snapshotFile) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+      if (in.readInt() != SNAPSHOT_VERSION) {
+        throw new IOException("Unknown snapshot version in " + snapshotFile);
+      }
+      int queues = in.readInt();
+      for (int i = 0; i < queues; i++) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        image.put(in.readUTF(), entries);
+        int messages = in.readInt();
+        for (int j = 0; j < messages; j++) {
+          String receiptHandle = in.readUTF();
+          int attempts = in.readInt();
+          long visibleFrom = in.readLong();
+          byte[] body = new byte[in.readInt()];
+          in.readFully(body);
+          entries.put(receiptHandle, new Entry(attempts, visibleFrom, body));
+        }
+      }
+    }
+  }
+
+  private void openLog(long logGeneration) throws IOException {
+    FileChannel previous = log;
+    log = FileChannel.open(logFile(logGeneration), CREATE, WRITE, APPEND);
+    generation = logGeneration;
+    logBytes = 0;
+    if (previous != null) {
+      previous.close();
+    }
+  }
+
+  private TreeSet<Long> generations(String prefix) throws IOException {
+    TreeSet<Long> generations = new TreeSet<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files.map(file -> file.getFileName().toString())
+          .filter(name -> name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]+"))
+          .forEach(name -> generations.add(Long.parseLong(name.substring(prefix.length()))));
+    }
+    return generations;
+  }
+
+  private Path logFile(long logGeneration) {
+    return directory.resolve(LOG_PREFIX + logGeneration);
+  }
+
+  private Path snapshotFile(long snapshotGeneration) {
+    return directory.resolve(SNAPSHOT_PREFIX + snapshotGeneration);
+  }
+
+  /**
+   * A change handed over to the writer, or a request to sync or close.
+   */
+  private static final class Change<T> {
+
+    final byte type;
+    final String queueName;
+    final String receiptHandle;
+    final Message<T> message;
+    final CountDownLatch forced;
+
+    Change(byte type, String queueName, String receiptHandle, Message<T> message, CountDownLatch forced) {
+      this.type = type;
+      this.queueName = queueName;
+      this.receiptHandle = receiptHandle;
+      this.message = message;
+      this.forced = forced;
+    }
+
+  }
+
+  private static final class Record {
+
+    final byte type;
+    final String queueName;
+    final String receiptHandle;
+    final String newReceiptHandle;
+    final int attempts;
+    final long visibleFrom;
+    final byte[] body;
+
+    Record(byte type, String queueName, String receiptHandle, String newReceiptHandle, int attempts, long visibleFrom,
+           byte[] body) {
+      this.type = type;
+      this.queueName = queueName;
+      this.receiptHandle = receiptHandle;
+      this.newReceiptHandle = newReceiptHandle;
+      this.attempts = attempts;
+      this.visibleFrom = visibleFrom;
+      this.body = body;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+      out.writeByte(type);
+      out.writeUTF(queueName);
+      out.writeUTF(receiptHandle);
+      switch (type) {
+        case PUSHED:
+          out.writeLong(visibleFrom);
+          out.writeInt(body.length);
+          out.write(body);
+          break;
+        case DELIVERED:
+          out.writeUTF(newReceiptHandle);
+          out.writeInt(attempts);
+          out.writeLong(visibleFrom);
+          break;
+        case VISIBILITY_CHANGED:
+          out.writeLong(visibleFrom);
+          break;
+        default:
+      }
+    }
+
+    static Record readFrom(DataInput in) throws IOException {
+      byte type = in.readByte();
+      String queueName = in.readUTF();
+      String receiptHandle = in.readUTF();
+      switch (type) {
+        case PUSHED:
+          long visibleFrom = in.readLong();
+          byte[] body = new byte[in.readInt()];
+          in.readFully(body);
+          return new Record(type, queueName, receiptHandle, null, 0, visibleFrom, body);
+        case DELIVERED:
+          return new Record(type, queueName, receiptHandle, in.readUTF(), in.readInt(), in.readLong(), null);
+        case VISIBILITY_CHANGED:
+          return new Record(type, queueName, receiptHandle, null, 0, in.readLong(), null);
+        default:
+          return new Record(type, queueName, receiptHandle, null, 0, 0, null);
+      }
+    }
+
+  }
+
+  private static final class Entry {
+
+    int attempts;
+    long visibleFrom;
+    final byte[] body;
+
+    Entry(int attempts, long visibleFrom, byte[] body) {
+      this.attempts = attempts;
+      this.visibleFrom = visibleFrom;
+      this.body = body;
+    }
+
+  }
+
+}
@@ -0,0 +1,291 @@
+package com.example;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A shard of a {@link ShardedInMemoryQueue}, the whole queue unless it is sharded.
+ *
+ * Visible messages wait in a lock-free FIFO queue, so that push and pull take no lock. Invisible messages wait in a
+ * {@link TimingWheel} by the time they become visible, taking the wheel lock in constant time to add them. A pull
+ * reads the clock once and, if time has moved on since, advances the wheel to it, moving the messages that became
+ * visible onto the visible queue; the clock is never read to order messages.
+ *
+ * Delivered messages are also indexed by receipt handle, so delete only removes the index entry instead of scanning
+ * the queue; the stale entry left in the wheel is a tombstone that is dropped when it surfaces after the visibility
+ * timeout. Changing the visibility of a message queues a copy and leaves a tombstone in the same way.
+ *
+ * Receipt handles are a counter behind a prefix unique to the queue instance, so handles issued by a queue that was
+ * dropped and created again never match, and issuing one costs neither randomness nor more than one string. The prefix
+ * starts with the index of the shard, so that a sharded queue finds the shard of a handle without asking every one.
+ *
+ * A persistent queue reports every change to a {@link Journal}, and also gives pushed messages a handle from the same
+ * counter so that the journal can tell them apart. A change is reported by the thread that made it, right after taking
+ * the message out of the index or the visible queue, so that no other change to the same message can come in between.
+ */
+final class InMemoryQueue<T> {
+
+  private static final AtomicLong INSTANCES = new AtomicLong();
+
+  private final Queue<Message<T>> visible = new ConcurrentLinkedQueue<>();
+  private final TimingWheel<Message<T>> invisible;
+  private final Lock wheelLock = new ReentrantLock();
+  private final Map<String, Message<T>> inFlight = new ConcurrentHashMap<>();
+  private final String handlePrefix;
+  private final AtomicLong deliveries = new AtomicLong();
+  private final Clock clock;
+  private final Journal<T> journal;
+  private volatile long wheelTime;
+  private volatile int invisibleCount;
+
+  InMemoryQueue(Clock clock) {
+    this(clock, null, 0);
+  }
+
+  /**
+   * @param journal reported every change to the queue, or null if it is not persistent
+   * @param shard the index of the queue among the shards of a {@link ShardedInMemoryQueue}
+   */
+  InMemoryQueue(Clock clock, Journal<T> journal, int shard) {
+    this.handlePrefix = shard + "." + Long.toString(System.currentTimeMillis(), Character.MAX_RADIX) + "."
+        + Long.toString(INSTANCES.incrementAndGet(), Character.MAX_RADIX) + ".";
+    this.clock = clock;
+    this.journal = journal;
+    this.wheelTime = now();
+    this.invisible = new TimingWheel<>(wheelTime, Message::getVisibleFrom);
+  }
+
+  void push(Message<T> message) {
+    if (journal != null) {
+      message = Message.withReceiptHandle(message, nextReceiptHandle());
+      journal.pushed(message);
+    }
+    schedule(message);
+  }
+
+  /**
+   * Adds a message recovered from the journal, in flight under its receipt handle if it was ever delivered.
+   */
+  void restore(Message<T> message) {
+    if (message.getAttempts() > 0) {
+      inFlight.put(message.getReceiptHandle(), message);
+    }
+    schedule(message);
+  }
+
+  Optional<Message<T>> pull(long visibilityTimeout) {
+    expire();
+    Message<T> oldMessage;
+    while ((oldMessage = visible.poll()) != null) {
+      if (isCurrent(oldMessage)) {
+        return Optional.of(redeliver(oldMessage, visibilityTimeout));
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * How long until the next message may become visible, tombstones included; zero if one is visible.
+   */
+  long nextVisibleNanos() {
+    if (!visible.isEmpty()) {
+      return 0;
+    }
+    if (invisibleCount == 0) {
+      return Long.MAX_VALUE;
+    }
+    long nextAdvance;
+    wheelLock.lock();
+    try {
+      nextAdvance = invisible.nextAdvance();
+    } finally {
+      wheelLock.unlock();
+    }
+    return nextAdvance == Long.MAX_VALUE ? nextAdvance : MILLISECONDS.toNanos(Math.max(0, nextAdvance - now()));
+  }
+
+  boolean issued(String receiptHandle) {
+    return receiptHandle.startsWith(handlePrefix);
+  }
+
+  /**
+   * The index of the shard a receipt handle names, or -1 if it names none.
+   */
+  static int shardOf(String receiptHandle) {
+    int shard = 0;
+    for (int i = 0; i < receiptHandle.length() && i < 10; i++) {
+      char c = receiptHandle.charAt(i);
+      if (c == '.') {
+        return i == 0 ? -1 : shard;
+      }
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      shard = shard * 10 + (c - '0');
+    }
+    return -1;
+  }
+
+  /**
+   * Messages visible by the time the wheel is at go straight onto the visible queue; this is every pushed one.
+   */
+  private void schedule(Message<T> message) {
+    if (message.getVisibleFrom() <= wheelTime) {
+      visible.add(message);
+      return;
+    }
+    wheelLock.lock();
+    try {
+      advance(now());
+      if (!invisible.add(message)) {
+        visible.add(message);
+      }
+      invisibleCount = invisible.size();
+    } finally {
+      wheelLock.unlock();
+    }
+  }
+
+  private void expire() {
+    if (invisibleCount == 0) {
+      return;
+    }
+    long now = now();
+    if (now <= wheelTime) {
+      return;
+    }
+    wheelLock.lock();
+    try {
+      advance(now);
+      invisibleCount = invisible.size();
+    } finally {
+      wheelLock.unlock();
+    }
+  }
+
+  private void advance(long now) {
+    invisible.advance(now, visible::add);
+    wheelTime = invisible.current();
+  }
+
+  private long now() {
+    return Instant.now(clock).toEpochMilli();
+  }
+
+  private Message<T> redeliver(Message<T> oldMessage, long visibilityTimeout) {
+    Message<T> newMessage = Message.fromOld(oldMessage, nextReceiptHandle(), visibilityTimeout);
+    if (journal != null) {
+      journal.delivered(oldMessage.getReceiptHandle(), newMessage);
+    }
+    inFlight.put(newMessage.getReceiptHandle(), newMessage);
+    schedule(newMessage);
+    return newMessage;
+  }
+
+  private String nextReceiptHandle() {
+    return handlePrefix + Long.toString(deliveries.incrementAndGet(), Character.MAX_RADIX);
+  }
+
+  /**
+   * @return the deleted message, or null if the receipt handle is not that of a message in flight
+   */
+  Message<T> delete(String receiptHandle) {
+    Message<T> deleted = inFlight.remove(receiptHandle);
+    if (deleted != null && journal != null) {
+      journal.deleted(receiptHandle);
+    }
+    return deleted;
+  }
+
+  /**
+   * Deletes a message in flight and pushes its copy onto another queue, taking it out of the index first so that no
+   * other delete, visibility change or redelivery can come in between. The delete is reported after the push, so a
+   * journal cut short in between holds the message in both queues rather than in neither.
+   * @return the deleted message, or null if the receipt handle is not that of a message in flight
+   */
+  Message<T> moveTo(String receiptHandle, Runnable push) {
+    Message<T> moved = inFlight.remove(receiptHandle);
+    if (moved != null) {
+      push.run();
+      if (journal != null) {
+        journal.deleted(receiptHandle);
+      }
+    }
+    return moved;
+  }
+
+  /**
+   * Deletes the oldest visible message without delivering it.
+   * @return the dropped message, or null if no message is visible
+   */
+  Message<T> dropOldest() {
+    expire();
+    Message<T> oldMessage;
+    while ((oldMessage = visible.poll()) != null) {
+      if (isCurrent(oldMessage)) {
+        if (journal != null) {
+          journal.deleted(oldMessage.getReceiptHandle());
+        }
+        return oldMessage;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Queues the message again with the new visibility; the entry it replaces becomes a tombstone.
+   */
+  void changeVisibility(String receiptHandle, long visibleFrom) {
+    Message<T> changed = inFlight.computeIfPresent(receiptHandle,
+        (handle, message) -> Message.withVisibleFrom(message, visibleFrom));
+    if (changed != null) {
+      if (journal != null) {
+        journal.visibilityChanged(changed);
+      }
+      schedule(changed);
+    }
+  }
+
+  /**
+   * Whether a message taken off the visible queue is still to be delivered, taking it out of the index if so.
+   * Messages are compared by identity, as a tombstone of a changed visibility has the same receipt handle.
+   */
+  private boolean isCurrent(Message<T> message) {
+    if (message.getAttempts() == 0) {
+      return true;
+    }
+    boolean[] current = new boolean[1];
+    inFlight.computeIfPresent(message.getReceiptHandle(), (handle, inFlightMessage) -> {
+      current[0] = inFlightMessage == message;
+      return current[0] ? null : inFlightMessage;
+    });
+    return current[0];
+  }
+
+  /**
+   * Receives the changes of a persistent queue. Messages are identified by the receipt handle they had when pushed or
+   * last delivered.
+   */
+  interface Journal<T> {
+
+    void pushed(Message<T> message);
+
+    void delivered(String previousReceiptHandle, Message<T> delivery);
+
+    void visibilityChanged(Message<T> delivery);
+
+    void deleted(String receiptHandle);
+
+  }
+
+}
@@ -0,0 +1,545 @@
+package com.example;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToLongFunction;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+/**
+ * Queue for producers and consumers within the same JVM.
+ *
+ * Its asynchronous operations complete inline, as they never wait for I/O. Only a long poll that finds the queue empty
+ * waits on a thread of a shared daemon pool.
+ *
+ * Queues are lost with the JVM unless a journal directory is given. Every push, delivery, visibility change and delete
+ * is then handed to an {@link InMemoryJournal} that logs it on a background thread, so operations keep their in-memory
+ * latency, and the queues are recovered from the directory on construction.
+ *
+ * Queues grow without limit unless configured with {@link QueueConfig#getMaxMessages()} or
+ * {@link QueueConfig#getMaxBytes()}, and the service may be given a memory budget for the bodies of all its queues
+ * together. A push that does not fit applies the {@link OverflowPolicy} of its queue, after telling the
+ * {@link QueueFullListener}. Messages count from their push until they are deleted or dropped.
+ *
+ * A message published to a topic is pushed to every subscribed queue, all of them holding the same body, which counts
+ * once against the memory budget until the last of them is deleted. Subscriptions last as long as the service, also
+ * for persistent queues, whose journal logs the body with every message. The serialized bodies the journal keeps to
+ * write its snapshots count against the memory budget as well, once for every queue holding them.
+ */
+public class InMemoryQueueService<T> implements QueueService<T>, AsyncQueueService<T>, TopicService<T>, Closeable {
+
+  private static final ExecutorService LONG_POLLS = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("in-memory-long-poll-%d").setDaemon(true).build());
+
+  private final Map<String, ShardedInMemoryQueue<T>> queues = new ConcurrentHashMap<>();
+  private final Map<String, QueueConfig> configs = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> subscriptions = new ConcurrentHashMap<>();
+  private final SharedBodies sharedBodies = new SharedBodies();
+  private final Clock clock;
+  private final int shards;
+  private final InMemoryJournal<T> journal;
+  private final MemoryBudget budget;
+  private final ToLongFunction<? super T> weigher;
+  private final QueueFullListener queueFullListener;
+
+  public InMemoryQueueService(Clock clock) {
+    this(clock, 1);
+  }
+
+  /**
+   * @param shards the number of shards every queue is spread over; more than one lets many threads on the same queue
+   *               scale across cores, at the cost of FIFO order between messages from different threads
+   */
+  public InMemoryQueueService(Clock clock, int shards) {
+    this(clock, shards, (InMemoryJournal<T>) null);
+  }
+
+  /**
+   * Persistent queues, recovered from and journaled to the given directory, which only this service may use. A crash
+   * loses the changes of at most the last few milliseconds, and messages that were in flight are delivered again once
+   * their visibility timeout has passed.
+   */
+  public InMemoryQueueService(Clock clock, int shards, String journalDirectory, Serializer<T> serializer) {
+    this(clock, shards, openJournal(clock, journalDirectory, serializer));
+  }
+
+  InMemoryQueueService(Clock clock, int shards, InMemoryJournal<T> journal) {
+    this(clock, shards, journal, Long.MAX_VALUE, InMemoryQueueService::weigh, (queueName, policy) -> {
+    });
+  }
+
+  private InMemoryQueueService(Clock clock, int shards, InMemoryJournal<T> journal, long memoryBudget,
+                               ToLongFunction<? super T> weigher, QueueFullListener queueFullListener) {
+    if (shards < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.clock = clock;
+    this.shards = shards;
+    this.journal = journal;
+    this.budget = new MemoryBudget(memoryBudget);
+    this.weigher = weigher;
+    this.queueFullListener = queueFullListener;
+    if (journal != null) {
+      journal.recovered().forEach((queueName, messages) -> {
+        ShardedInMemoryQueue<T> queue = getQueue(queueName);
+        for (Message<T> message : messages) {
+          long bytes = weigher.applyAsLong(message.getBody());
+          queue.restore(message);
+          queue.tryReserve(1, bytes, Long.MAX_VALUE, Long.MAX_VALUE);
+          budget.reserve(bytes);
+        }
+      });
+      journal.countAgainst(budget);
+    }
+  }
+
+  private static <T> InMemoryJournal<T> openJournal(Clock clock, String journalDirectory, Serializer<T> serializer) {
+    if (isNullOrEmpty(journalDirectory) || serializer == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return InMemoryJournal.open(Paths.get(journalDirectory), serializer, clock, InMemoryJournal.SNAPSHOT_LOG_BYTES);
+  }
+
+  /**
+   * The size of a body as counted against {@link QueueConfig#getMaxBytes()} and the memory budget, unless the service
+   * is given a weigher: the length of byte arrays and buffers, and two bytes a character of text. Other bodies weigh
+   * nothing.
+   */
+  static long weigh(Object body) {
+    if (body instanceof byte[]) {
+      return ((byte[]) body).length;
+    }
+    if (body instanceof ByteBuffer) {
+      return ((ByteBuffer) body).remaining();
+    }
+    if (body instanceof CharSequence) {
+      return 2L * ((CharSequence) body).length();
+    }
+    return 0;
+  }
+
+  public static <T> Builder<T> builder(Clock clock) {
+    return new Builder<>(clock);
+  }
+
+  @Override
+  public void configure(String queueName, QueueConfig config) {
+    if (isNullOrEmpty(queueName) || config == null) {
+      throw new IllegalArgumentException();
+    }
+
+    configs.put(queueName, config);
+  }
+
+  @Override
+  public void push(String queueName, T messageBody) {
+    if (isNullOrEmpty(queueName) || messageBody == null) {
+      throw new IllegalArgumentException();
+    }
+    ShardedInMemoryQueue<T> queue = getQueue(queueName);
+    long bytes = weigher.applyAsLong(messageBody);
+    reserve(queueName, queue, 1, bytes, bytes);
+    if (sharedBodies.join(messageBody)) {
+      budget.release(bytes);
+    }
+    queue.push(Message.from(messageBody, clock));
+  }
+
+  @Override
+  public void pushBatch(String queueName, List<T> messageBodies) {
+    if (isNullOrEmpty(queueName) || messageBodies == null || messageBodies.contains(null)) {
+      throw new IllegalArgumentException();
+    }
+    ShardedInMemoryQueue<T> queue = getQueue(queueName);
+    long bytes = messageBodies.stream().mapToLong(weigher).sum();
+    reserve(queueName, queue, messageBodies.size(), bytes, bytes);
+    for (T messageBody : messageBodies) {
+      if (sharedBodies.join(messageBody)) {
+        budget.release(weigher.applyAsLong(messageBody));
+      }
+      queue.push(Message.from(messageBody, clock));
+    }
+  }
+
+  @Override
+  public void subscribe(String topicName, String queueName) {
+    if (isNullOrEmpty(topicName) || isNullOrEmpty(queueName)) {
+      throw new IllegalArgumentException();
+    }
+
+    subscriptions.computeIfAbsent(topicName, n -> new CopyOnWriteArraySet<>()).add(queueName);
+  }
+
+  @Override
+  public void publish(String topicName, T messageBody) {
+    if (isNullOrEmpty(topicName) || messageBody == null) {
+      throw new IllegalArgumentException();
+    }
+
+    publishBatch(topicName, singletonList(messageBody));
+  }
+
+  /**
+   * Makes room in every subscribed queue first, so that the messages reach either all of them or, if one is full,
+   * none. The bodies are taken from the memory budget once, along with the room in the first queue.
+   */
+  @Override
+  public void publishBatch(String topicName, List<T> messageBodies) {
+    if (isNullOrEmpty(topicName) || messageBodies == null || messageBodies.contains(null)) {
+      throw new IllegalArgumentException();
+    }
+    List<String> queueNames = new ArrayList<>(subscriptions.getOrDefault(topicName, Collections.emptySet()));
+    if (queueNames.isEmpty() || messageBodies.isEmpty()) {
+      return;
+    }
+
+    int messages = messageBodies.size();
+    long bytes = messageBodies.stream().mapToLong(weigher).sum();
+    List<ShardedInMemoryQueue<T>> reserved = new ArrayList<>();
+    try {
+      for (String queueName : queueNames) {
+        ShardedInMemoryQueue<T> queue = getQueue(queueName);
+        reserve(queueName, queue, messages, bytes, reserved.isEmpty() ? bytes : 0);
+        reserved.add(queue);
+      }
+    } catch (RuntimeException e) {
+      for (ShardedInMemoryQueue<T> queue : reserved) {
+        queue.release(messages, bytes);
+      }
+      if (!reserved.isEmpty()) {
+        budget.release(bytes);
+      }
+      throw e;
+    }
+
+    for (T messageBody : messageBodies) {
+      if (sharedBodies.share(messageBody, queueNames.size())) {
+        budget.release(weigher.applyAsLong(messageBody));
+      }
+    }
+    for (ShardedInMemoryQueue<T> queue : reserved) {
+      messageBodies.forEach(messageBody -> queue.push(Message.from(messageBody, clock)));
+    }
+  }
+
+  /**
+   * Makes room for messages about to be pushed, applying the overflow policy of the queue if it is full.
+   * @param budgetBytes the part of bytes to take from the memory budget
+   */
+  private void reserve(String queueName, ShardedInMemoryQueue<T> queue, int messages, long bytes, long budgetBytes) {
+    QueueConfig config = config(queueName);
+    if (tryReserve(queue, config, messages, bytes, budgetBytes)) {
+      return;
+    }
+    if (messages > config.getMaxMessages() || bytes > config.getMaxBytes() || budgetBytes > budget.maxBytes()) {
+      throw new IllegalArgumentException("Messages exceed the limits of queue " + queueName);
+    }
+
+    queueFullListener.onQueueFull(queueName, config.getOverflowPolicy());
+    switch (config.getOverflowPolicy()) {
+      case BLOCK:
+        try {
+          long deadline = System.nanoTime() + config.getBlockTimeout().toNanos();
+          if (budget.await(() -> tryReserve(queue, config, messages, bytes, budgetBytes), deadline)) {
+            return;
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
+        break;
+      case DROP_OLDEST:
+        Message<T> dropped;
+        while ((dropped = queue.dropOldest()) != null) {
+          release(queue, dropped);
+          if (tryReserve(queue, config, messages, bytes, budgetBytes)) {
+            return;
+          }
+        }
+        break;
+      default:
+    }
+    throw new QueueFullException("Queue " + queueName + " is full");
+  }
+
+  private boolean tryReserve(ShardedInMemoryQueue<T> queue, QueueConfig config, int messages, long bytes,
+                             long budgetBytes) {
+    if (!queue.tryReserve(messages, bytes, config.getMaxMessages(), config.getMaxBytes())) {
+      return false;
+    }
+    if (!budget.tryReserve(budgetBytes)) {
+      queue.release(messages, bytes);
+      return false;
+    }
+    return true;
+  }
+
+  private void release(ShardedInMemoryQueue<T> queue, Message<T> message) {
+    long bytes = weigher.applyAsLong(message.getBody());
+    queue.release(1, bytes);
+    budget.release(sharedBodies.release(message.getBody()) ? bytes : 0);
+  }
+
+  private ShardedInMemoryQueue<T> getQueue(String queueName) {
+    return queues.computeIfAbsent(queueName,
+        n -> new ShardedInMemoryQueue<>(shards, clock, journal == null ? null : journal.forQueue(n)));
+  }
+
+  @Override
+  public Optional<Message<T>> pull(String queueName) {
+    if (isNullOrEmpty(queueName)) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, 1, config(queueName).getVisibilityTimeout().toMillis()).stream().findFirst();
+  }
+
+  @Override
+  public Optional<Message<T>> pull(String queueName, Duration maxWait) {
+    if (isNullOrEmpty(queueName) || maxWait == null || maxWait.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    ShardedInMemoryQueue<T> queue = getQueue(queueName);
+    QueueConfig config = config(queueName);
+    long deadline = System.nanoTime() + maxWait.toNanos();
+    return Redrive.receive(this, queueName, config, 1,
+        count -> poll(queue, deadline, config.getVisibilityTimeout().toMillis()),
+        deadLetters -> moveToDeadLetterQueue(queue, config.getDeadLetterQueue(), deadLetters)).stream().findFirst();
+  }
+
+  private List<Message<T>> poll(ShardedInMemoryQueue<T> queue, long deadline, long visibilityTimeout) {
+    try {
+      return queue.pull(deadline - System.nanoTime(), visibilityTimeout)
+          .map(Collections::singletonList)
+          .orElse(emptyList());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, maxMessages, config(queueName).getVisibilityTimeout().toMillis());
+  }
+
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages, Duration visibilityTimeout) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1 || visibilityTimeout == null || visibilityTimeout.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, maxMessages, visibilityTimeout.toMillis());
+  }
+
+  private List<Message<T>> pull(String queueName, int maxMessages, long visibilityTimeout) {
+    ShardedInMemoryQueue<T> queue = getQueue(queueName);
+    QueueConfig config = config(queueName);
+    return Redrive.receive(this, queueName, config, maxMessages,
+        count -> receive(queue, count, visibilityTimeout),
+        deadLetters -> moveToDeadLetterQueue(queue, config.getDeadLetterQueue(), deadLetters));
+  }
+
+  /**
+   * Makes room for each message in the dead-letter queue before taking it out of its queue, so that a message leaves
+   * its queue only to enter the other and none is seen in both.
+   */
+  private void moveToDeadLetterQueue(ShardedInMemoryQueue<T> queue, String deadLetterQueueName,
+                                     List<Message<T>> deadLetters) {
+    ShardedInMemoryQueue<T> deadLetterQueue = getQueue(deadLetterQueueName);
+    for (Message<T> deadLetter : deadLetters) {
+      T messageBody = deadLetter.getBody();
+      long bytes = weigher.applyAsLong(messageBody);
+      reserve(deadLetterQueueName, deadLetterQueue, 1, bytes, bytes);
+      if (sharedBodies.join(messageBody)) {
+        budget.release(bytes);
+      }
+      Message<T> moved = queue.moveTo(deadLetter.getReceiptHandle(), deadLetterQueue, Message.from(messageBody, clock));
+      if (moved == null) {
+        release(deadLetterQueue, deadLetter);
+      } else {
+        release(queue, moved);
+      }
+    }
+  }
+
+  private List<Message<T>> receive(ShardedInMemoryQueue<T> queue, int maxMessages, long visibilityTimeout) {
+    List<Message<T>> result = new ArrayList<>();
+    Optional<Message<T>> message;
+    while (result.size() < maxMessages && (message = queue.pull(visibilityTimeout)).isPresent()) {
+      result.add(message.get());
+    }
+    return result;
+  }
+
+  private QueueConfig config(String queueName) {
+    return configs.getOrDefault(queueName, QueueConfig.DEFAULT);
+  }
+
+  @Override
+  public void delete(String queueName, String receiptHandle) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle)) {
+      throw new IllegalArgumentException();
+    }
+
+    ShardedInMemoryQueue<T> queue = getQueue(queueName);
+    Message<T> deleted = queue.delete(receiptHandle);
+    if (deleted != null) {
+      release(queue, deleted);
+    }
+  }
+
+  @Override
+  public void changeVisibility(String queueName, String receiptHandle, Duration visibilityTimeout) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle) || visibilityTimeout == null
+        || visibilityTimeout.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    getQueue(queueName).changeVisibility(receiptHandle, Instant.now(clock).toEpochMilli() + visibilityTimeout.toMillis());
+  }
+
+  @Override
+  public void deleteBatch(String queueName, List<String> receiptHandles) {
+    if (isNullOrEmpty(queueName) || receiptHandles == null) {
+      throw new IllegalArgumentException();
+    }
+    receiptHandles.forEach(receiptHandle -> delete(queueName, receiptHandle));
+  }
+
+  @Override
+  public CompletableFuture<Void> pushAsync(String queueName, T messageBody) {
+    push(queueName, messageBody);
+    return completedFuture(null);
+  }
+
+  @Override
+  public CompletableFuture<Optional<Message<T>>> pullAsync(String queueName) {
+    return completedFuture(pull(queueName));
+  }
+
+  @Override
+  public CompletableFuture<Optional<Message<T>>> pullAsync(String queueName, Duration maxWait) {
+    if (isNullOrEmpty(queueName) || maxWait == null || maxWait.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    Optional<Message<T>> message = pull(queueName);
+    if (message.isPresent() || maxWait.isZero()) {
+      return completedFuture(message);
+    }
+    return supplyAsync(() -> pull(queueName, maxWait), LONG_POLLS);
+  }
+
+  @Override
+  public CompletableFuture<List<Message<T>>> pullAsync(String queueName, int maxMessages) {
+    return completedFuture(pull(queueName, maxMessages));
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteAsync(String queueName, String receiptHandle) {
+    delete(queueName, receiptHandle);
+    return completedFuture(null);
+  }
+
+  /**
+   * Writes a snapshot of persistent queues and closes their journal; does nothing for queues that are not persistent.
+   */
+  @Override
+  public void close() throws IOException {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
+  public static final class Builder<T> {
+
+    private final Clock clock;
+    private int shards = 1;
+    private String journalDirectory;
+    private Serializer<T> serializer;
+    private long memoryBudget = Long.MAX_VALUE;
+    private ToLongFunction<? super T> weigher = InMemoryQueueService::weigh;
+    private QueueFullListener queueFullListener = (queueName, policy) -> {
+    };
+
+    private Builder(Clock clock) {
+      this.clock = clock;
+    }
+
+    public Builder<T> shards(int shards) {
+      this.shards = shards;
+      return this;
+    }
+
+    /**
+     * Makes the queues persistent, see {@link #InMemoryQueueService(Clock, int, String, Serializer)}.
+     */
+    public Builder<T> journal(String journalDirectory, Serializer<T> serializer) {
+      this.journalDirectory = journalDirectory;
+      this.serializer = serializer;
+      return this;
+    }
+
+    /**
+     * @param memoryBudget the bytes of message bodies all queues may hold together
+     */
+    public Builder<T> memoryBudget(long memoryBudget) {
+      this.memoryBudget = memoryBudget;
+      return this;
+    }
+
+    /**
+     * @param weigher the size of a message body in bytes, called on every push and delete
+     */
+    public Builder<T> weigher(ToLongFunction<? super T> weigher) {
+      this.weigher = weigher;
+      return this;
+    }
+
+    public Builder<T> queueFullListener(QueueFullListener queueFullListener) {
+      this.queueFullListener = queueFullListener;
+      return this;
+    }
+
+    public InMemoryQueueService<T> build() {
+      if (shards < 1 || memoryBudget < 1 || weigher == null || queueFullListener == null
+          || journalDirectory != null && serializer == null) {
+        throw new IllegalArgumentException();
+      }
+      InMemoryJournal<T> journal = journalDirectory == null ? null : openJournal(clock, journalDirectory, serializer);
+      return new InMemoryQueueService<>(clock, shards, journal, memoryBudget, weigher, queueFullListener);
+    }
+
+  }
+
+}
@@ -0,0 +1,129 @@
+package com.example;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+/**
+ * Decorates a {@link QueueService} with per-queue {@link QueueMetrics}.
+ *
+ * Recording only touches striped counters, so it is cheap enough to leave on in production. The latency of a batch
+ * operation is recorded once per call. Long polls are counted but their latency is not recorded, as it is dominated
+ * by the wait.
+ */
+public class InstrumentedQueueService<T> implements QueueService<T> {
+
+  private final QueueService<T> delegate;
+  private final MetricsSink sink;
+  private final Map<String, QueueMetrics> metrics = new ConcurrentHashMap<>();
+  private final Map<String, QueueConfig> configs = new ConcurrentHashMap<>();
+
+  public InstrumentedQueueService(QueueService<T> delegate, MetricsSink sink) {
+    this.delegate = delegate;
+    this.sink = sink;
+  }
+
+  public QueueMetrics getMetrics(String queueName) {
+    QueueMetrics queueMetrics = metrics.get(queueName);
+    if (queueMetrics == null) {
+      queueMetrics = metrics.computeIfAbsent(queueName, this::register);
+    }
+    return queueMetrics;
+  }
+
+  private QueueMetrics register(String queueName) {
+    QueueMetrics queueMetrics = new QueueMetrics();
+    sink.register(queueName, queueMetrics);
+    return queueMetrics;
+  }
+
+  @Override
+  public void configure(String queueName, QueueConfig config) {
+    delegate.configure(queueName, config);
+    configs.put(queueName, config);
+  }
+
+  @Override
+  public void push(String queueName, T messageBody) {
+    long start = System.nanoTime();
+    delegate.push(queueName, messageBody);
+    getMetrics(queueName).recordPush(1, System.nanoTime() - start);
+  }
+
+  @Override
+  public void pushBatch(String queueName, List<T> messageBodies) {
+    long start = System.nanoTime();
+    delegate.pushBatch(queueName, messageBodies);
+    getMetrics(queueName).recordPush(messageBodies.size(), System.nanoTime() - start);
+  }
+
+  @Override
+  public Optional<Message<T>> pull(String queueName) {
+    long start = System.nanoTime();
+    Optional<Message<T>> message = delegate.pull(queueName);
+    QueueMetrics queueMetrics = getMetrics(queueName);
+    queueMetrics.recordPullLatency(System.nanoTime() - start);
+    queueMetrics.recordPull(message.map(Collections::singletonList).orElse(emptyList()),
+        visibilityTimeout(queueName));
+    return message;
+  }
+
+  @Override
+  public Optional<Message<T>> pull(String queueName, Duration maxWait) {
+    Optional<Message<T>> message = delegate.pull(queueName, maxWait);
+    getMetrics(queueName).recordPull(message.map(Collections::singletonList).orElse(emptyList()),
+        visibilityTimeout(queueName));
+    return message;
+  }
+
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages) {
+    long start = System.nanoTime();
+    List<Message<T>> messages = delegate.pull(queueName, maxMessages);
+    QueueMetrics queueMetrics = getMetrics(queueName);
+    queueMetrics.recordPullLatency(System.nanoTime() - start);
+    queueMetrics.recordPull(messages, visibilityTimeout(queueName));
+    return messages;
+  }
+
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages, Duration visibilityTimeout) {
+    long start = System.nanoTime();
+    List<Message<T>> messages = delegate.pull(queueName, maxMessages, visibilityTimeout);
+    QueueMetrics queueMetrics = getMetrics(queueName);
+    queueMetrics.recordPullLatency(System.nanoTime() - start);
+    queueMetrics.recordPull(messages, visibilityTimeout.toNanos());
+    return messages;
+  }
+
+  @Override
+  public void changeVisibility(String queueName, String receiptHandle, Duration visibilityTimeout) {
+    delegate.changeVisibility(queueName, receiptHandle, visibilityTimeout);
+    getMetrics(queueName).recordChangeVisibility(receiptHandle, visibilityTimeout.toNanos());
+  }
+
+  @Override
+  public void delete(String queueName, String receiptHandle) {
+    long start = System.nanoTime();
+    delegate.delete(queueName, receiptHandle);
+    getMetrics(queueName).recordDelete(singletonList(receiptHandle), System.nanoTime() - start);
+  }
+
+  @Override
+  public void deleteBatch(String queueName, List<String> receiptHandles) {
+    long start = System.nanoTime();
+    delegate.deleteBatch(queueName, receiptHandles);
+    getMetrics(queueName).recordDelete(receiptHandles, System.nanoTime() - start);
+  }
+
+  private long visibilityTimeout(String queueName) {
+    return configs.getOrDefault(queueName, QueueConfig.DEFAULT).getVisibilityTimeout().toNanos();
+  }
+
+}
@@ -0,0 +1,51 @@
+package com.example;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes queue metrics as MXBeans named com.example:type=QueueMetrics,service=&lt;service&gt;,queue=&lt;queue&gt;.
+ */
+public class JmxMetricsSink implements MetricsSink {
+
+  private static final String DEFAULT_SERVICE = "default";
+
+  private final MBeanServer server;
+  private final String serviceName;
+
+  public JmxMetricsSink() {
+    this(ManagementFactory.getPlatformMBeanServer(), DEFAULT_SERVICE);
+  }
+
+  /**
+   * @param serviceName distinguishes the queues of several instrumented services in one JVM
+   */
+  public JmxMetricsSink(MBeanServer server, String serviceName) {
+    this.server = server;
+    this.serviceName = serviceName;
+  }
+
+  @Override
+  public void register(String queueName, QueueMetrics metrics) {
+    try {
+      ObjectName name = objectName(queueName);
+      try {
+        server.registerMBean(metrics, name);
+      } catch (InstanceAlreadyExistsException e) {
+        server.unregisterMBean(name);
+        server.registerMBean(metrics, name);
+      }
+    } catch (JMException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  ObjectName objectName(String queueName) throws JMException {
+    return new ObjectName("com.example:type=QueueMetrics,service=" + ObjectName.quote(serviceName)
+        + ",queue=" + ObjectName.quote(queueName));
+  }
+
+}
@@ -0,0 +1,87 @@
+package com.example;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds.
+ *
+ * Values are counted in log-linear buckets, {@value #SUB_BUCKETS} per power of two, so percentiles are reported as the
+ * upper bound of their bucket and overestimate by at most 12.5%. Every bucket is a {@link LongAdder}, so concurrent
+ * recording threads update separate cells instead of contending on one counter.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = (Long.SIZE - SUB_BITS) << SUB_BITS;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    long value = Math.max(0L, nanos);
+    buckets[bucketOf(value)].increment();
+    max.accumulate(value);
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @param percentile between 0 and 1
+   * @return the upper bound of the latency below which the given share of recorded values falls, 0 if none recorded
+   */
+  public long getPercentile(double percentile) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+
+    long rank = (long) Math.ceil(percentile * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (counts[i] > 0 && seen >= rank) {
+        return Math.min(upperBoundOf(i), getMax());
+      }
+    }
+    return 0L;
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return ((exponent - SUB_BITS + 1) << SUB_BITS) + mantissa;
+  }
+
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = (bucket >> SUB_BITS) + SUB_BITS - 1;
+    long mantissa = bucket & (SUB_BUCKETS - 1);
+    return ((SUB_BUCKETS + mantissa + 1) << (exponent - SUB_BITS)) - 1;
+  }
+
+}
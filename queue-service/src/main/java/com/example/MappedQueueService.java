@@ -0,0 +1,322 @@
+package com.example;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Memory-mapped queue for producers and consumers in different JVMs on the same host.
+ *
+ * Every queue is a single file holding a {@link MappedRing} of fixed-size message slots, mapped once per service, so
+ * that push, pull and delete read and write shared memory instead of issuing file I/O. Operations are serialized by a
+ * fair {@link ReentrantLock} within the JVM and a {@link FileLock} on the header of the file between processes, taken
+ * once per call, so batches amortize the locking over all their messages.
+ *
+ * Queues are bounded: a push that does not fit throws {@link QueueFullException}, and bodies that serialize to more
+ * than the slot size given at creation are rejected. Messages survive the crash of a process but not of the host, as the mapping is
+ * written back to disk by the operating system.
+ */
+public class MappedQueueService<T> implements QueueService<T>, Closeable {
+
+  public static final int DEFAULT_CAPACITY = 16_384;
+  public static final int DEFAULT_MAX_MESSAGE_BYTES = 1_000;
+
+  private static final String RING_SUFFIX = ".ring";
+  private static final long MIN_PEEK_MILLISECONDS = 1L;
+  private static final long MAX_PEEK_MILLISECONDS = 64L;
+  private static final Map<Path, Lock> THREAD_LOCKS = new ConcurrentHashMap<>();
+  private static final QueueWatcher WATCHER = new QueueWatcher();
+
+  private final String queuesDirectory;
+  private final Clock clock;
+  private final Serializer<T> serializer;
+  private final Map<String, QueueConfig> configs = new ConcurrentHashMap<>();
+  private final int capacity;
+  private final int maxMessageBytes;
+  private final Map<Path, MappedRing> rings = new ConcurrentHashMap<>();
+
+  public MappedQueueService(String queuesDirectory, Clock clock, Serializer<T> serializer) {
+    this(queuesDirectory, clock, serializer, DEFAULT_CAPACITY, DEFAULT_MAX_MESSAGE_BYTES);
+  }
+
+  /**
+   * @param capacity the number of messages a new queue holds, delivered or not, until they are deleted
+   * @param maxMessageBytes the largest message body a new queue accepts, once serialized
+   */
+  public MappedQueueService(String queuesDirectory, Clock clock, Serializer<T> serializer, int capacity,
+                            int maxMessageBytes) {
+    if (serializer == null || capacity < 1 || maxMessageBytes < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.queuesDirectory = queuesDirectory;
+    this.clock = clock;
+    this.serializer = serializer;
+    this.capacity = capacity;
+    this.maxMessageBytes = maxMessageBytes;
+  }
+
+  /**
+   * The configuration is kept by this service only, so every process sets up its own; the visibility timeout applies
+   * to the messages this process receives.
+   */
+  @Override
+  public void configure(String queueName, QueueConfig config) {
+    if (isNullOrEmpty(queueName) || config == null) {
+      throw new IllegalArgumentException();
+    }
+
+    configs.put(queueName, config);
+  }
+
+  @Override
+  public void push(String queueName, T messageBody) {
+    if (isNullOrEmpty(queueName) || messageBody == null) {
+      throw new IllegalArgumentException();
+    }
+
+    pushBatch(queueName, singletonList(messageBody));
+  }
+
+  @Override
+  public void pushBatch(String queueName, List<T> messageBodies) {
+    if (isNullOrEmpty(queueName) || messageBodies == null || messageBodies.contains(null)) {
+      throw new IllegalArgumentException();
+    }
+
+    List<byte[]> bodies = messageBodies.stream().map(serializer::serialize).collect(toList());
+    Path ringFile = getRingFile(queueName);
+    withRing(ringFile, ring -> {
+      if (bodies.stream().anyMatch(body -> body.length > ring.maxMessageBytes())) {
+        throw new IllegalArgumentException("Message larger than " + ring.maxMessageBytes() + " bytes");
+      }
+      if (bodies.size() > ring.remainingCapacity()) {
+        throw new QueueFullException("Queue " + queueName + " is full");
+      }
+      ring.append(bodies);
+      return null;
+    });
+    WATCHER.signal(ringFile);
+  }
+
+  @Override
+  public Optional<Message<T>> pull(String queueName) {
+    if (isNullOrEmpty(queueName)) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, 1).stream().findFirst();
+  }
+
+  /**
+   * Pushes from this JVM wake the waiter up directly, and a message that times out wakes it up when it does. Writes to
+   * a mapping raise no file events, so pushes from other processes are noticed by peeking at the shared header without
+   * locking, a millisecond after the queue was found empty at first and then twice as late each time, up to
+   * {@value #MAX_PEEK_MILLISECONDS} milliseconds apart.
+   */
+  @Override
+  public Optional<Message<T>> pull(String queueName, Duration maxWait) {
+    if (isNullOrEmpty(queueName) || maxWait == null || maxWait.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    Path ringFile = getRingFile(queueName);
+    long deadline = System.nanoTime() + maxWait.toNanos();
+    try {
+      while (true) {
+        long version = WATCHER.version(ringFile);
+        Optional<Message<T>> message = pull(queueName, ringFile, 1, visibilityTimeout(queueName))
+            .stream()
+            .findFirst();
+        if (message.isPresent() || deadline - System.nanoTime() <= 0) {
+          return message;
+        }
+        MappedRing ring = getRing(ringFile);
+        long peekMillis = MIN_PEEK_MILLISECONDS;
+        while (WATCHER.version(ringFile) == version && !ring.hasUndelivered()) {
+          long remainingMillis = NANOSECONDS.toMillis(deadline - System.nanoTime());
+          long untilVisible = ring.nextVisibleAt() - now();
+          if (remainingMillis <= 0 || untilVisible <= 0) {
+            break;
+          }
+          WATCHER.await(ringFile, version, Math.min(peekMillis, Math.min(remainingMillis, untilVisible)));
+          peekMillis = Math.min(peekMillis * 2, MAX_PEEK_MILLISECONDS);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, getRingFile(queueName), maxMessages, visibilityTimeout(queueName));
+  }
+
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages, Duration visibilityTimeout) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1 || visibilityTimeout == null || visibilityTimeout.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, getRingFile(queueName), maxMessages, visibilityTimeout.toMillis());
+  }
+
+  private List<Message<T>> pull(String queueName, Path ringFile, int maxMessages, long visibilityTimeout) {
+    return Redrive.receive(this, queueName, config(queueName), maxMessages, count -> {
+      List<Message<byte[]>> records = withRing(ringFile, ring -> ring.deliver(count, now(), visibilityTimeout));
+      return records.stream().map(this::decode).collect(toList());
+    });
+  }
+
+  @Override
+  public void delete(String queueName, String receiptHandle) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle)) {
+      throw new IllegalArgumentException();
+    }
+
+    deleteBatch(queueName, singletonList(receiptHandle));
+  }
+
+  @Override
+  public void changeVisibility(String queueName, String receiptHandle, Duration visibilityTimeout) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle) || visibilityTimeout == null
+        || visibilityTimeout.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    long now = now();
+    Path ringFile = getRingFile(queueName);
+    withRing(ringFile, ring -> {
+      ring.changeVisibility(receiptHandle, now, now + visibilityTimeout.toMillis());
+      return null;
+    });
+    WATCHER.signal(ringFile);
+  }
+
+  @Override
+  public void deleteBatch(String queueName, List<String> receiptHandles) {
+    if (isNullOrEmpty(queueName) || receiptHandles == null || receiptHandles.stream().anyMatch(Strings::isNullOrEmpty)) {
+      throw new IllegalArgumentException();
+    }
+
+    long now = now();
+    withRing(getRingFile(queueName), ring -> {
+      for (String receiptHandle : receiptHandles) {
+        ring.delete(receiptHandle, now);
+      }
+      return null;
+    });
+  }
+
+  private <R> R withRing(Path ringFile, RingOperation<R> operation) {
+    MappedRing ring = getRing(ringFile);
+
+    Lock threadLock = THREAD_LOCKS.computeIfAbsent(ringFile, file -> new ReentrantLock(true));
+    threadLock.lock();
+    try {
+      FileLock processLock = ring.lock();
+      try {
+        return operation.apply(ring);
+      } finally {
+        processLock.release();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      threadLock.unlock();
+    }
+  }
+
+  private MappedRing getRing(Path ringFile) {
+    MappedRing ring = rings.get(ringFile);
+    if (ring == null) {
+      ring = rings.computeIfAbsent(ringFile, this::openRing);
+    }
+    return ring;
+  }
+
+  private MappedRing openRing(Path ringFile) {
+    Lock threadLock = THREAD_LOCKS.computeIfAbsent(ringFile, file -> new ReentrantLock(true));
+    threadLock.lock();
+    try {
+      Files.createDirectories(ringFile.getParent());
+      return MappedRing.open(ringFile, capacity, maxMessageBytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      threadLock.unlock();
+    }
+  }
+
+  private Message<T> decode(Message<byte[]> record) {
+    return Message.<T>builder()
+        .attempts(record.getAttempts())
+        .visibleFrom(record.getVisibleFrom())
+        .receiptHandle(record.getReceiptHandle())
+        .body(serializer.deserialize(record.getBody()))
+        .clock(clock)
+        .build();
+  }
+
+  private long visibilityTimeout(String queueName) {
+    return config(queueName).getVisibilityTimeout().toMillis();
+  }
+
+  private QueueConfig config(String queueName) {
+    return configs.getOrDefault(queueName, QueueConfig.DEFAULT);
+  }
+
+  private long now() {
+    return Instant.now(clock).toEpochMilli();
+  }
+
+  private Path getRingFile(String queueName) {
+    String fileName = Hashing.md5().hashString(queueName, Charset.defaultCharset()) + RING_SUFFIX;
+    return Paths.get(queuesDirectory, fileName).toAbsolutePath().normalize();
+  }
+
+  /**
+   * Closes the queue files opened by this service.
+   */
+  @Override
+  public void close() throws IOException {
+    for (MappedRing ring : rings.values()) {
+      ring.close();
+    }
+    rings.clear();
+  }
+
+  @FunctionalInterface
+  private interface RingOperation<R> {
+    R apply(MappedRing ring) throws IOException;
+  }
+
+}
@@ -0,0 +1,262 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Storage engine of a single memory-mapped queue.
+ *
+ * The file starts with a header holding the layout and the cursors: the first message not yet deleted (head), the
+ * first message never delivered (next), the next free sequence number (tail) and the earliest time an invisible
+ * message may time out. It is followed by a fixed number of fixed-size slots, used as a ring: message n lives in slot
+ * n modulo the capacity, with its attempts, visibility, deletion flag and body. All reads and writes go to the shared
+ * mapping, so once the file is mapped an operation costs no system calls apart from taking the lock.
+ *
+ * Receipt handles encode the sequence number and the attempt they were issued for, as in {@link SegmentStore}.
+ *
+ * Not thread-safe: every operation but {@link #hasUndelivered()} and {@link #nextVisibleAt()} must be called within
+ * {@link #lock()}.
+ */
+final class MappedRing implements Closeable {
+
+  private static final int MAGIC = 0x52494e47;
+  private static final int HEADER_SIZE = 64;
+  private static final int SLOT_HEADER_SIZE = 24;
+
+  private static final int CAPACITY = 4;
+  private static final int SLOT_SIZE = 8;
+  private static final int HEAD = 16;
+  private static final int NEXT = 24;
+  private static final int TAIL = 32;
+  private static final int REDELIVERY_CHECK_AT = 40;
+
+  private static final int ATTEMPTS = 0;
+  private static final int LENGTH = 4;
+  private static final int VISIBLE_FROM = 8;
+  private static final int DELETED = 16;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private final int slotSize;
+
+  private MappedRing(FileChannel channel, MappedByteBuffer buffer) {
+    this.channel = channel;
+    this.buffer = buffer;
+    this.capacity = buffer.getInt(CAPACITY);
+    this.slotSize = buffer.getInt(SLOT_SIZE);
+  }
+
+  /**
+   * Maps the ring file, creating it with the given layout if it does not exist yet. An existing file keeps the layout
+   * it was created with.
+   */
+  static MappedRing open(Path file, int capacity, int maxMessageBytes) throws IOException {
+    FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE);
+    try {
+      FileLock lock = channel.lock(0, HEADER_SIZE, false);
+      try {
+        if (channel.size() < HEADER_SIZE) {
+          MappedByteBuffer header = channel.map(READ_WRITE, 0, HEADER_SIZE);
+          header.putInt(CAPACITY, capacity).putInt(SLOT_SIZE, SLOT_HEADER_SIZE + maxMessageBytes).putInt(0, MAGIC);
+        }
+        MappedByteBuffer header = channel.map(READ_WRITE, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC) {
+          throw new IOException(file + " is not a queue file");
+        }
+        long size = HEADER_SIZE + (long) header.getInt(CAPACITY) * header.getInt(SLOT_SIZE);
+        if (size > Integer.MAX_VALUE) {
+          throw new IOException(file + " is too large to be mapped");
+        }
+        return new MappedRing(channel, channel.map(READ_WRITE, 0, size));
+      } finally {
+        lock.release();
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Locks the ring against other processes. Only the header is locked, as every operation goes through it.
+   */
+  FileLock lock() throws IOException {
+    return channel.lock(0, HEADER_SIZE, false);
+  }
+
+  int maxMessageBytes() {
+    return slotSize - SLOT_HEADER_SIZE;
+  }
+
+  int remainingCapacity() {
+    return capacity - (int) (tail() - head());
+  }
+
+  void append(List<byte[]> bodies) {
+    long tail = tail();
+    for (byte[] body : bodies) {
+      int slot = slotPosition(tail);
+      buffer.putInt(slot + ATTEMPTS, 0)
+          .putInt(slot + LENGTH, body.length)
+          .putLong(slot + VISIBLE_FROM, 0L)
+          .put(slot + DELETED, (byte) 0);
+      ((ByteBuffer) buffer.duplicate().position(slot + SLOT_HEADER_SIZE)).put(body);
+      tail++;
+    }
+    buffer.putLong(TAIL, tail);
+  }
+
+  List<Message<byte[]>> deliver(int maxMessages, long now, long visibilityTimeout) {
+    List<Message<byte[]>> result = new ArrayList<>();
+
+    if (now >= nextVisibleAt()) {
+      redeliverTimedOut(result, maxMessages, now, visibilityTimeout);
+    }
+
+    long next = buffer.getLong(NEXT);
+    long tail = tail();
+    while (result.size() < maxMessages && next < tail) {
+      result.add(deliver(next, now + visibilityTimeout));
+      next++;
+    }
+    if (next != buffer.getLong(NEXT)) {
+      buffer.putLong(NEXT, next);
+      buffer.putLong(REDELIVERY_CHECK_AT, Math.min(nextVisibleAt(), now + visibilityTimeout));
+    }
+
+    return result;
+  }
+
+  void delete(String receiptHandle, long now) {
+    int slot = deliverySlot(receiptHandle, now);
+    if (slot < 0) {
+      return;
+    }
+
+    buffer.put(slot + DELETED, (byte) 1);
+    if (SegmentStore.sequenceOf(receiptHandle) == head()) {
+      advanceHead();
+    }
+  }
+
+  void changeVisibility(String receiptHandle, long now, long visibleFrom) {
+    int slot = deliverySlot(receiptHandle, now);
+    if (slot < 0) {
+      return;
+    }
+
+    buffer.putLong(slot + VISIBLE_FROM, visibleFrom);
+    buffer.putLong(REDELIVERY_CHECK_AT, Math.min(nextVisibleAt(), visibleFrom));
+  }
+
+  /**
+   * @return the position of the slot a receipt handle was issued for, or -1 if it is not the current delivery
+   */
+  private int deliverySlot(String receiptHandle, long now) {
+    long sequence = SegmentStore.sequenceOf(receiptHandle);
+    if (sequence < head() || sequence >= buffer.getLong(NEXT)) {
+      return -1;
+    }
+
+    int slot = slotPosition(sequence);
+    if (buffer.get(slot + DELETED) != 0 || buffer.getInt(slot + ATTEMPTS) != SegmentStore.attemptsOf(receiptHandle)
+        || buffer.getLong(slot + VISIBLE_FROM) <= now) {
+      return -1;
+    }
+    return slot;
+  }
+
+  /**
+   * May be called without the lock, the answer is a hint that is confirmed by pulling.
+   */
+  boolean hasUndelivered() {
+    return buffer.getLong(NEXT) < tail();
+  }
+
+  /**
+   * May be called without the lock, the answer is a hint that is confirmed by pulling.
+   * @return the earliest time at which an invisible message may become visible again, a lower bound
+   */
+  long nextVisibleAt() {
+    return buffer.getLong(REDELIVERY_CHECK_AT);
+  }
+
+  private void redeliverTimedOut(List<Message<byte[]>> result, int maxMessages, long now, long visibilityTimeout) {
+    advanceHead();
+
+    long next = buffer.getLong(NEXT);
+    long nextCheck = Long.MAX_VALUE;
+    for (long sequence = head(); sequence < next; sequence++) {
+      int slot = slotPosition(sequence);
+      if (buffer.get(slot + DELETED) != 0) {
+        continue;
+      }
+      if (buffer.getLong(slot + VISIBLE_FROM) <= now) {
+        if (result.size() == maxMessages) {
+          nextCheck = now;
+          break;
+        }
+        result.add(deliver(sequence, now + visibilityTimeout));
+      }
+      nextCheck = Math.min(nextCheck, buffer.getLong(slot + VISIBLE_FROM));
+    }
+    buffer.putLong(REDELIVERY_CHECK_AT, nextCheck);
+  }
+
+  private Message<byte[]> deliver(long sequence, long visibleFrom) {
+    int slot = slotPosition(sequence);
+    int attempts = buffer.getInt(slot + ATTEMPTS) + 1;
+    buffer.putInt(slot + ATTEMPTS, attempts).putLong(slot + VISIBLE_FROM, visibleFrom);
+
+    byte[] body = new byte[buffer.getInt(slot + LENGTH)];
+    ((ByteBuffer) buffer.duplicate().position(slot + SLOT_HEADER_SIZE)).get(body);
+    return Message.<byte[]>builder()
+        .attempts(attempts)
+        .visibleFrom(visibleFrom)
+        .receiptHandle(sequence + ":" + attempts)
+        .body(body)
+        .build();
+  }
+
+  private void advanceHead() {
+    long head = head();
+    long next = buffer.getLong(NEXT);
+    while (head < next && buffer.get(slotPosition(head) + DELETED) != 0) {
+      head++;
+    }
+    buffer.putLong(HEAD, head);
+  }
+
+  private long head() {
+    return buffer.getLong(HEAD);
+  }
+
+  private long tail() {
+    return buffer.getLong(TAIL);
+  }
+
+  private int slotPosition(long sequence) {
+    return HEADER_SIZE + (int) (sequence % capacity) * slotSize;
+  }
+
+  /**
+   * Closes the file; the mapping itself is released by the garbage collector.
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,110 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bytes of message bodies all queues of an {@link InMemoryQueueService} may hold together, and the pushes waiting
+ * for room in it or in their own queue.
+ *
+ * Every release of room, by any queue, wakes the waiting pushes up to try again. As in {@link ShardedInMemoryQueue},
+ * waiters announce themselves and releases only take the lock while there are any.
+ */
+final class MemoryBudget {
+
+  private final long maxBytes;
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final Lock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+  private long version;
+
+  MemoryBudget(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  long maxBytes() {
+    return maxBytes;
+  }
+
+  boolean tryReserve(long reserved) {
+    if (bytes.addAndGet(reserved) > maxBytes) {
+      bytes.addAndGet(-reserved);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Takes room regardless of the budget, for messages that are already there.
+   */
+  void reserve(long reserved) {
+    bytes.addAndGet(reserved);
+  }
+
+  /**
+   * Gives room back to the budget and wakes up the waiting pushes. A queue that frees room of its own always calls
+   * this, with nothing to give back if the body is still held by other queues.
+   */
+  void release(long released) {
+    bytes.addAndGet(-released);
+    if (waiters.get() == 0) {
+      return;
+    }
+    lock.lock();
+    try {
+      version++;
+      this.released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Runs the attempts to take room until one succeeds or the deadline passes.
+   * @return whether an attempt succeeded
+   */
+  boolean await(Attempt attempt, long deadline) throws InterruptedException {
+    waiters.incrementAndGet();
+    try {
+      while (true) {
+        long seenVersion = version();
+        if (attempt.tryReserve()) {
+          return true;
+        }
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0) {
+          return false;
+        }
+        lock.lock();
+        try {
+          if (version == seenVersion) {
+            released.awaitNanos(remainingNanos);
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  private long version() {
+    lock.lock();
+    try {
+      return version;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @FunctionalInterface
+  interface Attempt {
+    boolean tryReserve();
+  }
+
+}
@@ -3,19 +3,17 @@ package com.example;
 import java.io.Serializable;
 import java.time.Clock;
 import java.time.Instant;
-import java.util.Base64;
 import java.util.Objects;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.Integer.parseInt;
 import static java.lang.Long.parseLong;
-import static java.util.UUID.randomUUID;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public final class Message<T> implements Delayed, Serializable {
 
-  private static final long TIMEOUT_MILLISECONDS = 30_000L;
+  static final long TIMEOUT_MILLISECONDS = 30_000L;
 
   private final int attempts;
   private final long visibleFrom;
@@ -51,26 +49,39 @@ public final class Message<T> implements Delayed, Serializable {
     return new Message<>(0, 0, "", body, clock);
   }
 
-  public static <T> Message<T> fromOld(Message<T> message) {
-    return Message.<T>builder()
-        .attempts(message.attempts + 1)
-        .visibleFrom(message.now() + TIMEOUT_MILLISECONDS)
-        .receiptHandle(randomUUID().toString())
-        .body(message.body)
-        .clock(message.clock)
-        .build();
+  /**
+   * The next delivery of a message, invisible for the visibility timeout.
+   * @param receiptHandle the handle of the new delivery, unique within the queue
+   */
+  public static <T> Message<T> fromOld(Message<T> message, String receiptHandle) {
+    return fromOld(message, receiptHandle, TIMEOUT_MILLISECONDS);
   }
 
-  private boolean isVisible() {
-    return visibleFrom <= now();
+  /**
+   * The next delivery of a message, invisible for the given visibility timeout.
+   * @param receiptHandle the handle of the new delivery, unique within the queue
+   */
+  public static <T> Message<T> fromOld(Message<T> message, String receiptHandle, long visibilityTimeout) {
+    return new Message<>(message.attempts + 1, message.now() + visibilityTimeout, receiptHandle, message.body,
+        message.clock);
   }
 
-  private long now() {
-    return Instant.now(clock).toEpochMilli();
+  /**
+   * The same delivery of a message, invisible until the given time instead.
+   */
+  public static <T> Message<T> withVisibleFrom(Message<T> message, long visibleFrom) {
+    return new Message<>(message.attempts, visibleFrom, message.receiptHandle, message.body, message.clock);
   }
 
-  public static boolean isVisible(String message, Clock clock) {
-    return fromString(message, clock).isVisible();
+  /**
+   * The same message under another receipt handle.
+   */
+  public static <T> Message<T> withReceiptHandle(Message<T> message, String receiptHandle) {
+    return new Message<>(message.attempts, message.visibleFrom, receiptHandle, message.body, message.clock);
+  }
+
+  private long now() {
+    return Instant.now(clock).toEpochMilli();
   }
 
   @Override
@@ -80,7 +91,10 @@ public final class Message<T> implements Delayed, Serializable {
 
   @Override
   public int compareTo(Delayed other) {
-    return Long.compare(visibleFrom, other.getDelay(MILLISECONDS));
+    if (other instanceof Message) {
+      return Long.compare(visibleFrom, ((Message<?>) other).visibleFrom);
+    }
+    return Long.compare(getDelay(MILLISECONDS), other.getDelay(MILLISECONDS));
   }
 
   public static <T> Message<T> withReceiptHandle(String receiptHandle) {
@@ -137,7 +151,7 @@ public final class Message<T> implements Delayed, Serializable {
 
   public static Message<String> fromString(String message, Clock clock) {
     String[] parts = message.split(":", 4);
-    return new Message<>(parseInt(parts[0]), parseLong(parts[1]), parts[2], new String(Base64.getDecoder().decode(parts[3])), clock);
+    return new Message<>(parseInt(parts[0]), parseLong(parts[1]), parts[2], parts[3], clock);
   }
 
   @Override
@@ -0,0 +1,18 @@
+package com.example;
+
+/**
+ * Publishes the metrics recorded by {@link InstrumentedQueueService}.
+ *
+ * A sink is handed the live metrics of a queue once, when the queue is first used, and reads them whenever it
+ * publishes, so that recording never has to call into the sink.
+ */
+public interface MetricsSink {
+
+  /**
+   * Starts publishing the metrics of a queue.
+   * @param queueName the name of the queue
+   * @param metrics the live metrics of the queue
+   */
+  void register(String queueName, QueueMetrics metrics);
+
+}
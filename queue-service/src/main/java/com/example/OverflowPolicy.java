@@ -0,0 +1,25 @@
+package com.example;
+
+/**
+ * What a push does when its queue is at one of its limits or the memory budget is used up. Honoured by
+ * {@link InMemoryQueueService}.
+ */
+public enum OverflowPolicy {
+
+  /**
+   * The push waits for room, made by deletes, until the block timeout of the queue and then fails.
+   */
+  BLOCK,
+
+  /**
+   * The push fails right away.
+   */
+  REJECT,
+
+  /**
+   * The oldest visible messages of the queue are deleted to make room; the push fails only if dropping every one of
+   * them is not enough, as messages in flight are never dropped.
+   */
+  DROP_OLDEST
+
+}
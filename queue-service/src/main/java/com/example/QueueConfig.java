@@ -0,0 +1,222 @@
+package com.example;
+
+import java.time.Duration;
+
+/**
+ * Settings of a single queue, see {@link QueueService#configure}.
+ */
+public final class QueueConfig {
+
+  public static final QueueConfig DEFAULT = builder().build();
+
+  private final Duration visibilityTimeout;
+  private final Durability durability;
+  private final Duration groupCommitWindow;
+  private final String deadLetterQueue;
+  private final int maxReceives;
+  private final int compressionThreshold;
+  private final int maxMessages;
+  private final long maxBytes;
+  private final OverflowPolicy overflowPolicy;
+  private final Duration blockTimeout;
+  private final double compactionDeadRatio;
+  private final long compactionBytesPerSecond;
+
+  private QueueConfig(Duration visibilityTimeout, Durability durability, Duration groupCommitWindow,
+                      String deadLetterQueue, int maxReceives, int compressionThreshold, int maxMessages,
+                      long maxBytes, OverflowPolicy overflowPolicy, Duration blockTimeout, double compactionDeadRatio,
+                      long compactionBytesPerSecond) {
+    this.visibilityTimeout = visibilityTimeout;
+    this.durability = durability;
+    this.groupCommitWindow = groupCommitWindow;
+    this.deadLetterQueue = deadLetterQueue;
+    this.maxReceives = maxReceives;
+    this.compressionThreshold = compressionThreshold;
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+    this.overflowPolicy = overflowPolicy;
+    this.blockTimeout = blockTimeout;
+    this.compactionDeadRatio = compactionDeadRatio;
+    this.compactionBytesPerSecond = compactionBytesPerSecond;
+  }
+
+  /**
+   * How long a received message stays invisible unless a pull asks for another timeout.
+   */
+  public Duration getVisibilityTimeout() {
+    return visibilityTimeout;
+  }
+
+  public Durability getDurability() {
+    return durability;
+  }
+
+  /**
+   * How long an operation waits for others to share a force with under {@link Durability#GROUP_COMMIT}.
+   */
+  public Duration getGroupCommitWindow() {
+    return groupCommitWindow;
+  }
+
+  /**
+   * The queue that messages received more than {@link #getMaxReceives()} times are moved to, or null if they are
+   * delivered again and again.
+   */
+  public String getDeadLetterQueue() {
+    return deadLetterQueue;
+  }
+
+  public int getMaxReceives() {
+    return maxReceives;
+  }
+
+  /**
+   * The size in bytes from which on message bodies are stored compressed, by the file backend and in SQS; by default
+   * {@link Integer#MAX_VALUE}, so nothing is.
+   */
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * How many messages the queue holds at most, visible or in flight; by default {@link Integer#MAX_VALUE}. Honoured by
+   * {@link InMemoryQueueService}.
+   */
+  public int getMaxMessages() {
+    return maxMessages;
+  }
+
+  /**
+   * How many bytes of message bodies the queue holds at most, as weighed by {@link InMemoryQueueService}; by default
+   * {@link Long#MAX_VALUE}.
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * What a push does when the queue is full; by default {@link OverflowPolicy#REJECT}.
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * How long a push waits for room under {@link OverflowPolicy#BLOCK}.
+   */
+  public Duration getBlockTimeout() {
+    return blockTimeout;
+  }
+
+  /**
+   * The share of a segment of the file backend taken by deleted messages from which on it is compacted in the
+   * background; by default half.
+   */
+  public double getCompactionDeadRatio() {
+    return compactionDeadRatio;
+  }
+
+  /**
+   * How many bytes a second the compaction of the queue copies at most, so that it leaves the disk to the operations.
+   */
+  public long getCompactionBytesPerSecond() {
+    return compactionBytesPerSecond;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+
+    private Duration visibilityTimeout = Duration.ofMillis(Message.TIMEOUT_MILLISECONDS);
+    private Durability durability = Durability.OS_BUFFERED;
+    private Duration groupCommitWindow = Duration.ofMillis(1);
+    private String deadLetterQueue;
+    private int maxReceives;
+    private int compressionThreshold = Integer.MAX_VALUE;
+    private int maxMessages = Integer.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+    private Duration blockTimeout = Duration.ofSeconds(1);
+    private double compactionDeadRatio = 0.5;
+    private long compactionBytesPerSecond = 16L << 20;
+
+    public Builder visibilityTimeout(Duration visibilityTimeout) {
+      this.visibilityTimeout = visibilityTimeout;
+      return this;
+    }
+
+    public Builder durability(Durability durability) {
+      this.durability = durability;
+      return this;
+    }
+
+    public Builder groupCommitWindow(Duration groupCommitWindow) {
+      this.groupCommitWindow = groupCommitWindow;
+      return this;
+    }
+
+    /**
+     * Sets the redrive policy: a message is moved to the dead-letter queue instead of being received once more after
+     * it has been received maxReceives times. The in-memory and file based queues move it as one step; SQS moves it
+     * at least once.
+     */
+    public Builder deadLetterQueue(String deadLetterQueue, int maxReceives) {
+      this.deadLetterQueue = deadLetterQueue;
+      this.maxReceives = maxReceives;
+      return this;
+    }
+
+    public Builder compressionThreshold(int compressionThreshold) {
+      this.compressionThreshold = compressionThreshold;
+      return this;
+    }
+
+    public Builder maxMessages(int maxMessages) {
+      this.maxMessages = maxMessages;
+      return this;
+    }
+
+    public Builder maxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    public Builder blockTimeout(Duration blockTimeout) {
+      this.blockTimeout = blockTimeout;
+      return this;
+    }
+
+    public Builder compactionDeadRatio(double compactionDeadRatio) {
+      this.compactionDeadRatio = compactionDeadRatio;
+      return this;
+    }
+
+    public Builder compactionBytesPerSecond(long compactionBytesPerSecond) {
+      this.compactionBytesPerSecond = compactionBytesPerSecond;
+      return this;
+    }
+
+    public QueueConfig build() {
+      if (visibilityTimeout == null || visibilityTimeout.isNegative() || durability == null
+          || groupCommitWindow == null || groupCommitWindow.isNegative()
+          || deadLetterQueue != null && (deadLetterQueue.isEmpty() || maxReceives < 1) || compressionThreshold < 0
+          || maxMessages < 1 || maxBytes < 1 || overflowPolicy == null || blockTimeout == null
+          || blockTimeout.isNegative() || !(compactionDeadRatio > 0 && compactionDeadRatio <= 1)
+          || compactionBytesPerSecond < 1) {
+        throw new IllegalArgumentException();
+      }
+      return new QueueConfig(visibilityTimeout, durability, groupCommitWindow, deadLetterQueue, maxReceives,
+          compressionThreshold, maxMessages, maxBytes, overflowPolicy, blockTimeout, compactionDeadRatio,
+          compactionBytesPerSecond);
+    }
+
+  }
+
+}
@@ -0,0 +1,179 @@
+package com.example;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.util.concurrent.Uninterruptibles.putUninterruptibly;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Consumes a queue with a pool of workers.
+ *
+ * A single poller thread pulls messages in batches, long polling while the queue is empty, and hands them to the
+ * workers through a bounded prefetch buffer; once the buffer is full the poller blocks, so no more messages are
+ * received than the workers can keep up with. A message is deleted when the handler returns normally. When the
+ * handler throws, the message is left alone and is redelivered after its visibility timeout.
+ *
+ * {@link #close()} stops pulling, lets the workers finish the messages already received and waits for them.
+ */
+public class QueueConsumer<T> implements AutoCloseable {
+
+  private static final int MAX_BATCH_SIZE = 10;
+  private static final Duration DEFAULT_POLL_WAIT = Duration.ofSeconds(20);
+  private static final long WORKER_POLL_MILLISECONDS = 100L;
+  private static final long RETRY_DELAY_MILLISECONDS = 1_000L;
+
+  private final QueueService<T> queueService;
+  private final String queueName;
+  private final Consumer<T> handler;
+  private final int concurrency;
+  private final Duration pollWait;
+  private final BlockingQueue<Message<T>> prefetched;
+  private final ExecutorService poller;
+  private final ExecutorService workers;
+
+  private volatile boolean polling;
+  private volatile boolean pollerDone;
+
+  public QueueConsumer(QueueService<T> queueService, String queueName, Consumer<T> handler, int concurrency) {
+    this(queueService, queueName, handler, concurrency, concurrency, DEFAULT_POLL_WAIT);
+  }
+
+  /**
+   * @param concurrency the number of workers running the handler
+   * @param prefetch the number of received messages that may wait for a free worker
+   * @param pollWait how long the poller long polls an empty queue before checking for shutdown
+   */
+  public QueueConsumer(QueueService<T> queueService, String queueName, Consumer<T> handler,
+                       int concurrency, int prefetch, Duration pollWait) {
+    if (queueService == null || isNullOrEmpty(queueName) || handler == null || concurrency < 1 || prefetch < 1
+        || pollWait == null || pollWait.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    this.queueService = queueService;
+    this.queueName = queueName;
+    this.handler = handler;
+    this.concurrency = concurrency;
+    this.pollWait = pollWait;
+    this.prefetched = new ArrayBlockingQueue<>(prefetch);
+    String threadName = queueName.replace("%", "%%");
+    this.poller = Executors.newSingleThreadExecutor(threadFactory(threadName + "-poller"));
+    this.workers = Executors.newFixedThreadPool(concurrency, threadFactory(threadName + "-worker-%d"));
+  }
+
+  public void start() {
+    polling = true;
+    poller.execute(this::poll);
+    for (int i = 0; i < concurrency; i++) {
+      workers.execute(this::work);
+    }
+  }
+
+  /**
+   * Messages already received are handed over even when interrupted by {@link #stop}, so they are not left invisible.
+   */
+  private void poll() {
+    try {
+      while (polling) {
+        for (Message<T> message : receive()) {
+          putUninterruptibly(prefetched, message);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      pollerDone = true;
+    }
+  }
+
+  /**
+   * Failures to receive are retried after a pause, so that an unavailable queue does not stop the consumer.
+   */
+  private List<Message<T>> receive() throws InterruptedException {
+    int batchSize = Math.max(1, Math.min(prefetched.remainingCapacity(), MAX_BATCH_SIZE));
+    try {
+      List<Message<T>> messages = queueService.pull(queueName, batchSize);
+      if (!messages.isEmpty()) {
+        return messages;
+      }
+      return queueService.pull(queueName, pollWait).map(Collections::singletonList).orElse(emptyList());
+    } catch (RuntimeException e) {
+      if (Thread.interrupted() || e.getCause() instanceof InterruptedException) {
+        throw new InterruptedException();
+      }
+      MILLISECONDS.sleep(RETRY_DELAY_MILLISECONDS);
+      return emptyList();
+    }
+  }
+
+  private void work() {
+    try {
+      while (!pollerDone || !prefetched.isEmpty()) {
+        Message<T> message = prefetched.poll(WORKER_POLL_MILLISECONDS, MILLISECONDS);
+        if (message != null) {
+          process(message);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Errors thrown by the handler are caught too, as a worker that died would not be replaced.
+   */
+  private void process(Message<T> message) {
+    try {
+      handler.accept(message.getBody());
+      queueService.delete(queueName, message.getReceiptHandle());
+    } catch (Throwable e) {
+      // left for redelivery after the visibility timeout
+    }
+  }
+
+  /**
+   * Stops pulling and waits up to the given time for the workers to process the messages already received.
+   * @return true if all workers finished in time
+   */
+  public boolean stop(long timeout, TimeUnit unit) throws InterruptedException {
+    polling = false;
+    poller.shutdownNow();
+    workers.shutdown();
+    long timeoutNanos = unit.toNanos(timeout);
+    long start = System.nanoTime();
+    return poller.awaitTermination(timeoutNanos, NANOSECONDS)
+        && workers.awaitTermination(timeoutNanos - (System.nanoTime() - start), NANOSECONDS);
+  }
+
+  /**
+   * Stops pulling and waits for the workers to process the messages already received. If interrupted, returns right
+   * away with the interrupt flag set, leaving the workers to finish in the background.
+   */
+  @Override
+  public void close() {
+    try {
+      stop(Long.MAX_VALUE, MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ThreadFactory threadFactory(String nameFormat) {
+    return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+  }
+
+}
@@ -0,0 +1,14 @@
+package com.example;
+
+/**
+ * Thrown by a push that does not fit into its queue, once the {@link OverflowPolicy} of the queue gave up making room.
+ */
+public class QueueFullException extends IllegalStateException {
+
+  private static final long serialVersionUID = 1L;
+
+  public QueueFullException(String message) {
+    super(message);
+  }
+
+}
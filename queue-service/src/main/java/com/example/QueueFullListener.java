@@ -0,0 +1,16 @@
+package com.example;
+
+/**
+ * Told about pushes that find their queue full, for alerting on consumers that fall behind. Called on the pushing
+ * thread, so it must return quickly.
+ */
+@FunctionalInterface
+public interface QueueFullListener {
+
+  /**
+   * @param queueName the name of the queue that is full, or whose push does not fit into the memory budget
+   * @param policy the policy the push goes on to apply
+   */
+  void onQueueFull(String queueName, OverflowPolicy policy);
+
+}
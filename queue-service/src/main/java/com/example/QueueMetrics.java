@@ -0,0 +1,204 @@
+package com.example;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Operation counts and latencies of a single queue, recorded by {@link InstrumentedQueueService}.
+ *
+ * In-flight messages are the deliveries made through the decorator that were neither deleted through it nor became
+ * visible again. They are kept by receipt handle, so deletes of handles the decorator did not hand out count as deletes
+ * but leave the in-flight messages alone. A delivery becomes visible again at the time the message carries, or, for
+ * backends that do not tell, such as SQS, after the visibility timeout the decorator knows of. Messages moved to a
+ * dead-letter queue by the backend are never delivered, so never counted. Deliveries that became visible again are
+ * forgotten whenever the count is read, or the deliveries kept have doubled since they last were.
+ */
+public final class QueueMetrics implements QueueMetricsMXBean {
+
+  private static final int FORGET_THRESHOLD = 1024;
+
+  private final LongAdder pushes = new LongAdder();
+  private final LongAdder pulls = new LongAdder();
+  private final LongAdder emptyPulls = new LongAdder();
+  private final LongAdder deletes = new LongAdder();
+  private final LongAdder redeliveries = new LongAdder();
+  private final Map<String, Delivery> inFlight = new ConcurrentHashMap<>();
+  private volatile int forgetAt = FORGET_THRESHOLD;
+
+  private final LatencyHistogram pushLatency = new LatencyHistogram();
+  private final LatencyHistogram pullLatency = new LatencyHistogram();
+  private final LatencyHistogram deleteLatency = new LatencyHistogram();
+
+  void recordPush(int messages, long nanos) {
+    pushes.add(messages);
+    pushLatency.record(nanos);
+  }
+
+  /**
+   * @param visibilityTimeoutNanos how long the messages stay invisible, for those that do not tell
+   */
+  void recordPull(Iterable<? extends Message<?>> messages, long visibilityTimeoutNanos) {
+    boolean empty = true;
+    for (Message<?> message : messages) {
+      empty = false;
+      pulls.increment();
+      if (message.getAttempts() > 1) {
+        redeliveries.increment();
+      }
+      inFlight.put(message.getReceiptHandle(), new Delivery(message, visibilityTimeoutNanos));
+    }
+    if (empty) {
+      emptyPulls.increment();
+    }
+    if (inFlight.size() > forgetAt) {
+      forgetVisible();
+    }
+  }
+
+  void recordChangeVisibility(String receiptHandle, long visibilityTimeoutNanos) {
+    inFlight.computeIfPresent(receiptHandle, (handle, delivery) -> delivery.extended(visibilityTimeoutNanos));
+  }
+
+  void recordPullLatency(long nanos) {
+    pullLatency.record(nanos);
+  }
+
+  void recordDelete(List<String> receiptHandles, long nanos) {
+    deletes.add(receiptHandles.size());
+    receiptHandles.forEach(inFlight::remove);
+    deleteLatency.record(nanos);
+  }
+
+  private void forgetVisible() {
+    inFlight.values().removeIf(Delivery::isVisibleAgain);
+    forgetAt = Math.max(FORGET_THRESHOLD, inFlight.size() * 2);
+  }
+
+  public LatencyHistogram getPushLatency() {
+    return pushLatency;
+  }
+
+  public LatencyHistogram getPullLatency() {
+    return pullLatency;
+  }
+
+  public LatencyHistogram getDeleteLatency() {
+    return deleteLatency;
+  }
+
+  @Override
+  public long getPushCount() {
+    return pushes.sum();
+  }
+
+  @Override
+  public long getPullCount() {
+    return pulls.sum();
+  }
+
+  @Override
+  public long getEmptyPullCount() {
+    return emptyPulls.sum();
+  }
+
+  @Override
+  public long getDeleteCount() {
+    return deletes.sum();
+  }
+
+  @Override
+  public long getRedeliveryCount() {
+    return redeliveries.sum();
+  }
+
+  @Override
+  public long getInFlightCount() {
+    forgetVisible();
+    return inFlight.size();
+  }
+
+  @Override
+  public long getPushLatencyP50() {
+    return micros(pushLatency.getPercentile(0.50));
+  }
+
+  @Override
+  public long getPushLatencyP99() {
+    return micros(pushLatency.getPercentile(0.99));
+  }
+
+  @Override
+  public long getPushLatencyMax() {
+    return micros(pushLatency.getMax());
+  }
+
+  @Override
+  public long getPullLatencyP50() {
+    return micros(pullLatency.getPercentile(0.50));
+  }
+
+  @Override
+  public long getPullLatencyP99() {
+    return micros(pullLatency.getPercentile(0.99));
+  }
+
+  @Override
+  public long getPullLatencyMax() {
+    return micros(pullLatency.getMax());
+  }
+
+  @Override
+  public long getDeleteLatencyP50() {
+    return micros(deleteLatency.getPercentile(0.50));
+  }
+
+  @Override
+  public long getDeleteLatencyP99() {
+    return micros(deleteLatency.getPercentile(0.99));
+  }
+
+  @Override
+  public long getDeleteLatencyMax() {
+    return micros(deleteLatency.getMax());
+  }
+
+  private static long micros(long nanos) {
+    return NANOSECONDS.toMicros(nanos);
+  }
+
+  /**
+   * A message delivered and not deleted, invisible until the time it carries or, if it carries none, until a deadline.
+   */
+  private static final class Delivery {
+
+    private final Message<?> message;
+    private final long deadlineNanos;
+
+    private Delivery(Message<?> message, long visibilityTimeoutNanos) {
+      this.message = message;
+      this.deadlineNanos = System.nanoTime() + visibilityTimeoutNanos;
+    }
+
+    private boolean isVisibleAgain() {
+      if (message.getVisibleFrom() > 0) {
+        return message.getDelay(NANOSECONDS) <= 0;
+      }
+      return System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    private Delivery extended(long visibilityTimeoutNanos) {
+      if (message.getVisibleFrom() > 0) {
+        long now = message.getVisibleFrom() - message.getDelay(MILLISECONDS);
+        return new Delivery(Message.withVisibleFrom(message, now + NANOSECONDS.toMillis(visibilityTimeoutNanos)),
+            visibilityTimeoutNanos);
+      }
+      return new Delivery(message, visibilityTimeoutNanos);
+    }
+  }
+
+}
@@ -0,0 +1,38 @@
+package com.example;
+
+/**
+ * Management interface of {@link QueueMetrics}. Latencies are in microseconds.
+ */
+public interface QueueMetricsMXBean {
+
+  long getPushCount();
+
+  long getPullCount();
+
+  long getEmptyPullCount();
+
+  long getDeleteCount();
+
+  long getRedeliveryCount();
+
+  long getInFlightCount();
+
+  long getPushLatencyP50();
+
+  long getPushLatencyP99();
+
+  long getPushLatencyMax();
+
+  long getPullLatencyP50();
+
+  long getPullLatencyP99();
+
+  long getPullLatencyMax();
+
+  long getDeleteLatencyP50();
+
+  long getDeleteLatencyP99();
+
+  long getDeleteLatencyMax();
+
+}
@@ -0,0 +1,248 @@
+package com.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary protocol spoken between a {@link QueueServer} and its {@link RemoteQueueService} clients.
+ *
+ * Every request and response is a frame: its length, not counting the length itself, the request id and a one byte
+ * operation, or status in a response, followed by the fields of the operation. Integers are big-endian and strings
+ * are their UTF-8 length followed by the bytes, -1 standing for null. A pull is answered by the number of messages
+ * and the attempts, visibility, receipt handle and body of each.
+ *
+ * Requests carry an id chosen by the client that the server sends back with the response, so a client may send many
+ * requests on a connection without waiting, and the server may answer them in any order. Pushes and deletes carry any
+ * number of bodies or receipt handles, so a batch is a single frame.
+ */
+final class QueueProtocol {
+
+  static final byte CONFIGURE = 1;
+  static final byte PUSH = 2;
+  static final byte PULL = 3;
+  static final byte CHANGE_VISIBILITY = 4;
+  static final byte DELETE = 5;
+
+  static final byte OK = 0;
+  static final byte INVALID = 1;
+  static final byte FULL = 2;
+  static final byte FAILED = 3;
+
+  static final int MAX_FRAME_SIZE = 64 << 20;
+
+  private QueueProtocol() {
+  }
+
+  static void putConfig(Frame frame, QueueConfig config) {
+    frame.putLong(config.getVisibilityTimeout().toMillis())
+        .put((byte) config.getDurability().ordinal())
+        .putLong(config.getGroupCommitWindow().toNanos())
+        .putString(config.getDeadLetterQueue())
+        .putInt(config.getMaxReceives())
+        .putInt(config.getCompressionThreshold())
+        .putInt(config.getMaxMessages())
+        .putLong(config.getMaxBytes())
+        .put((byte) config.getOverflowPolicy().ordinal())
+        .putLong(config.getBlockTimeout().toMillis())
+        .putDouble(config.getCompactionDeadRatio())
+        .putLong(config.getCompactionBytesPerSecond());
+  }
+
+  static QueueConfig getConfig(ByteBuffer buffer) {
+    QueueConfig.Builder config = QueueConfig.builder()
+        .visibilityTimeout(Duration.ofMillis(buffer.getLong()))
+        .durability(getEnum(buffer, Durability.values()))
+        .groupCommitWindow(Duration.ofNanos(buffer.getLong()));
+    String deadLetterQueue = getString(buffer);
+    int maxReceives = buffer.getInt();
+    if (deadLetterQueue != null) {
+      config.deadLetterQueue(deadLetterQueue, maxReceives);
+    }
+    return config.compressionThreshold(buffer.getInt())
+        .maxMessages(buffer.getInt())
+        .maxBytes(buffer.getLong())
+        .overflowPolicy(getEnum(buffer, OverflowPolicy.values()))
+        .blockTimeout(Duration.ofMillis(buffer.getLong()))
+        .compactionDeadRatio(buffer.getDouble())
+        .compactionBytesPerSecond(buffer.getLong())
+        .build();
+  }
+
+  /**
+   * @throws IllegalArgumentException if the ordinal read is not that of a constant, so the request is answered as
+   *                                  {@link #INVALID}
+   */
+  private static <E extends Enum<E>> E getEnum(ByteBuffer buffer, E[] constants) {
+    byte ordinal = buffer.get();
+    if (ordinal < 0 || ordinal >= constants.length) {
+      throw new IllegalArgumentException("Unknown " + constants[0].getDeclaringClass().getSimpleName() + " " + ordinal);
+    }
+    return constants[ordinal];
+  }
+
+  static void putMessages(Frame frame, List<Message<String>> messages) {
+    frame.putInt(messages.size());
+    for (Message<String> message : messages) {
+      frame.putInt(message.getAttempts())
+          .putLong(message.getVisibleFrom())
+          .putString(message.getReceiptHandle())
+          .putString(message.getBody());
+    }
+  }
+
+  static List<Message<String>> getMessages(ByteBuffer buffer, Clock clock) {
+    int count = buffer.getInt();
+    List<Message<String>> messages = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      messages.add(Message.<String>builder()
+          .attempts(buffer.getInt())
+          .visibleFrom(buffer.getLong())
+          .receiptHandle(getString(buffer))
+          .body(getString(buffer))
+          .clock(clock)
+          .build());
+    }
+    return messages;
+  }
+
+  static List<String> getStrings(ByteBuffer buffer) {
+    int count = buffer.getInt();
+    List<String> strings = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      strings.add(getString(buffer));
+    }
+    return strings;
+  }
+
+  static String getString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+    buffer.position(buffer.position() + length);
+    return string;
+  }
+
+  /**
+   * A frame being written, which grows as fields are put.
+   */
+  static final class Frame {
+
+    private ByteBuffer buffer = ByteBuffer.allocate(128);
+
+    /**
+     * @param type the operation of a request or the status of a response
+     */
+    Frame(int id, byte type) {
+      buffer.putInt(0).putInt(id).put(type);
+    }
+
+    Frame put(byte value) {
+      ensure(1).put(value);
+      return this;
+    }
+
+    Frame putInt(int value) {
+      ensure(4).putInt(value);
+      return this;
+    }
+
+    Frame putLong(long value) {
+      ensure(8).putLong(value);
+      return this;
+    }
+
+    Frame putDouble(double value) {
+      ensure(8).putDouble(value);
+      return this;
+    }
+
+    Frame putString(String value) {
+      if (value == null) {
+        return putInt(-1);
+      }
+      byte[] bytes = value.getBytes(UTF_8);
+      ensure(4 + bytes.length).putInt(bytes.length).put(bytes);
+      return this;
+    }
+
+    Frame putStrings(List<String> values) {
+      putInt(values.size());
+      values.forEach(this::putString);
+      return this;
+    }
+
+    /**
+     * @return the frame, ready to be written
+     */
+    ByteBuffer finish() {
+      buffer.putInt(0, buffer.position() - 4);
+      buffer.flip();
+      return buffer;
+    }
+
+    private ByteBuffer ensure(int bytes) {
+      if (buffer.remaining() < bytes) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        buffer = grown.put(buffer);
+      }
+      return buffer;
+    }
+  }
+
+  /**
+   * Cuts the bytes read from a connection into frames, however they arrive.
+   */
+  static final class FrameReader {
+
+    private ByteBuffer buffer = ByteBuffer.allocate(64 << 10);
+
+    /**
+     * Reads what the channel has, blocking only if it does.
+     * @throws EOFException if the connection was closed
+     */
+    void read(ReadableByteChannel channel) throws IOException {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException();
+      }
+    }
+
+    /**
+     * The next complete frame read, without its length, or null if there is none yet.
+     * @throws IOException if the frame is larger than {@link #MAX_FRAME_SIZE}
+     */
+    ByteBuffer next() throws IOException {
+      if (buffer.position() < 4) {
+        return null;
+      }
+      int length = buffer.getInt(0);
+      if (length < 5 || length > MAX_FRAME_SIZE) {
+        throw new IOException("Invalid frame length " + length);
+      }
+      if (buffer.position() < 4 + length) {
+        if (buffer.capacity() < 4 + length) {
+          buffer.flip();
+          buffer = ByteBuffer.allocate(4 + length).put(buffer);
+        }
+        return null;
+      }
+      byte[] frame = new byte[length];
+      buffer.flip();
+      buffer.position(4);
+      buffer.get(frame);
+      buffer.compact();
+      return ByteBuffer.wrap(frame);
+    }
+  }
+
+}
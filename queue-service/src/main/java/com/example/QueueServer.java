@@ -0,0 +1,397 @@
+package com.example;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.channels.SelectionKey.OP_ACCEPT;
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Serves a {@link QueueService} to {@link RemoteQueueService} clients in other processes or on other hosts, over the
+ * {@link QueueProtocol}.
+ *
+ * A single selector thread accepts connections, reads requests and writes responses, never blocking on either.
+ * Requests run on a bounded pool of worker threads, so a slow operation or a long poll holds up no other request of
+ * the same connection, and are answered as they complete. Long polls of a service that is also an
+ * {@link AsyncQueueService} take no worker while they wait. The responses that complete while the selector thread is
+ * busy are written together, in one write per connection. A connection with too many requests unanswered is not read
+ * from until some are answered, leaving the client to wait on its socket instead of the server buffering requests.
+ *
+ * Requests other than pulls run one after another, in the order a connection sent them, even if sent without waiting
+ * for each other's response. A pull starts once the requests sent before it completed, but holds up none sent after it.
+ */
+public class QueueServer implements Closeable {
+
+  private static final int MAX_WORKERS = 64;
+  private static final int MAX_OUTSTANDING_REQUESTS = 256;
+
+  private final QueueService<String> queueService;
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+  private final ThreadPoolExecutor workers = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 60, SECONDS,
+      new LinkedBlockingQueue<>(),
+      new ThreadFactoryBuilder().setNameFormat("queue-server-worker-%d").setDaemon(true).build());
+  private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean wakeupPending = new AtomicBoolean();
+  private final Thread selectorThread;
+  private volatile boolean closing;
+
+  private QueueServer(QueueService<String> queueService, InetSocketAddress address) throws IOException {
+    this.queueService = queueService;
+    workers.allowCoreThreadTimeOut(true);
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(address);
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, OP_ACCEPT);
+    this.selectorThread = new Thread(this::run, "queue-server-" + serverChannel.socket().getLocalPort());
+    selectorThread.setDaemon(true);
+  }
+
+  /**
+   * Starts serving the queues of a service, which stays owned by the caller.
+   * @param address the address to listen on; port 0 picks a free port, see {@link #getAddress()}
+   */
+  public static QueueServer start(QueueService<String> queueService, InetSocketAddress address) {
+    if (queueService == null || address == null) {
+      throw new IllegalArgumentException();
+    }
+
+    try {
+      QueueServer server = new QueueServer(queueService, address);
+      server.selectorThread.start();
+      return server;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Serves in-memory queues, or file based ones if given a directory, until the process is killed.
+   * Usage: QueueServer port [queuesDirectory]
+   */
+  public static void main(String[] args) throws InterruptedException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: QueueServer port [queuesDirectory]");
+      System.exit(1);
+    }
+
+    Clock clock = Clock.systemUTC();
+    QueueService<String> queueService = args.length == 1
+        ? new InMemoryQueueService<>(clock)
+        : new FileQueueService<>(args[1], clock, Serializer.utf8());
+    QueueServer server = start(queueService, new InetSocketAddress(Integer.parseInt(args[0])));
+    server.selectorThread.join();
+  }
+
+  /**
+   * The address the server listens on.
+   */
+  public InetSocketAddress getAddress() {
+    try {
+      return (InetSocketAddress) serverChannel.getLocalAddress();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Serves until closed, then closes the connections and the selector on the same thread, so that no connection is
+   * accepted after the others were closed.
+   */
+  private void run() {
+    try {
+      while (!closing) {
+        selector.select();
+        wakeupPending.set(false);
+        Connection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+          connection.write();
+        }
+        for (SelectionKey key : selector.selectedKeys()) {
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else {
+            connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+              connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              connection.write();
+            }
+          }
+        }
+        selector.selectedKeys().clear();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      closeChannels();
+    }
+  }
+
+  private void closeChannels() {
+    for (SelectionKey key : selector.keys()) {
+      try {
+        key.channel().close();
+      } catch (IOException e) {
+        // closing anyway
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      // closing anyway
+    }
+  }
+
+  /**
+   * Accepts a pending connection, if any. Failing to accept or set up one connection closes only that connection.
+   */
+  private void accept() {
+    SocketChannel channel;
+    try {
+      channel = serverChannel.accept();
+    } catch (IOException e) {
+      return;
+    }
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      Connection connection = new Connection(channel);
+      connection.key = channel.register(selector, OP_READ, connection);
+    } catch (IOException e) {
+      try {
+        channel.close();
+      } catch (IOException closeError) {
+        // closing anyway
+      }
+    }
+  }
+
+  /**
+   * Runs a request once the requests other than pulls sent before it on the connection completed, and answers it once
+   * the operation completes. Called on the selector thread.
+   */
+  private void handle(Connection connection, ByteBuffer request) {
+    connection.outstanding.incrementAndGet();
+    int id = request.getInt();
+    byte operation = request.get();
+    CompletableFuture<QueueProtocol.Frame> response;
+    if (operation == QueueProtocol.PULL) {
+      response = connection.lastUpdate.thenCompose(ignored -> pull(id, request));
+    } else {
+      response = connection.lastUpdate.thenApplyAsync(ignored -> apply(id, operation, request), workers);
+      connection.lastUpdate = response.handle((frame, error) -> null);
+    }
+    response.whenComplete((frame, error) -> connection.respond(error == null ? frame : failure(id, error)));
+  }
+
+  private CompletableFuture<QueueProtocol.Frame> pull(int id, ByteBuffer request) {
+    String queueName = QueueProtocol.getString(request);
+    int maxMessages = request.getInt();
+    long visibilityTimeout = request.getLong();
+    long maxWait = request.getLong();
+    if (maxWait >= 0 && queueService instanceof AsyncQueueService) {
+      @SuppressWarnings("unchecked")
+      AsyncQueueService<String> asyncQueueService = (AsyncQueueService<String>) queueService;
+      return asyncQueueService.pullAsync(queueName, Duration.ofMillis(maxWait))
+          .thenApply(message -> messages(id, message));
+    }
+    return supplyAsync(() -> {
+      if (maxWait >= 0) {
+        return messages(id, queueService.pull(queueName, Duration.ofMillis(maxWait)));
+      }
+      if (visibilityTimeout >= 0) {
+        return messages(id, queueService.pull(queueName, maxMessages, Duration.ofMillis(visibilityTimeout)));
+      }
+      return messages(id, queueService.pull(queueName, maxMessages));
+    }, workers);
+  }
+
+  private QueueProtocol.Frame apply(int id, byte operation, ByteBuffer request) {
+    String queueName = QueueProtocol.getString(request);
+    switch (operation) {
+      case QueueProtocol.CONFIGURE:
+        queueService.configure(queueName, QueueProtocol.getConfig(request));
+        break;
+      case QueueProtocol.PUSH:
+        List<String> messageBodies = QueueProtocol.getStrings(request);
+        if (messageBodies.size() == 1) {
+          queueService.push(queueName, messageBodies.get(0));
+        } else {
+          queueService.pushBatch(queueName, messageBodies);
+        }
+        break;
+      case QueueProtocol.CHANGE_VISIBILITY:
+        queueService.changeVisibility(queueName, QueueProtocol.getString(request),
+            Duration.ofMillis(request.getLong()));
+        break;
+      case QueueProtocol.DELETE:
+        List<String> receiptHandles = QueueProtocol.getStrings(request);
+        if (receiptHandles.size() == 1) {
+          queueService.delete(queueName, receiptHandles.get(0));
+        } else {
+          queueService.deleteBatch(queueName, receiptHandles);
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+    return new QueueProtocol.Frame(id, QueueProtocol.OK);
+  }
+
+  private static QueueProtocol.Frame messages(int id, Optional<Message<String>> message) {
+    return messages(id, message.map(Collections::singletonList).orElse(Collections.emptyList()));
+  }
+
+  private static QueueProtocol.Frame messages(int id, List<Message<String>> messages) {
+    QueueProtocol.Frame frame = new QueueProtocol.Frame(id, QueueProtocol.OK);
+    QueueProtocol.putMessages(frame, messages);
+    return frame;
+  }
+
+  private static QueueProtocol.Frame failure(int id, Throwable error) {
+    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    byte status = cause instanceof IllegalArgumentException ? QueueProtocol.INVALID
+        : cause instanceof QueueFullException ? QueueProtocol.FULL
+        : QueueProtocol.FAILED;
+    return new QueueProtocol.Frame(id, status).putString(String.valueOf(cause.getMessage()));
+  }
+
+  /**
+   * Stops serving and closes all connections, failing the requests still running. The queue service is not closed.
+   */
+  @Override
+  public void close() throws IOException {
+    closing = true;
+    selector.wakeup();
+    try {
+      selectorThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  private final class Connection {
+
+    private final SocketChannel channel;
+    private final QueueProtocol.FrameReader reader = new QueueProtocol.FrameReader();
+    private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private CompletableFuture<Void> lastUpdate = CompletableFuture.completedFuture(null);
+    private SelectionKey key;
+
+    private Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Called on the selector thread.
+     */
+    private void read() {
+      try {
+        reader.read(channel);
+        handleRead();
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    /**
+     * Handles the requests read while few enough are unanswered, and stops reading while too many are.
+     * Called on the selector thread.
+     */
+    private void handleRead() throws IOException {
+      ByteBuffer request;
+      while (outstanding.get() < MAX_OUTSTANDING_REQUESTS && (request = reader.next()) != null) {
+        handle(this, request);
+      }
+      updateInterest();
+    }
+
+    private void updateInterest() {
+      int ops = outstanding.get() < MAX_OUTSTANDING_REQUESTS ? OP_READ : 0;
+      key.interestOps(responses.isEmpty() ? ops : ops | OP_WRITE);
+    }
+
+    /**
+     * Queues a response to be written by the selector thread; called by any thread.
+     */
+    private void respond(QueueProtocol.Frame response) {
+      outstanding.decrementAndGet();
+      responses.add(response.finish());
+      pendingWrites.add(this);
+      if (wakeupPending.compareAndSet(false, true)) {
+        selector.wakeup();
+      }
+    }
+
+    /**
+     * Writes as many of the queued responses as the socket takes in one write, and waits to be writable for the rest,
+     * then handles the requests held back while too many were unanswered. Called on the selector thread.
+     */
+    private void write() {
+      if (!key.isValid()) {
+        return;
+      }
+      try {
+        ByteBuffer[] buffers = responses.toArray(new ByteBuffer[0]);
+        channel.write(buffers);
+        for (ByteBuffer buffer : buffers) {
+          if (buffer.hasRemaining()) {
+            break;
+          }
+          responses.remove();
+        }
+        handleRead();
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    private void close() {
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // closing anyway
+      }
+    }
+  }
+
+}
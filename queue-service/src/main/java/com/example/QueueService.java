@@ -0,0 +1,85 @@
+package com.example;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+public interface QueueService<T> {
+
+  /**
+   * Sets the configuration of a queue, which applies to the operations that follow.
+   * @param queueName the name of the queue
+   * @param config the settings of the queue
+   */
+  void configure(String queueName, QueueConfig config);
+
+  /**
+   * Pushes a message onto a queue.
+   * @param queueName the name of the queue
+   * @param messageBody the message to push
+   */
+  void push(String queueName, T messageBody);
+
+  /**
+   * Pushes several messages onto a queue in one operation.
+   * @param queueName the name of the queue
+   * @param messageBodies the messages to push, in order
+   */
+  void pushBatch(String queueName, List<T> messageBodies);
+
+  /**
+   * Retrieves a single message from a queue.
+   * @param queueName the name of the queue
+   * @return a message
+   */
+  Optional<Message<T>> pull(String queueName);
+
+  /**
+   * Retrieves a single message from a queue, waiting for one to become visible if the queue is empty.
+   * @param queueName the name of the queue
+   * @param maxWait how long to wait for a message at most
+   * @return a message, or empty if none became visible within maxWait
+   */
+  Optional<Message<T>> pull(String queueName, Duration maxWait);
+
+  /**
+   * Retrieves up to maxMessages messages from a queue in one operation.
+   * @param queueName the name of the queue
+   * @param maxMessages the maximum number of messages to return, at least 1
+   * @return the received messages, empty if none are visible
+   */
+  List<Message<T>> pull(String queueName, int maxMessages);
+
+  /**
+   * Retrieves up to maxMessages messages from a queue in one operation, overriding the visibility timeout of the queue.
+   * @param queueName the name of the queue
+   * @param maxMessages the maximum number of messages to return, at least 1
+   * @param visibilityTimeout how long the received messages stay invisible
+   * @return the received messages, empty if none are visible
+   */
+  List<Message<T>> pull(String queueName, int maxMessages, Duration visibilityTimeout);
+
+  /**
+   * Makes a message received by pull() invisible for the given time from now, to extend the time to process it or,
+   * with a zero timeout, to release it right away. Handles of messages deleted or received again are ignored.
+   * @param queueName the name of the queue
+   * @param receiptHandle a unique receipt handle from Message.receiptHandle
+   * @param visibilityTimeout how long the message stays invisible from now on
+   */
+  void changeVisibility(String queueName, String receiptHandle, Duration visibilityTimeout);
+
+  /**
+   * Deletes a message from the queue that was received by pull().
+   * @param queueName the name of the queue
+   * @param receiptHandle a unique receipt handle from Message.receiptHandle
+   */
+  void delete(String queueName, String receiptHandle);
+
+  /**
+   * Deletes several messages received by pull() in one operation.
+   * @param queueName the name of the queue
+   * @param receiptHandles unique receipt handles from Message.receiptHandle
+   */
+  void deleteBatch(String queueName, List<String> receiptHandles);
+
+}
@@ -0,0 +1,165 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Wakes up threads waiting for messages on file based queues.
+ *
+ * Pushes from this JVM signal waiters directly. Pushes from other processes are noticed through a {@link WatchService}
+ * on the queue directory, which reports changes of the cursor file once they are committed. The cursor is only written
+ * when the queue changes, so a waiter that finds nothing does not wake the others up; deliveries and deletes by other
+ * processes cause a harmless extra look at the queue. A directory is only watched while a thread or callback waits on
+ * it.
+ *
+ * Waiters read the version of a queue before they look for messages and only wait while it is unchanged, so a push in
+ * between is never missed.
+ */
+final class QueueWatcher {
+
+  private final Map<Path, Signal> signals = new ConcurrentHashMap<>();
+  private WatchService watchService;
+
+  long version(Path queueDirectory) {
+    Signal signal = getSignal(queueDirectory);
+    synchronized (signal) {
+      return signal.version;
+    }
+  }
+
+  void signal(Path queueDirectory) {
+    Signal signal = getSignal(queueDirectory);
+    Set<Runnable> callbacks;
+    synchronized (signal) {
+      signal.version++;
+      signal.notifyAll();
+      callbacks = signal.callbacks;
+      signal.callbacks = new HashSet<>();
+    }
+    callbacks.forEach(Runnable::run);
+  }
+
+  void await(Path queueDirectory, long version, long timeoutMillis) throws InterruptedException {
+    if (timeoutMillis <= 0) {
+      return;
+    }
+
+    Signal signal = getSignal(queueDirectory);
+    synchronized (signal) {
+      if (signal.version == version) {
+        signal.wait(timeoutMillis);
+      }
+    }
+  }
+
+  /**
+   * Runs the callback once on the first signal after the given version, right away if there has been one already,
+   * instead of waiting for it on a thread. Callbacks run on the signalling thread and must not block.
+   * @return removes the callback unless it ran already, for a waiter that stops waiting before the signal
+   */
+  Runnable onSignal(Path queueDirectory, long version, Runnable callback) {
+    Signal signal = getSignal(queueDirectory);
+    synchronized (signal) {
+      if (signal.version == version) {
+        signal.callbacks.add(callback);
+        return () -> {
+          synchronized (signal) {
+            signal.callbacks.remove(callback);
+          }
+        };
+      }
+    }
+    callback.run();
+    return () -> { };
+  }
+
+  private Signal getSignal(Path queueDirectory) {
+    return signals.computeIfAbsent(queueDirectory, directory -> new Signal());
+  }
+
+  /**
+   * Starts watching a queue directory for pushes from other processes on behalf of a waiter, must be called before
+   * the version is read. Each call must be followed by one to {@link #unwatch(Path)} once the waiter is done.
+   */
+  synchronized void watch(Path queueDirectory) {
+    Signal signal = getSignal(queueDirectory);
+    signal.watchers++;
+    if (signal.key != null) {
+      return;
+    }
+
+    try {
+      if (watchService == null) {
+        watchService = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this::dispatch, "file-queue-watcher");
+        thread.setDaemon(true);
+        thread.start();
+      }
+      signal.key = queueDirectory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+    } catch (IOException e) {
+      signal.watchers--;
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Stops watching a queue directory on behalf of a waiter, and at all once no waiter is left.
+   */
+  synchronized void unwatch(Path queueDirectory) {
+    Signal signal = getSignal(queueDirectory);
+    if (--signal.watchers == 0 && signal.key != null) {
+      signal.key.cancel();
+      signal.key = null;
+    }
+  }
+
+  private void dispatch() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        boolean pushed = key.pollEvents().stream().anyMatch(this::isPush);
+        Path queueDirectory = (Path) key.watchable();
+        if (!key.reset()) {
+          forget(queueDirectory, key);
+        }
+        if (pushed) {
+          signal(queueDirectory);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private synchronized void forget(Path queueDirectory, WatchKey key) {
+    Signal signal = getSignal(queueDirectory);
+    if (signal.key == key) {
+      signal.key = null;
+    }
+  }
+
+  private boolean isPush(WatchEvent<?> event) {
+    return event.kind() == OVERFLOW || SegmentStore.isCursorFile((Path) event.context());
+  }
+
+  private static final class Signal {
+    private long version;
+    private Set<Runnable> callbacks = new HashSet<>();
+    private int watchers;
+    private WatchKey key;
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.example;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Format of the message records in the data files of a {@link SegmentStore}.
+ *
+ * A record is a one byte format version, the body length and the raw body. Attempts, visibility and the receipt handle
+ * are kept in the fixed-width state slots, so they are read and written without touching the record at all.
+ *
+ * The high bit of the version flags a body stored {@link Compression compressed}; bodies below the compression
+ * threshold of their queue, or that do not get any smaller, are stored as they are.
+ *
+ * Messages published to a topic are stored as a reference record instead, of version {@value #REFERENCE}, pointing
+ * at the body kept once by the {@link TopicStore} of the topic.
+ *
+ * The former text format, one {@code attempts:visibleFrom:receiptHandle:body} line a message with the body in Base64,
+ * is only read to migrate it, see {@link FileQueueService#migrate}.
+ */
+final class RecordCodec {
+
+  static final byte VERSION = 1;
+  static final byte COMPRESSED = (byte) 0x80;
+  static final byte REFERENCE = 2;
+  static final int HEADER_SIZE = 5;
+
+  private RecordCodec() {
+  }
+
+  static byte[] encode(byte[] body) {
+    return encode(VERSION, body);
+  }
+
+  /**
+   * @param compressionThreshold the size from which on the body is compressed
+   */
+  static byte[] encode(byte[] body, int compressionThreshold) {
+    if (body.length >= compressionThreshold) {
+      byte[] compressed = Compression.compress(body);
+      if (compressed != null) {
+        return encode((byte) (VERSION | COMPRESSED), compressed);
+      }
+    }
+    return encode(body);
+  }
+
+  private static byte[] encode(byte version, byte[] body) {
+    return ByteBuffer.allocate(HEADER_SIZE + body.length)
+        .put(version)
+        .putInt(body.length)
+        .put(body)
+        .array();
+  }
+
+  static boolean isReference(byte[] record) {
+    return record.length > 0 && record[0] == REFERENCE;
+  }
+
+  static byte[] decode(byte[] record) {
+    if (record.length >= HEADER_SIZE && (record[0] & ~COMPRESSED) == VERSION) {
+      int length = ByteBuffer.wrap(record, 1, 4).getInt();
+      if ((record[0] & COMPRESSED) != 0) {
+        return Compression.decompress(record, HEADER_SIZE, length);
+      }
+      return Arrays.copyOfRange(record, HEADER_SIZE, HEADER_SIZE + length);
+    }
+    throw new IllegalStateException("Unknown record format");
+  }
+
+  /**
+   * The body of a message line of the former text format.
+   */
+  static byte[] decodeTextLine(String line) {
+    String[] parts = line.split(":", 4);
+    if (parts.length < 4) {
+      throw new IllegalArgumentException("Not a message line: " + line);
+    }
+    return Base64.getDecoder().decode(parts[3].trim());
+  }
+
+}
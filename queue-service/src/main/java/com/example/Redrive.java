@@ -0,0 +1,87 @@
+package com.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Applies the redrive policy of a queue to the messages received from it, for the backends that keep their own
+ * messages.
+ *
+ * A message received more often than the policy allows is moved to the dead-letter queue in place of being delivered;
+ * another message is received in its stead. Backends that can move a message as one step, deleting it from its queue
+ * only if it is still in flight and pushing it onto the dead-letter queue without anyone seeing it in both, pass that
+ * move. Otherwise the message is pushed onto the dead-letter queue and only then deleted from its queue, each step
+ * taking the lock of one queue only; if the process dies in between, the message becomes visible again after the
+ * visibility timeout and is moved once more, so it may end up in the dead-letter queue twice but is never lost.
+ *
+ * If moving fails, the messages received for delivery are made visible again before the failure is thrown, rather than
+ * staying invisible until the visibility timeout; their receive still counts.
+ */
+final class Redrive {
+
+  private Redrive() {
+  }
+
+  /**
+   * Moves messages by pushing them onto the dead-letter queue and then deleting them.
+   * @param receive receives up to the given number of messages from the queue
+   */
+  static <T> List<Message<T>> receive(QueueService<T> queueService, String queueName, QueueConfig config,
+                                      int maxMessages, IntFunction<List<Message<T>>> receive) {
+    return receive(queueService, queueName, config, maxMessages, receive, deadLetters -> {
+      queueService.pushBatch(config.getDeadLetterQueue(), deadLetters.stream().map(Message::getBody).collect(toList()));
+      queueService.deleteBatch(queueName, deadLetters.stream().map(Message::getReceiptHandle).collect(toList()));
+    });
+  }
+
+  /**
+   * @param receive receives up to the given number of messages from the queue
+   * @param moveToDeadLetterQueue moves messages received from the queue to its dead-letter queue, skipping those no
+   *                              longer in flight
+   */
+  static <T> List<Message<T>> receive(QueueService<T> queueService, String queueName, QueueConfig config,
+                                      int maxMessages, IntFunction<List<Message<T>>> receive,
+                                      Consumer<List<Message<T>>> moveToDeadLetterQueue) {
+    if (config.getDeadLetterQueue() == null) {
+      return receive.apply(maxMessages);
+    }
+
+    List<Message<T>> result = new ArrayList<>();
+    List<Message<T>> deadLetters;
+    do {
+      List<Message<T>> messages = receive.apply(maxMessages - result.size());
+      deadLetters = messages.stream()
+          .filter(message -> message.getAttempts() > config.getMaxReceives())
+          .collect(toList());
+      messages.stream()
+          .filter(message -> message.getAttempts() <= config.getMaxReceives())
+          .forEach(result::add);
+      if (!deadLetters.isEmpty()) {
+        try {
+          moveToDeadLetterQueue.accept(deadLetters);
+        } catch (RuntimeException e) {
+          giveBack(queueService, queueName, result, e);
+          throw e;
+        }
+      }
+    } while (!deadLetters.isEmpty() && result.size() < maxMessages);
+    return result;
+  }
+
+  private static <T> void giveBack(QueueService<T> queueService, String queueName, List<Message<T>> messages,
+                                   RuntimeException failure) {
+    for (Message<T> message : messages) {
+      try {
+        queueService.changeVisibility(queueName, message.getReceiptHandle(), Duration.ZERO);
+      } catch (RuntimeException e) {
+        failure.addSuppressed(e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,393 @@
+package com.example;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.util.Collections.singletonList;
+
+/**
+ * Queues served by a {@link QueueServer} in another process or on another host, a low latency alternative to
+ * {@link SqsQueueService} within one network.
+ *
+ * Operations go over a small pool of connections, taken in turn, and each connection carries the requests of many
+ * threads at once: a request is written without waiting for the responses to earlier ones, which are matched to their
+ * requests by id as they arrive. Requests queued while another thread writes to the connection go out with its write.
+ * A connection that fails fails the requests in flight on it, and is opened again by the next request.
+ *
+ * The configuration of a queue is kept by the server, so it applies to all clients.
+ */
+public class RemoteQueueService implements QueueService<String>, AsyncQueueService<String>, Closeable {
+
+  public static final int DEFAULT_CONNECTIONS = 2;
+
+  private static final ThreadFactory READERS =
+      new ThreadFactoryBuilder().setNameFormat("remote-queue-reader-%d").setDaemon(true).build();
+
+  private final InetSocketAddress address;
+  private final Clock clock;
+  private final Connection[] connections;
+  private final AtomicInteger nextConnection = new AtomicInteger();
+  private volatile boolean closed;
+
+  public RemoteQueueService(InetSocketAddress address, Clock clock) {
+    this(address, clock, DEFAULT_CONNECTIONS);
+  }
+
+  /**
+   * @param connections the number of connections to open to the server, each opened on first use
+   */
+  public RemoteQueueService(InetSocketAddress address, Clock clock, int connections) {
+    if (address == null || connections < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.address = address;
+    this.clock = clock;
+    this.connections = new Connection[connections];
+  }
+
+  @Override
+  public void configure(String queueName, QueueConfig config) {
+    if (isNullOrEmpty(queueName) || config == null) {
+      throw new IllegalArgumentException();
+    }
+
+    await(send(QueueProtocol.CONFIGURE, queueName, frame -> QueueProtocol.putConfig(frame, config)));
+  }
+
+  @Override
+  public void push(String queueName, String messageBody) {
+    await(pushAsync(queueName, messageBody));
+  }
+
+  @Override
+  public void pushBatch(String queueName, List<String> messageBodies) {
+    if (isNullOrEmpty(queueName) || messageBodies == null || messageBodies.contains(null)) {
+      throw new IllegalArgumentException();
+    }
+
+    await(send(QueueProtocol.PUSH, queueName, frame -> frame.putStrings(messageBodies)));
+  }
+
+  @Override
+  public Optional<Message<String>> pull(String queueName) {
+    return await(pullAsync(queueName));
+  }
+
+  @Override
+  public Optional<Message<String>> pull(String queueName, Duration maxWait) {
+    return await(pullAsync(queueName, maxWait));
+  }
+
+  @Override
+  public List<Message<String>> pull(String queueName, int maxMessages) {
+    return await(pullAsync(queueName, maxMessages));
+  }
+
+  @Override
+  public List<Message<String>> pull(String queueName, int maxMessages, Duration visibilityTimeout) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1 || visibilityTimeout == null || visibilityTimeout.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    return await(pull(queueName, maxMessages, visibilityTimeout.toMillis(), -1));
+  }
+
+  @Override
+  public void changeVisibility(String queueName, String receiptHandle, Duration visibilityTimeout) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle) || visibilityTimeout == null
+        || visibilityTimeout.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    await(send(QueueProtocol.CHANGE_VISIBILITY, queueName,
+        frame -> frame.putString(receiptHandle).putLong(visibilityTimeout.toMillis())));
+  }
+
+  @Override
+  public void delete(String queueName, String receiptHandle) {
+    await(deleteAsync(queueName, receiptHandle));
+  }
+
+  @Override
+  public void deleteBatch(String queueName, List<String> receiptHandles) {
+    if (isNullOrEmpty(queueName) || receiptHandles == null || receiptHandles.stream().anyMatch(Strings::isNullOrEmpty)) {
+      throw new IllegalArgumentException();
+    }
+
+    await(send(QueueProtocol.DELETE, queueName, frame -> frame.putStrings(receiptHandles)));
+  }
+
+  @Override
+  public CompletableFuture<Void> pushAsync(String queueName, String messageBody) {
+    if (isNullOrEmpty(queueName) || messageBody == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return send(QueueProtocol.PUSH, queueName, frame -> frame.putStrings(singletonList(messageBody)))
+        .thenApply(response -> null);
+  }
+
+  @Override
+  public CompletableFuture<Optional<Message<String>>> pullAsync(String queueName) {
+    if (isNullOrEmpty(queueName)) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, 1, -1, -1).thenApply(messages -> messages.stream().findFirst());
+  }
+
+  /**
+   * The server waits for a message, so no thread of the client is taken up meanwhile.
+   */
+  @Override
+  public CompletableFuture<Optional<Message<String>>> pullAsync(String queueName, Duration maxWait) {
+    if (isNullOrEmpty(queueName) || maxWait == null || maxWait.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, 1, -1, maxWait.toMillis()).thenApply(messages -> messages.stream().findFirst());
+  }
+
+  @Override
+  public CompletableFuture<List<Message<String>>> pullAsync(String queueName, int maxMessages) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    return pull(queueName, maxMessages, -1, -1);
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteAsync(String queueName, String receiptHandle) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle)) {
+      throw new IllegalArgumentException();
+    }
+
+    return send(QueueProtocol.DELETE, queueName, frame -> frame.putStrings(singletonList(receiptHandle)))
+        .thenApply(response -> null);
+  }
+
+  /**
+   * @param visibilityTimeout the visibility timeout in milliseconds, or -1 for that of the queue
+   * @param maxWait how long the server waits for a message in milliseconds, or -1 not to wait
+   */
+  private CompletableFuture<List<Message<String>>> pull(String queueName, int maxMessages, long visibilityTimeout,
+                                                        long maxWait) {
+    return send(QueueProtocol.PULL, queueName,
+        frame -> frame.putInt(maxMessages).putLong(visibilityTimeout).putLong(maxWait))
+        .thenApply(response -> QueueProtocol.getMessages(response, clock));
+  }
+
+  private CompletableFuture<ByteBuffer> send(byte operation, String queueName, Consumer<QueueProtocol.Frame> fields) {
+    try {
+      return connection().send(operation, frame -> fields.accept(frame.putString(queueName)));
+    } catch (IOException e) {
+      CompletableFuture<ByteBuffer> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new UncheckedIOException(e));
+      return failed;
+    }
+  }
+
+  /**
+   * The next connection of the pool, opened again if it failed.
+   */
+  private Connection connection() throws IOException {
+    int index = Math.floorMod(nextConnection.getAndIncrement(), connections.length);
+    Connection connection = connections[index];
+    if (connection == null || connection.failed) {
+      synchronized (connections) {
+        if (closed) {
+          throw new IOException("Closed");
+        }
+        connection = connections[index];
+        if (connection == null || connection.failed) {
+          connection = new Connection(SocketChannel.open(address));
+          connections[index] = connection;
+        }
+      }
+    }
+    return connection;
+  }
+
+  private static <R> R await(CompletableFuture<R> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Closes the connections, failing the requests in flight.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (connections) {
+      closed = true;
+      for (Connection connection : connections) {
+        if (connection != null) {
+          connection.close();
+        }
+      }
+    }
+  }
+
+  private final class Connection implements Closeable {
+
+    private final SocketChannel channel;
+    private final Map<Integer, CompletableFuture<ByteBuffer>> inFlight = new ConcurrentHashMap<>();
+    private final Queue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicInteger ids = new AtomicInteger();
+    private volatile boolean failed;
+    private IOException failure;
+
+    private Connection(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      channel.socket().setTcpNoDelay(true);
+      READERS.newThread(this::read).start();
+    }
+
+    private CompletableFuture<ByteBuffer> send(byte operation, Consumer<QueueProtocol.Frame> fields) {
+      int id = ids.incrementAndGet();
+      QueueProtocol.Frame frame = new QueueProtocol.Frame(id, operation);
+      fields.accept(frame);
+      CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+      inFlight.put(id, response);
+      if (failed) {
+        failInFlight();
+        return response;
+      }
+      outgoing.add(frame.finish());
+      flush();
+      return response;
+    }
+
+    /**
+     * Writes the queued requests unless another thread is at it, which then writes them along with its own.
+     */
+    private void flush() {
+      while (!outgoing.isEmpty() && writing.compareAndSet(false, true)) {
+        try {
+          List<ByteBuffer> requests = new ArrayList<>();
+          ByteBuffer request;
+          while ((request = outgoing.poll()) != null) {
+            requests.add(request);
+          }
+          if (requests.isEmpty()) {
+            continue;
+          }
+          ByteBuffer[] buffers = requests.toArray(new ByteBuffer[0]);
+          ByteBuffer last = buffers[buffers.length - 1];
+          while (last.hasRemaining()) {
+            channel.write(buffers);
+          }
+        } catch (IOException e) {
+          fail(e);
+        } finally {
+          writing.set(false);
+        }
+      }
+    }
+
+    /**
+     * Completes the requests with their responses, on a thread of its own.
+     */
+    private void read() {
+      QueueProtocol.FrameReader reader = new QueueProtocol.FrameReader();
+      try {
+        while (true) {
+          reader.read(channel);
+          ByteBuffer response;
+          while ((response = reader.next()) != null) {
+            CompletableFuture<ByteBuffer> request = inFlight.remove(response.getInt());
+            byte status = response.get();
+            if (request == null) {
+              continue;
+            }
+            if (status == QueueProtocol.OK) {
+              request.complete(response);
+            } else {
+              request.completeExceptionally(error(status, QueueProtocol.getString(response)));
+            }
+          }
+        }
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+
+    private RuntimeException error(byte status, String message) {
+      switch (status) {
+        case QueueProtocol.INVALID:
+          return new IllegalArgumentException(message);
+        case QueueProtocol.FULL:
+          return new QueueFullException(message);
+        default:
+          return new RuntimeException(message);
+      }
+    }
+
+    private synchronized void fail(IOException e) {
+      if (!failed) {
+        failure = e;
+        failed = true;
+        try {
+          channel.close();
+        } catch (IOException closing) {
+          e.addSuppressed(closing);
+        }
+      }
+      failInFlight();
+    }
+
+    private void failInFlight() {
+      for (Integer id : inFlight.keySet()) {
+        CompletableFuture<ByteBuffer> request = inFlight.remove(id);
+        if (request != null) {
+          request.completeExceptionally(new UncheckedIOException(failure()));
+        }
+      }
+    }
+
+    private synchronized IOException failure() {
+      return failure;
+    }
+
+    @Override
+    public void close() {
+      fail(new IOException("Closed"));
+    }
+  }
+
+}
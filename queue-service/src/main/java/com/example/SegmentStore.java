@@ -0,0 +1,695 @@
+package com.example;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.UUID.randomUUID;
+
+/**
+ * Storage engine of a single file based queue.
+ *
+ * Message bodies are appended to fixed-size segments of {@value #MESSAGES_PER_SEGMENT} records. Every segment has a
+ * companion state file with one fixed-width slot per message holding the record offset, length, attempts, visibility
+ * and flags telling deleted messages and references to topic bodies, so that push, pull and delete only touch the
+ * slots involved. The state file starts with a lower bound of the visibility deadlines of the segment's messages in
+ * flight, so that looking for timed out messages skips the segments in which none can have timed out. A cursor file
+ * keeps the first message not yet deleted (head), the first message never delivered (next) and the next free sequence
+ * number (tail).
+ * Segments behind the head are fully acknowledged and deleted as a whole.
+ *
+ * A message that stays in flight keeps the head, and every segment after it, in place. The dead records of such
+ * segments are reclaimed by compaction: the live records of a full segment, which is never written again, are copied
+ * to a new generation of its data file without holding the queue lock, and the slots are then pointed at the copy
+ * under the lock in one write. Slots name the generation of the data file they point into, so instances in other
+ * processes follow the swap the next time they read a slot.
+ *
+ * Receipt handles encode the sequence number and the attempt they were issued for, so that delete finds its slot
+ * directly and ignores handles of earlier deliveries.
+ *
+ * Instances may be kept open across operations, keeping their files open. Not thread-safe: every operation must be
+ * made with the queue lock held, starting with {@link #refresh()} and ending with {@link #commit()}.
+ */
+final class SegmentStore implements Closeable {
+
+  static final int MESSAGES_PER_SEGMENT = 1024;
+
+  private static final int SLOT_SIZE = 32;
+  private static final int SLOTS_PER_READ = 256;
+  private static final int DEADLINE_SIZE = Long.BYTES;
+  private static final byte DELETED = 1;
+  private static final byte REFERENCE = 2;
+  private static final int CURSOR_SIZE = 32;
+  private static final String CURSOR_FILE = "cursor";
+  private static final String DATA_SUFFIX = ".log";
+  private static final String STATE_SUFFIX = ".state";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private final Path directory;
+  private final FileChannel cursorChannel;
+  private final Map<Path, FileChannel> channels = new HashMap<>();
+  private final TreeSet<Long> segmentsWithDeletes = new TreeSet<>();
+
+  private long head;
+  private long next;
+  private long tail;
+  private long redeliveryCheckAt;
+  private ByteBuffer storedCursor;
+  private boolean dirty;
+
+  private SegmentStore(Path directory) throws IOException {
+    this.directory = directory;
+    this.cursorChannel = FileChannel.open(directory.resolve(CURSOR_FILE), CREATE, READ, WRITE);
+    readCursor();
+  }
+
+  static SegmentStore open(Path directory) throws IOException {
+    return new SegmentStore(directory);
+  }
+
+  void append(List<byte[]> records) throws IOException {
+    for (byte[] record : records) {
+      if (tail % MESSAGES_PER_SEGMENT == 0) {
+        writeDeadline(segmentOf(tail), Long.MAX_VALUE);
+      }
+      FileChannel data = channel(dataFile(segmentOf(tail), 0));
+      long offset = data.size();
+      write(data, ByteBuffer.wrap(record), offset);
+      writeSlot(tail, new Slot(offset, record.length, 0, 0L, false, RecordCodec.isReference(record), 0));
+      tail++;
+    }
+  }
+
+  List<Message<byte[]>> deliver(int maxMessages, long now, long visibilityTimeout) throws IOException {
+    List<Message<byte[]>> result = new ArrayList<>();
+
+    if (now >= redeliveryCheckAt) {
+      redeliverTimedOut(result, maxMessages, now, visibilityTimeout);
+    }
+
+    while (result.size() < maxMessages && next < tail) {
+      lowerDeadline(segmentOf(next), now + visibilityTimeout);
+      for (Slot slot : readSlots(next, Math.min(tail, next + maxMessages - result.size()))) {
+        result.add(deliver(next, slot, now, visibilityTimeout));
+        redeliveryCheckAt = Math.min(redeliveryCheckAt, now + visibilityTimeout);
+        next++;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the earliest time at which an invisible message may become visible again, a lower bound
+   */
+  long nextVisibleAt() {
+    return redeliveryCheckAt;
+  }
+
+  void delete(String receiptHandle, long now) throws IOException {
+    long sequence = sequenceOf(receiptHandle);
+    if (sequence < head || sequence >= next) {
+      return;
+    }
+
+    Slot slot = readSlot(sequence);
+    if (!slot.isDelivery(attemptsOf(receiptHandle), now)) {
+      return;
+    }
+
+    writeSlot(sequence, slot.deleted());
+    if (sequence == head) {
+      advanceHead();
+    } else {
+      segmentsWithDeletes.add(segmentOf(sequence));
+    }
+  }
+
+  /**
+   * Whether a receipt handle is that of a message in flight, which {@link #delete} would delete.
+   */
+  boolean isInFlight(String receiptHandle, long now) throws IOException {
+    long sequence = sequenceOf(receiptHandle);
+    return sequence >= head && sequence < next && readSlot(sequence).isDelivery(attemptsOf(receiptHandle), now);
+  }
+
+  /**
+   * The full segments in which this instance deleted messages other than the head since they were last taken,
+   * candidates for compaction. The tail segment is kept as a candidate until it is full.
+   */
+  Set<Long> takeSegmentsWithDeletes() {
+    Set<Long> segments = new TreeSet<>(segmentsWithDeletes.headSet(segmentOf(tail)));
+    segmentsWithDeletes.removeAll(segments);
+    return segments;
+  }
+
+  /**
+   * Whether {@link #takeSegmentsWithDeletes()} has any segment to take.
+   */
+  boolean hasFullSegmentsWithDeletes() {
+    return !segmentsWithDeletes.isEmpty() && segmentsWithDeletes.first() < segmentOf(tail);
+  }
+
+  /**
+   * Plans the compaction of a segment that is full and still in use.
+   * @param deadRatio the share of its data file the dead records must take at least
+   * @return the plan, or null if the segment does not qualify
+   */
+  Compaction planCompaction(long segment, double deadRatio) throws IOException {
+    if (segment < segmentOf(head) || segment >= segmentOf(tail)) {
+      return null;
+    }
+
+    Slot[] slots = readSlots(segment);
+    int generation = slots[0].generation;
+    long fileSize = channel(dataFile(segment, generation)).size();
+    long liveBytes = 0;
+    for (Slot slot : slots) {
+      if (!slot.deleted) {
+        liveBytes += slot.length;
+      }
+    }
+    if (fileSize == 0 || fileSize - liveBytes < deadRatio * fileSize) {
+      return null;
+    }
+    Path copy = directory.resolve(dataFile(segment, generation + 1).getFileName() + "." + randomUUID()
+        + TEMPORARY_SUFFIX);
+    return new Compaction(segment, generation, dataFile(segment, generation), copy, slots);
+  }
+
+  /**
+   * Points the slots of a compacted segment at the copy and deletes the former data file. Drops the copy instead if
+   * the segment was deleted or compacted by another instance meanwhile.
+   */
+  void applyCompaction(Compaction compaction) throws IOException {
+    long segment = compaction.segment;
+    if (segment < segmentOf(head) || readSlot(segment * MESSAGES_PER_SEGMENT).generation != compaction.generation) {
+      Files.deleteIfExists(compaction.copy);
+      return;
+    }
+
+    int generation = compaction.generation + 1;
+    Files.move(compaction.copy, dataFile(segment, generation), ATOMIC_MOVE);
+    Slot[] slots = readSlots(segment);
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = slots[i].movedTo(compaction.offsets[i], generation);
+    }
+    writeSlots(segment, slots);
+    channel(stateFile(segment)).force(false);
+
+    FileChannel source = channels.remove(compaction.source);
+    if (source != null) {
+      source.close();
+    }
+    Files.deleteIfExists(compaction.source);
+  }
+
+  /**
+   * The first reference record from the head on that is not deleted and matches, delivered or not. Only the slots are
+   * read to find the references, {@value #SLOTS_PER_READ} at a time, and only the references themselves are read.
+   * @return the record, or null if there is none
+   */
+  byte[] firstLiveReference(Predicate<byte[]> matching) throws IOException {
+    for (long from = head; from < tail; ) {
+      Slot[] slots = readSlots(from, Math.min(tail, from + SLOTS_PER_READ));
+      for (int i = 0; i < slots.length; i++) {
+        if (slots[i].reference && !slots[i].deleted) {
+          byte[] record = readRecord(from + i, slots[i]);
+          if (matching.test(record)) {
+            return record;
+          }
+        }
+      }
+      from += slots.length;
+    }
+    return null;
+  }
+
+  void changeVisibility(String receiptHandle, long now, long visibleFrom) throws IOException {
+    long sequence = sequenceOf(receiptHandle);
+    if (sequence < head || sequence >= next) {
+      return;
+    }
+
+    Slot slot = readSlot(sequence);
+    if (!slot.isDelivery(attemptsOf(receiptHandle), now)) {
+      return;
+    }
+
+    writeSlot(sequence, slot.visibleFrom(visibleFrom));
+    lowerDeadline(segmentOf(sequence), visibleFrom);
+    redeliveryCheckAt = Math.min(redeliveryCheckAt, visibleFrom);
+  }
+
+  private void redeliverTimedOut(List<Message<byte[]>> result, int maxMessages, long now, long visibilityTimeout)
+      throws IOException {
+    advanceHead();
+
+    long nextCheck = Long.MAX_VALUE;
+    for (long segment = segmentOf(head); segment * MESSAGES_PER_SEGMENT < next; segment++) {
+      long deadline = readDeadline(segment);
+      if (deadline > now) {
+        nextCheck = Math.min(nextCheck, deadline);
+        continue;
+      }
+
+      long segmentDeadline = Long.MAX_VALUE;
+      long end = Math.min(next, (segment + 1) * MESSAGES_PER_SEGMENT);
+      for (long from = Math.max(head, segment * MESSAGES_PER_SEGMENT); from < end; ) {
+        Slot[] slots = readSlots(from, Math.min(end, from + SLOTS_PER_READ));
+        for (int i = 0; i < slots.length; i++) {
+          Slot slot = slots[i];
+          if (slot.deleted) {
+            continue;
+          }
+          if (slot.visibleFrom <= now) {
+            if (result.size() == maxMessages) {
+              redeliveryCheckAt = now;
+              return;
+            }
+            slot = slot.delivered(now + visibilityTimeout);
+            result.add(deliver(from + i, slot));
+          }
+          segmentDeadline = Math.min(segmentDeadline, slot.visibleFrom);
+        }
+        from += slots.length;
+      }
+      if (segmentDeadline != deadline) {
+        writeDeadline(segment, segmentDeadline);
+      }
+      nextCheck = Math.min(nextCheck, segmentDeadline);
+    }
+    redeliveryCheckAt = nextCheck;
+  }
+
+  /**
+   * The lower bound of the visibility deadlines of the messages in flight in a segment, zero if it was never written.
+   */
+  private long readDeadline(long segment) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(DEADLINE_SIZE);
+    read(channel(stateFile(segment)), buffer, 0);
+    buffer.flip();
+    return buffer.getLong();
+  }
+
+  private void writeDeadline(long segment, long deadline) throws IOException {
+    dirty = true;
+    ByteBuffer buffer = ByteBuffer.allocate(DEADLINE_SIZE);
+    buffer.putLong(deadline).flip();
+    write(channel(stateFile(segment)), buffer, 0);
+  }
+
+  private void lowerDeadline(long segment, long deadline) throws IOException {
+    if (deadline < readDeadline(segment)) {
+      writeDeadline(segment, deadline);
+    }
+  }
+
+  private Message<byte[]> deliver(long sequence, Slot slot, long now, long visibilityTimeout) throws IOException {
+    return deliver(sequence, slot.delivered(now + visibilityTimeout));
+  }
+
+  private Message<byte[]> deliver(long sequence, Slot slot) throws IOException {
+    writeSlot(sequence, slot);
+    return Message.<byte[]>builder()
+        .attempts(slot.attempts)
+        .visibleFrom(slot.visibleFrom)
+        .receiptHandle(sequence + ":" + slot.attempts)
+        .body(readRecord(sequence, slot))
+        .build();
+  }
+
+  private void advanceHead() throws IOException {
+    long oldHead = head;
+    boolean undeleted = false;
+    while (head < next && !undeleted) {
+      Slot[] slots = readSlots(head, Math.min(next, head + SLOTS_PER_READ));
+      int deleted = 0;
+      while (deleted < slots.length && slots[deleted].deleted) {
+        deleted++;
+      }
+      head += deleted;
+      undeleted = deleted < slots.length;
+    }
+    for (long segment = segmentOf(oldHead); segment < segmentOf(head); segment++) {
+      deleteSegment(segment);
+    }
+  }
+
+  private void deleteSegment(long segment) throws IOException {
+    int generation = readSlot(segment * MESSAGES_PER_SEGMENT).generation;
+    for (Path file : new Path[]{dataFile(segment, generation), stateFile(segment)}) {
+      FileChannel channel = channels.remove(file);
+      if (channel != null) {
+        channel.close();
+      }
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private byte[] readRecord(long sequence, Slot slot) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(slot.length);
+    read(channel(dataFile(segmentOf(sequence), slot.generation)), buffer, slot.offset);
+    return buffer.array();
+  }
+
+  private Slot readSlot(long sequence) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+    read(channel(stateFile(segmentOf(sequence))), buffer, slotPosition(sequence));
+    buffer.flip();
+    return readSlot(buffer);
+  }
+
+  private Slot[] readSlots(long segment) throws IOException {
+    return readSlots(segment * MESSAGES_PER_SEGMENT, (segment + 1) * MESSAGES_PER_SEGMENT);
+  }
+
+  /**
+   * Reads the slots from one sequence number up to another, or to the end of the segment if that comes first, in one
+   * read.
+   */
+  private Slot[] readSlots(long from, long to) throws IOException {
+    int count = (int) (Math.min(to, (segmentOf(from) + 1) * MESSAGES_PER_SEGMENT) - from);
+    ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE * count);
+    read(channel(stateFile(segmentOf(from))), buffer, slotPosition(from));
+    buffer.flip();
+    Slot[] slots = new Slot[count];
+    for (int i = 0; i < slots.length; i++) {
+      buffer.position(i * SLOT_SIZE);
+      slots[i] = readSlot(buffer);
+    }
+    return slots;
+  }
+
+  private static Slot readSlot(ByteBuffer buffer) {
+    long offset = buffer.getLong();
+    int length = buffer.getInt();
+    int attempts = buffer.getInt();
+    long visibleFrom = buffer.getLong();
+    byte flags = buffer.get();
+    return new Slot(offset, length, attempts, visibleFrom, (flags & DELETED) != 0, (flags & REFERENCE) != 0,
+        buffer.getInt());
+  }
+
+  private void writeSlot(long sequence, Slot slot) throws IOException {
+    dirty = true;
+    ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+    writeSlot(buffer, slot);
+    buffer.clear();
+    write(channel(stateFile(segmentOf(sequence))), buffer, slotPosition(sequence));
+  }
+
+  private void writeSlots(long segment, Slot[] slots) throws IOException {
+    dirty = true;
+    ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE * MESSAGES_PER_SEGMENT);
+    for (int i = 0; i < slots.length; i++) {
+      buffer.position(i * SLOT_SIZE);
+      writeSlot(buffer, slots[i]);
+    }
+    buffer.clear();
+    write(channel(stateFile(segment)), buffer, DEADLINE_SIZE);
+  }
+
+  private static void writeSlot(ByteBuffer buffer, Slot slot) {
+    buffer.putLong(slot.offset)
+        .putInt(slot.length)
+        .putInt(slot.attempts)
+        .putLong(slot.visibleFrom)
+        .put((byte) ((slot.deleted ? DELETED : 0) | (slot.reference ? REFERENCE : 0)))
+        .putInt(slot.generation);
+  }
+
+  private void readCursor() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(CURSOR_SIZE);
+    read(cursorChannel, buffer, 0);
+    buffer.flip();
+    head = buffer.getLong();
+    next = buffer.getLong();
+    tail = buffer.getLong();
+    redeliveryCheckAt = buffer.getLong();
+    storedCursor = (ByteBuffer) buffer.flip();
+  }
+
+  /**
+   * Writes the cursor only if it changed, so that operations which change nothing do not wake up waiting consumers.
+   */
+  private void writeCursor() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(CURSOR_SIZE);
+    buffer.putLong(head).putLong(next).putLong(tail).putLong(redeliveryCheckAt);
+    buffer.flip();
+    if (!buffer.equals(storedCursor)) {
+      write(cursorChannel, buffer, 0);
+      storedCursor = (ByteBuffer) buffer.flip();
+      dirty = true;
+    }
+  }
+
+  /**
+   * Picks up the changes of other instances and processes, to be called first whenever the queue lock is taken. Files
+   * of segments deleted by others meanwhile are closed.
+   */
+  void refresh() throws IOException {
+    readCursor();
+    dirty = false;
+    Iterator<Map.Entry<Path, FileChannel>> openFiles = channels.entrySet().iterator();
+    while (openFiles.hasNext()) {
+      Map.Entry<Path, FileChannel> openFile = openFiles.next();
+      if (segmentOf(openFile.getKey()) < segmentOf(head)) {
+        openFile.getValue().close();
+        openFiles.remove();
+      }
+    }
+  }
+
+  /**
+   * Writes the cursor, to be called last before the queue lock is released.
+   * @return whether this store wrote anything since the last commit
+   */
+  boolean commit() throws IOException {
+    writeCursor();
+    boolean written = dirty;
+    dirty = false;
+    return written;
+  }
+
+  /**
+   * Forces everything written through this store to disk.
+   */
+  void force() throws IOException {
+    for (FileChannel channel : channels.values()) {
+      channel.force(false);
+    }
+    cursorChannel.force(false);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      commit();
+    } finally {
+      for (FileChannel channel : channels.values()) {
+        channel.close();
+      }
+      cursorChannel.close();
+    }
+  }
+
+  private FileChannel channel(Path file) throws IOException {
+    FileChannel channel = channels.get(file);
+    if (channel == null) {
+      channel = FileChannel.open(file, CREATE, READ, WRITE);
+      channels.put(file, channel);
+    }
+    return channel;
+  }
+
+  /**
+   * The data file of a segment as first written, or as rewritten by the given number of compactions.
+   */
+  private Path dataFile(long segment, int generation) {
+    if (generation == 0) {
+      return directory.resolve(String.format("%019d%s", segment, DATA_SUFFIX));
+    }
+    return directory.resolve(String.format("%019d.%d%s", segment, generation, DATA_SUFFIX));
+  }
+
+  private Path stateFile(long segment) {
+    return directory.resolve(String.format("%019d%s", segment, STATE_SUFFIX));
+  }
+
+  /**
+   * The cursor is the last file written by every operation that changes the queue, pushes included.
+   */
+  static boolean isCursorFile(Path file) {
+    return file.getFileName().toString().equals(CURSOR_FILE);
+  }
+
+  /**
+   * @return the sequence number encoded in a receipt handle, or -1 if it is not one of ours
+   */
+  static long sequenceOf(String receiptHandle) {
+    String[] parts = receiptHandle.split(":");
+    if (parts.length != 2) {
+      return -1;
+    }
+    try {
+      Integer.parseInt(parts[1]);
+      return Long.parseLong(parts[0]);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return the attempt encoded in a receipt handle accepted by {@link #sequenceOf}
+   */
+  static int attemptsOf(String receiptHandle) {
+    return Integer.parseInt(receiptHandle.substring(receiptHandle.indexOf(':') + 1));
+  }
+
+  private static long segmentOf(Path file) {
+    String fileName = file.getFileName().toString();
+    return Long.parseLong(fileName.substring(0, fileName.indexOf('.')));
+  }
+
+  private static long segmentOf(long sequence) {
+    return sequence / MESSAGES_PER_SEGMENT;
+  }
+
+  private static long slotPosition(long sequence) {
+    return DEADLINE_SIZE + (sequence % MESSAGES_PER_SEGMENT) * SLOT_SIZE;
+  }
+
+  /**
+   * Reads until the buffer is full or the end of file is reached, leaving the rest of the buffer zeroed.
+   */
+  static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        break;
+      }
+    }
+    buffer.position(buffer.limit());
+  }
+
+  static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  private static final class Slot {
+
+    private final long offset;
+    private final int length;
+    private final int attempts;
+    private final long visibleFrom;
+    private final boolean deleted;
+    private final boolean reference;
+    private final int generation;
+
+    private Slot(long offset, int length, int attempts, long visibleFrom, boolean deleted, boolean reference,
+                 int generation) {
+      this.offset = offset;
+      this.length = length;
+      this.attempts = attempts;
+      this.visibleFrom = visibleFrom;
+      this.deleted = deleted;
+      this.reference = reference;
+      this.generation = generation;
+    }
+
+    private Slot delivered(long visibleFrom) {
+      return new Slot(offset, length, attempts + 1, visibleFrom, false, reference, generation);
+    }
+
+    private Slot deleted() {
+      return new Slot(offset, length, attempts, visibleFrom, true, reference, generation);
+    }
+
+    private Slot visibleFrom(long visibleFrom) {
+      return new Slot(offset, length, attempts, visibleFrom, false, reference, generation);
+    }
+
+    private Slot movedTo(long offset, int generation) {
+      return new Slot(offset, length, attempts, visibleFrom, deleted, reference, generation);
+    }
+
+    /**
+     * Whether the given attempt is the current delivery of the message and has not timed out.
+     */
+    private boolean isDelivery(int attempts, long now) {
+      return !deleted && this.attempts == attempts && visibleFrom > now;
+    }
+  }
+
+  /**
+   * The compaction of one segment, planned with the queue lock held and copied without it.
+   */
+  static final class Compaction {
+
+    private final long segment;
+    private final int generation;
+    private final Path source;
+    private final Path copy;
+    private final Slot[] slots;
+    private final long[] offsets = new long[MESSAGES_PER_SEGMENT];
+
+    private Compaction(long segment, int generation, Path source, Path copy, Slot[] slots) {
+      this.segment = segment;
+      this.generation = generation;
+      this.source = source;
+      this.copy = copy;
+      this.slots = slots;
+    }
+
+    /**
+     * Copies the records that were live when planned, taking a permit of the rate limiter per byte. The data file
+     * of a full segment is not written to otherwise, so no lock is needed.
+     */
+    void copy(RateLimiter rateLimiter) throws IOException {
+      try (FileChannel in = FileChannel.open(source, READ);
+           FileChannel out = FileChannel.open(copy, CREATE, TRUNCATE_EXISTING, WRITE)) {
+        long position = 0;
+        for (int i = 0; i < slots.length; i++) {
+          Slot slot = slots[i];
+          if (slot.deleted || slot.length == 0) {
+            continue;
+          }
+          rateLimiter.acquire(slot.length);
+          long copied = 0;
+          while (copied < slot.length) {
+            copied += in.transferTo(slot.offset + copied, slot.length - copied, out);
+          }
+          offsets[i] = position;
+          position += slot.length;
+        }
+        out.force(true);
+      } catch (IOException e) {
+        Files.deleteIfExists(copy);
+        throw e;
+      }
+    }
+
+  }
+
+}
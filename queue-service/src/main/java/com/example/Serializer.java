@@ -0,0 +1,93 @@
+package com.example;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Converts message bodies to the bytes stored by the file based backends and to the text sent to SQS.
+ */
+public interface Serializer<T> {
+
+  byte[] serialize(T body);
+
+  T deserialize(byte[] bytes);
+
+  /**
+   * The body as text, for backends whose messages are text; Base64 unless the serializer produces text itself.
+   */
+  default String toText(T body) {
+    return Base64.getEncoder().encodeToString(serialize(body));
+  }
+
+  default T fromText(String text) {
+    return deserialize(Base64.getDecoder().decode(text));
+  }
+
+  static <T> Serializer<T> of(Function<T, byte[]> serialize, Function<byte[], T> deserialize) {
+    return new Serializer<T>() {
+      @Override
+      public byte[] serialize(T body) {
+        return serialize.apply(body);
+      }
+
+      @Override
+      public T deserialize(byte[] bytes) {
+        return deserialize.apply(bytes);
+      }
+    };
+  }
+
+  /**
+   * Strings as UTF-8, and as themselves where text is needed.
+   */
+  static Serializer<String> utf8() {
+    return new Serializer<String>() {
+      @Override
+      public byte[] serialize(String body) {
+        return body.getBytes(UTF_8);
+      }
+
+      @Override
+      public String deserialize(byte[] bytes) {
+        return new String(bytes, UTF_8);
+      }
+
+      @Override
+      public String toText(String body) {
+        return body;
+      }
+
+      @Override
+      public String fromText(String text) {
+        return text;
+      }
+    };
+  }
+
+  /**
+   * Raw bytes, stored as they are without a copy; the array must not be changed once pushed.
+   */
+  static Serializer<byte[]> bytes() {
+    return of(Function.identity(), Function.identity());
+  }
+
+  /**
+   * The remaining bytes of a buffer, without changing its position; a buffer backed by an array of exactly those bytes
+   * is stored without a copy.
+   */
+  static Serializer<ByteBuffer> byteBuffer() {
+    return of(buffer -> {
+      if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+          && buffer.remaining() == buffer.array().length) {
+        return buffer.array();
+      }
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return bytes;
+    }, ByteBuffer::wrap);
+  }
+
+}
@@ -0,0 +1,208 @@
+package com.example;
+
+import java.time.Clock;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A single queue of {@link InMemoryQueueService}, spread over one or more {@link InMemoryQueue} shards so that threads
+ * working on the same queue do not all contend for the lock of one delay queue.
+ *
+ * A thread pushes to the shard its id maps to, so the messages of one producer stay in FIFO order, and pulls from that
+ * shard first, stealing from the others in turn while it has nothing visible. Order across producers is best effort.
+ * Receipt handles carry the prefix of the shard that issued them, so delete and changeVisibility go straight to it.
+ *
+ * The queue counts its messages and their bytes, from push to delete, so that the service can keep it within its
+ * limits.
+ *
+ * A long poll waits for a push or for the earliest invisible message to time out. Waiters announce themselves, and
+ * only while there are any does a push take the shared lock to wake them up.
+ */
+final class ShardedInMemoryQueue<T> {
+
+  private final InMemoryQueue<T>[] shards;
+  private final AtomicLong size = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final Lock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private long version;
+
+  ShardedInMemoryQueue(int shardCount, Clock clock) {
+    this(shardCount, clock, null);
+  }
+
+  /**
+   * @param journal shared by all shards, or null if the queue is not persistent
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  ShardedInMemoryQueue(int shardCount, Clock clock, InMemoryQueue.Journal<T> journal) {
+    shards = new InMemoryQueue[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new InMemoryQueue<>(clock, journal, i);
+    }
+  }
+
+  void push(Message<T> message) {
+    shards[homeShard()].push(message);
+    signal();
+  }
+
+  /**
+   * Spreads recovered messages over the shards by receipt handle, which no shard issued.
+   */
+  void restore(Message<T> message) {
+    shards[Math.floorMod(message.getReceiptHandle().hashCode(), shards.length)].restore(message);
+  }
+
+  Optional<Message<T>> pull(long visibilityTimeout) {
+    int homeShard = homeShard();
+    for (int i = 0; i < shards.length; i++) {
+      Optional<Message<T>> message = shards[(homeShard + i) % shards.length].pull(visibilityTimeout);
+      if (message.isPresent()) {
+        return message;
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Looks at all shards and, while they are empty, waits for a push or for the earliest invisible message to time out.
+   */
+  Optional<Message<T>> pull(long timeoutNanos, long visibilityTimeout) throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    waiters.incrementAndGet();
+    try {
+      while (true) {
+        long seenVersion = version();
+        Optional<Message<T>> message = pull(visibilityTimeout);
+        long remainingNanos = deadline - System.nanoTime();
+        if (message.isPresent() || remainingNanos <= 0) {
+          return message;
+        }
+        await(seenVersion, Math.min(remainingNanos, nextVisibleNanos()));
+      }
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return the deleted message, or null if the receipt handle is not that of a message in flight
+   */
+  Message<T> delete(String receiptHandle) {
+    InMemoryQueue<T> shard = shardOf(receiptHandle);
+    return shard == null ? null : shard.delete(receiptHandle);
+  }
+
+  /**
+   * Deletes a message in flight and pushes another onto a queue in its stead, see {@link InMemoryQueue#moveTo}.
+   * @return the deleted message, or null if the receipt handle is not that of a message in flight
+   */
+  Message<T> moveTo(String receiptHandle, ShardedInMemoryQueue<T> target, Message<T> message) {
+    InMemoryQueue<T> shard = shardOf(receiptHandle);
+    return shard == null ? null : shard.moveTo(receiptHandle, () -> target.push(message));
+  }
+
+  /**
+   * Deletes the oldest visible message of the home shard, or else of the first other shard with one.
+   * @return the dropped message, or null if no message is visible
+   */
+  Message<T> dropOldest() {
+    int homeShard = homeShard();
+    for (int i = 0; i < shards.length; i++) {
+      Message<T> dropped = shards[(homeShard + i) % shards.length].dropOldest();
+      if (dropped != null) {
+        return dropped;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Counts messages in if the queue stays within the given limits with them.
+   */
+  boolean tryReserve(int messages, long messageBytes, long maxMessages, long maxBytes) {
+    if (size.addAndGet(messages) > maxMessages) {
+      size.addAndGet(-messages);
+      return false;
+    }
+    if (bytes.addAndGet(messageBytes) > maxBytes) {
+      bytes.addAndGet(-messageBytes);
+      size.addAndGet(-messages);
+      return false;
+    }
+    return true;
+  }
+
+  void release(int messages, long messageBytes) {
+    size.addAndGet(-messages);
+    bytes.addAndGet(-messageBytes);
+  }
+
+  void changeVisibility(String receiptHandle, long visibleFrom) {
+    InMemoryQueue<T> shard = shardOf(receiptHandle);
+    if (shard != null) {
+      shard.changeVisibility(receiptHandle, visibleFrom);
+      signal();
+    }
+  }
+
+  private int homeShard() {
+    return (int) (Thread.currentThread().getId() % shards.length);
+  }
+
+  private InMemoryQueue<T> shardOf(String receiptHandle) {
+    int index = InMemoryQueue.shardOf(receiptHandle);
+    if (index < 0 || index >= shards.length || !shards[index].issued(receiptHandle)) {
+      return null;
+    }
+    return shards[index];
+  }
+
+  private long nextVisibleNanos() {
+    long nextVisibleNanos = Long.MAX_VALUE;
+    for (InMemoryQueue<T> shard : shards) {
+      nextVisibleNanos = Math.min(nextVisibleNanos, shard.nextVisibleNanos());
+    }
+    return nextVisibleNanos;
+  }
+
+  private void signal() {
+    if (waiters.get() == 0) {
+      return;
+    }
+    lock.lock();
+    try {
+      version++;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long version() {
+    lock.lock();
+    try {
+      return version;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void await(long seenVersion, long timeoutNanos) throws InterruptedException {
+    lock.lock();
+    try {
+      if (version == seenVersion && timeoutNanos > 0) {
+        changed.awaitNanos(timeoutNanos);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+package com.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The bodies published to topics of an {@link InMemoryQueueService}, each held by the messages of several
+ * subscriptions, and how many messages still hold them, so that a body counts once against the {@link MemoryBudget}.
+ *
+ * Bodies are told apart by identity: equal bodies published separately are separate bodies, while a published body
+ * pushed to another queue as well is held by that message too.
+ */
+final class SharedBodies {
+
+  private final Map<Identity, Integer> holders = new ConcurrentHashMap<>();
+
+  /**
+   * Adds holders to a body.
+   * @return whether the body was held already, and so counts already
+   */
+  boolean share(Object body, int count) {
+    boolean[] held = new boolean[1];
+    holders.compute(new Identity(body), (identity, holding) -> {
+      held[0] = holding != null;
+      return holding == null ? count : holding + count;
+    });
+    return held[0];
+  }
+
+  /**
+   * Adds a holder to a body if it is shared.
+   * @return whether it was, and so counts already
+   */
+  boolean join(Object body) {
+    return !holders.isEmpty() && holders.computeIfPresent(new Identity(body), (identity, holding) -> holding + 1) != null;
+  }
+
+  /**
+   * Removes a holder from a body.
+   * @return whether nothing holds the body any more, always so for bodies that are not shared
+   */
+  boolean release(Object body) {
+    if (holders.isEmpty()) {
+      return true;
+    }
+    boolean[] held = new boolean[1];
+    holders.computeIfPresent(new Identity(body), (identity, holding) -> {
+      held[0] = holding > 1;
+      return holding > 1 ? holding - 1 : null;
+    });
+    return !held[0];
+  }
+
+  private static final class Identity {
+
+    private final Object body;
+
+    private Identity(Object body) {
+      this.body = body;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Identity && ((Identity) o).body == body;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(body);
+    }
+  }
+
+}
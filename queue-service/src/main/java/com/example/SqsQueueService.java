@@ -0,0 +1,449 @@
+package com.example;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.MessageNotInflightException;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiptHandleIsInvalidException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.collect.Lists.partition;
+import static java.lang.Boolean.TRUE;
+import static java.lang.Integer.parseInt;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static java.util.stream.IntStream.range;
+
+/**
+ * Adapter for Amazon SQS.
+ *
+ * Queue URLs are resolved once per queue with an idempotent createQueue call and cached; an operation that finds its
+ * queue gone evicts the cached URL and is retried once against a freshly created queue.
+ *
+ * Message bodies are text in SQS, so they are converted with {@link Serializer#toText}.
+ *
+ * The asynchronous operations need an {@link AmazonSQSAsync} client and complete from its callbacks.
+ */
+public class SqsQueueService<T> implements QueueService<T>, AsyncQueueService<T> {
+
+  static final String APPROXIMATE_RECEIVE_COUNT = "ApproximateReceiveCount";
+  static final String VISIBILITY_TIMEOUT = "VisibilityTimeout";
+  static final String REDRIVE_POLICY = "RedrivePolicy";
+  static final String QUEUE_ARN = "QueueArn";
+  static final String CONTENT_ENCODING = "Content-Encoding";
+  static final String DEFLATE = "deflate";
+  static final int MAX_BATCH_SIZE = 10;
+  static final int MAX_BATCH_ATTEMPTS = 3;
+  static final int MAX_WAIT_SECONDS = 20;
+
+  private static final long MAX_UTF_8_BYTES_PER_CHAR = 3;
+
+  private final AmazonSQS sqsClient;
+  private final AmazonSQSAsync sqsAsyncClient;
+  private final Serializer<T> serializer;
+  private final ReceiveMessageRequest receiveTemplate;
+  private final Map<String, String> queueUrls = new ConcurrentHashMap<>();
+  private final Map<String, QueueConfig> configs = new ConcurrentHashMap<>();
+
+  public SqsQueueService(AmazonSQS sqsClient, Serializer<T> serializer) {
+    this(sqsClient, serializer, new ReceiveMessageRequest());
+  }
+
+  /**
+   * @param receiveTemplate settings applied to every receive, such as the visibility timeout or further attributes;
+   *                        the queue URL, batch size and wait time are set per call
+   */
+  public SqsQueueService(AmazonSQS sqsClient, Serializer<T> serializer, ReceiveMessageRequest receiveTemplate) {
+    this.sqsClient = sqsClient;
+    this.serializer = serializer;
+    this.sqsAsyncClient = sqsClient instanceof AmazonSQSAsync ? (AmazonSQSAsync) sqsClient : null;
+    this.receiveTemplate = receiveTemplate;
+  }
+
+  /**
+   * Sets the VisibilityTimeout attribute of the queue, in whole seconds, and its RedrivePolicy. Compression is applied
+   * by this service, so every producer sets it up on its own; consumers decompress whatever they receive.
+   *
+   * Messages are moved to the dead-letter queue by SQS itself, which makes no promise that the move is atomic: like
+   * any other delivery of SQS, a message is moved at least once, and may be seen in both queues or in the dead-letter
+   * queue twice.
+   */
+  @Override
+  public void configure(String queueName, QueueConfig config) {
+    configs.put(queueName, config);
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put(VISIBILITY_TIMEOUT, String.valueOf(config.getVisibilityTimeout().getSeconds()));
+    if (config.getDeadLetterQueue() != null) {
+      String deadLetterQueueArn = withQueueUrl(config.getDeadLetterQueue(), queueUrl ->
+          sqsClient.getQueueAttributes(queueUrl, singletonList(QUEUE_ARN)).getAttributes().get(QUEUE_ARN));
+      attributes.put(REDRIVE_POLICY, String.format("{\"maxReceiveCount\":\"%d\",\"deadLetterTargetArn\":\"%s\"}",
+          config.getMaxReceives(), deadLetterQueueArn));
+    }
+    withQueueUrl(queueName, queueUrl -> {
+      sqsClient.setQueueAttributes(queueUrl, attributes);
+      return null;
+    });
+  }
+
+  @Override
+  public void push(String queueName, T messageBody) {
+    SendMessageRequest request = sendRequest(queueName, messageBody);
+    withQueueUrl(queueName, queueUrl -> sqsClient.sendMessage(request.withQueueUrl(queueUrl)));
+  }
+
+  /**
+   * Sends batches of {@value #MAX_BATCH_SIZE}, see {@link #sendInBatches}.
+   */
+  @Override
+  public void pushBatch(String queueName, List<T> messageBodies) {
+    List<SendMessageBatchRequestEntry> entries = range(0, messageBodies.size())
+        .mapToObj(i -> {
+          SendMessageRequest request = sendRequest(queueName, messageBodies.get(i));
+          return new SendMessageBatchRequestEntry(String.valueOf(i), request.getMessageBody())
+              .withMessageAttributes(request.getMessageAttributes());
+        })
+        .collect(toList());
+    sendInBatches(queueName, entries, SendMessageBatchRequestEntry::getId,
+        (queueUrl, batch) -> sqsClient.sendMessageBatch(queueUrl, batch).getFailed());
+  }
+
+  /**
+   * Bodies from the compression threshold of the queue on are sent deflated and in Base64, marked by a
+   * {@value #CONTENT_ENCODING} message attribute, if that makes them smaller.
+   */
+  private SendMessageRequest sendRequest(String queueName, T messageBody) {
+    String text = serializer.toText(messageBody);
+    SendMessageRequest request = new SendMessageRequest().withMessageBody(text);
+    int compressionThreshold = configs.getOrDefault(queueName, QueueConfig.DEFAULT).getCompressionThreshold();
+    if (text.length() * MAX_UTF_8_BYTES_PER_CHAR < compressionThreshold) {
+      return request;
+    }
+    byte[] bytes = text.getBytes(UTF_8);
+    byte[] compressed = bytes.length >= compressionThreshold ? Compression.compress(bytes) : null;
+    if (compressed == null || (compressed.length + 2) / 3 * 4 >= bytes.length) {
+      return request;
+    }
+    return request.withMessageBody(Base64.getEncoder().encodeToString(compressed))
+        .addMessageAttributesEntry(CONTENT_ENCODING,
+            new MessageAttributeValue().withDataType("String").withStringValue(DEFLATE));
+  }
+
+  @Override
+  public Optional<Message<T>> pull(String queueName) {
+    return receive(queueName, 1, null, null).stream().findFirst();
+  }
+
+  /**
+   * Long polls with WaitTimeSeconds, which SQS limits to {@value #MAX_WAIT_SECONDS} seconds.
+   */
+  @Override
+  public Optional<Message<T>> pull(String queueName, Duration maxWait) {
+    int waitTimeSeconds = (int) Math.min(maxWait.getSeconds(), MAX_WAIT_SECONDS);
+    return receive(queueName, 1, waitTimeSeconds, null).stream().findFirst();
+  }
+
+  /**
+   * SQS returns at most {@value #MAX_BATCH_SIZE} messages per receive, so larger requests are capped.
+   */
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages) {
+    return receive(queueName, Math.min(maxMessages, MAX_BATCH_SIZE), null, null);
+  }
+
+  /**
+   * SQS counts the visibility timeout in whole seconds, so the given one is rounded up.
+   */
+  @Override
+  public List<Message<T>> pull(String queueName, int maxMessages, Duration visibilityTimeout) {
+    int visibilityTimeoutSeconds = secondsOf(visibilityTimeout);
+    return receive(queueName, Math.min(maxMessages, MAX_BATCH_SIZE), null, visibilityTimeoutSeconds);
+  }
+
+  private List<Message<T>> receive(String queueName, int maxMessages, Integer waitTimeSeconds,
+                                        Integer visibilityTimeoutSeconds) {
+    return withQueueUrl(queueName, queueUrl -> sqsClient.receiveMessage(
+        receiveRequest(queueUrl, maxMessages, waitTimeSeconds, visibilityTimeoutSeconds))
+        .getMessages()
+        .stream()
+        .map(this::sqsMessageToMessage)
+        .collect(toList()));
+  }
+
+  ReceiveMessageRequest receiveRequest(String queueUrl, int maxMessages, Integer waitTimeSeconds,
+                                       Integer visibilityTimeoutSeconds) {
+    ReceiveMessageRequest request = receiveTemplate.clone()
+        .withQueueUrl(queueUrl)
+        .withMaxNumberOfMessages(maxMessages);
+    if (waitTimeSeconds != null) {
+      request.setWaitTimeSeconds(waitTimeSeconds);
+    }
+    if (visibilityTimeoutSeconds != null) {
+      request.setVisibilityTimeout(visibilityTimeoutSeconds);
+    }
+    if (!request.getAttributeNames().contains(APPROXIMATE_RECEIVE_COUNT)) {
+      request.withAttributeNames(APPROXIMATE_RECEIVE_COUNT);
+    }
+    if (!request.getMessageAttributeNames().contains(CONTENT_ENCODING)) {
+      request.withMessageAttributeNames(CONTENT_ENCODING);
+    }
+    return request;
+  }
+
+  private Message<T> sqsMessageToMessage(com.amazonaws.services.sqs.model.Message sqsMessage) {
+    return Message.<T>builder()
+        .receiptHandle(sqsMessage.getReceiptHandle())
+        .body(serializer.fromText(bodyOf(sqsMessage)))
+        .attempts(parseInt(sqsMessage.getAttributes().getOrDefault(APPROXIMATE_RECEIVE_COUNT, "1")))
+        .build();
+  }
+
+  private String bodyOf(com.amazonaws.services.sqs.model.Message sqsMessage) {
+    Map<String, MessageAttributeValue> attributes = sqsMessage.getMessageAttributes();
+    MessageAttributeValue contentEncoding = attributes == null ? null : attributes.get(CONTENT_ENCODING);
+    if (contentEncoding == null || !DEFLATE.equals(contentEncoding.getStringValue())) {
+      return sqsMessage.getBody();
+    }
+    byte[] compressed = Base64.getDecoder().decode(sqsMessage.getBody());
+    return new String(Compression.decompress(compressed, 0, compressed.length), UTF_8);
+  }
+
+  @Override
+  public void delete(String queueName, String receiptHandle) {
+    withQueueUrl(queueName, queueUrl -> {
+      sqsClient.deleteMessage(queueUrl, receiptHandle);
+      return null;
+    });
+  }
+
+  /**
+   * Maps to ChangeMessageVisibility, in whole seconds rounded up, so that a timeout under a second does not make the
+   * message visible at once. Like the other queues, ignores receipt handles that are invalid or whose message is no
+   * longer in flight.
+   */
+  @Override
+  public void changeVisibility(String queueName, String receiptHandle, Duration visibilityTimeout) {
+    int visibilityTimeoutSeconds = secondsOf(visibilityTimeout);
+    withQueueUrl(queueName, queueUrl -> {
+      try {
+        sqsClient.changeMessageVisibility(queueUrl, receiptHandle, visibilityTimeoutSeconds);
+      } catch (ReceiptHandleIsInvalidException | MessageNotInflightException e) {
+        // the message was deleted or delivered again meanwhile
+      }
+      return null;
+    });
+  }
+
+  private static int secondsOf(Duration visibilityTimeout) {
+    return (int) MILLISECONDS.toSeconds(visibilityTimeout.toMillis() + 999);
+  }
+
+  /**
+   * Deletes in batches of {@value #MAX_BATCH_SIZE}, see {@link #sendInBatches}.
+   */
+  @Override
+  public void deleteBatch(String queueName, List<String> receiptHandles) {
+    List<DeleteMessageBatchRequestEntry> entries = range(0, receiptHandles.size())
+        .mapToObj(i -> new DeleteMessageBatchRequestEntry(String.valueOf(i), receiptHandles.get(i)))
+        .collect(toList());
+    sendInBatches(queueName, entries, DeleteMessageBatchRequestEntry::getId,
+        (queueUrl, batch) -> sqsClient.deleteMessageBatch(queueUrl, batch).getFailed());
+  }
+
+  /**
+   * Sends entries, whose ids are their indexes in the whole batch, in requests of {@value #MAX_BATCH_SIZE}. Entries
+   * SQS failed on its side are sent again, up to {@value #MAX_BATCH_ATTEMPTS} times in all; if some still fail, or
+   * were refused as faulty, the remaining requests are not sent and the ids of the failed entries are thrown. A request
+   * that finds the queue gone is retried on its own, so that the requests sent before it are not sent twice.
+   * @param send sends a request and returns its failed entries
+   */
+  private <E> void sendInBatches(String queueName, List<E> entries, Function<E, String> idOf,
+                                 BiFunction<String, List<E>, List<BatchResultErrorEntry>> send) {
+    for (List<E> batch : partition(entries, MAX_BATCH_SIZE)) {
+      List<E> pending = batch;
+      for (int attempt = 1; !pending.isEmpty(); attempt++) {
+        List<E> request = pending;
+        List<BatchResultErrorEntry> failed = withQueueUrl(queueName, queueUrl -> send.apply(queueUrl, request));
+        if (failed.isEmpty()) {
+          break;
+        }
+        if (attempt == MAX_BATCH_ATTEMPTS || failed.stream().anyMatch(entry -> TRUE.equals(entry.getSenderFault()))) {
+          throw new RuntimeException("Batch entries failed: " + failed.stream()
+              .map(entry -> entry.getId() + " (" + entry.getCode() + ")")
+              .collect(joining(", ")));
+        }
+        Set<String> failedIds = failed.stream().map(BatchResultErrorEntry::getId).collect(toSet());
+        pending = request.stream().filter(entry -> failedIds.contains(idOf.apply(entry))).collect(toList());
+      }
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> pushAsync(String queueName, T messageBody) {
+    if (isNullOrEmpty(queueName) || messageBody == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return withQueueUrlAsync(queueName, queueUrl -> this.<SendMessageRequest, SendMessageResult>call(handler ->
+        asyncClient().sendMessageAsync(sendRequest(queueName, messageBody).withQueueUrl(queueUrl), handler)))
+        .thenApply(result -> null);
+  }
+
+  @Override
+  public CompletableFuture<Optional<Message<T>>> pullAsync(String queueName) {
+    if (isNullOrEmpty(queueName)) {
+      throw new IllegalArgumentException();
+    }
+
+    return receiveAsync(queueName, 1, null).thenApply(messages -> messages.stream().findFirst());
+  }
+
+  @Override
+  public CompletableFuture<Optional<Message<T>>> pullAsync(String queueName, Duration maxWait) {
+    if (isNullOrEmpty(queueName) || maxWait == null || maxWait.isNegative()) {
+      throw new IllegalArgumentException();
+    }
+
+    int waitTimeSeconds = (int) Math.min(maxWait.getSeconds(), MAX_WAIT_SECONDS);
+    return receiveAsync(queueName, 1, waitTimeSeconds).thenApply(messages -> messages.stream().findFirst());
+  }
+
+  @Override
+  public CompletableFuture<List<Message<T>>> pullAsync(String queueName, int maxMessages) {
+    if (isNullOrEmpty(queueName) || maxMessages < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    return receiveAsync(queueName, Math.min(maxMessages, MAX_BATCH_SIZE), null);
+  }
+
+  private CompletableFuture<List<Message<T>>> receiveAsync(String queueName, int maxMessages,
+                                                                Integer waitTimeSeconds) {
+    return withQueueUrlAsync(queueName, queueUrl -> this.<ReceiveMessageRequest, ReceiveMessageResult>call(handler ->
+        asyncClient().receiveMessageAsync(receiveRequest(queueUrl, maxMessages, waitTimeSeconds, null), handler)))
+        .thenApply(result -> result.getMessages().stream().map(this::sqsMessageToMessage).collect(toList()));
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteAsync(String queueName, String receiptHandle) {
+    if (isNullOrEmpty(queueName) || isNullOrEmpty(receiptHandle)) {
+      throw new IllegalArgumentException();
+    }
+
+    return withQueueUrlAsync(queueName, queueUrl -> this.<DeleteMessageRequest, Void>call(handler ->
+        asyncClient().deleteMessageAsync(new DeleteMessageRequest(queueUrl, receiptHandle), handler)));
+  }
+
+  private AmazonSQSAsync asyncClient() {
+    if (sqsAsyncClient == null) {
+      throw new IllegalStateException("Asynchronous operations need an AmazonSQSAsync client");
+    }
+    return sqsAsyncClient;
+  }
+
+  private <R> CompletableFuture<R> withQueueUrlAsync(String queueName,
+                                                     Function<String, CompletableFuture<R>> operation) {
+    return toUrlAsync(queueName).thenCompose(queueUrl -> operation.apply(queueUrl)
+        .handle((result, error) -> {
+          if (error == null) {
+            return CompletableFuture.completedFuture(result);
+          }
+          if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+          }
+          if (error instanceof QueueDoesNotExistException) {
+            queueUrls.remove(queueName, queueUrl);
+            return toUrlAsync(queueName).thenCompose(operation);
+          }
+          CompletableFuture<R> failed = new CompletableFuture<>();
+          failed.completeExceptionally(error);
+          return failed;
+        })
+        .thenCompose(identity()));
+  }
+
+  private CompletableFuture<String> toUrlAsync(String queueName) {
+    String queueUrl = queueUrls.get(queueName);
+    if (queueUrl != null) {
+      return CompletableFuture.completedFuture(queueUrl);
+    }
+    return this.<CreateQueueRequest, CreateQueueResult>call(handler -> asyncClient().createQueueAsync(queueName, handler))
+        .thenApply(result -> {
+          String createdUrl = result.getQueueUrl();
+          String cachedUrl = queueUrls.putIfAbsent(queueName, createdUrl);
+          return cachedUrl != null ? cachedUrl : createdUrl;
+        });
+  }
+
+  /**
+   * Completes the returned future from the handler passed to an asynchronous client call.
+   */
+  private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> call(Consumer<AsyncHandler<Q, R>> call) {
+    CompletableFuture<R> future = new CompletableFuture<>();
+    try {
+      call.accept(new AsyncHandler<Q, R>() {
+        @Override
+        public void onError(Exception exception) {
+          future.completeExceptionally(exception);
+        }
+
+        @Override
+        public void onSuccess(Q request, R result) {
+          future.complete(result);
+        }
+      });
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  private <R> R withQueueUrl(String queueName, Function<String, R> operation) {
+    String queueUrl = toUrl(queueName);
+    try {
+      return operation.apply(queueUrl);
+    } catch (QueueDoesNotExistException e) {
+      queueUrls.remove(queueName, queueUrl);
+      return operation.apply(toUrl(queueName));
+    }
+  }
+
+  private String toUrl(String queueName) {
+    String queueUrl = queueUrls.get(queueName);
+    if (queueUrl == null) {
+      queueUrl = queueUrls.computeIfAbsent(queueName, name -> sqsClient.createQueue(name).getQueueUrl());
+    }
+    return queueUrl;
+  }
+}
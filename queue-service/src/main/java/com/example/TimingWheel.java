@@ -0,0 +1,188 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hierarchical timing wheel of entries due at a time in milliseconds, holding the invisible messages of an
+ * {@link InMemoryQueue}.
+ *
+ * Each of the {@value #LEVELS} levels has {@value #SLOTS} slots, a slot of one level spanning a whole turn of the
+ * level below. An entry is added in constant time to the lowest level whose current turn contains its deadline, and
+ * moves down a level whenever the wheel reaches its slot, until it expires from the lowest one. Occupied slots are
+ * kept in a bitmap per level, so advancing jumps over empty slots instead of visiting every millisecond. Deadlines
+ * beyond the turn of the top level, some twelve days, wait in an overflow list until that turn comes.
+ *
+ * Not thread-safe.
+ */
+final class TimingWheel<E> {
+
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int LEVELS = 5;
+
+  private final ToLongFunction<? super E> deadline;
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final List<E>[][] slots = new List[LEVELS][SLOTS];
+  private final long[] occupied = new long[LEVELS];
+  private final List<E> overflow = new ArrayList<>();
+  private long current;
+  private int size;
+
+  /**
+   * @param start the time the wheel starts at; entries due by then are not taken
+   */
+  TimingWheel(long start, ToLongFunction<? super E> deadline) {
+    this.current = start;
+    this.deadline = deadline;
+  }
+
+  /**
+   * The time up to which the wheel has advanced.
+   */
+  long current() {
+    return current;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return false, taking nothing, if the entry is due by the current time
+   */
+  boolean add(E entry) {
+    long due = deadline.applyAsLong(entry);
+    if (due <= current) {
+      return false;
+    }
+    size++;
+    place(entry, due);
+    return true;
+  }
+
+  /**
+   * Advances the wheel to the given time, passing the entries due by then to expired in order of their deadline, to
+   * the millisecond, and of their adding within one.
+   */
+  void advance(long now, Consumer<? super E> expired) {
+    while (current < now) {
+      if (size == 0) {
+        current = now;
+        return;
+      }
+      long later = laterInTurn();
+      if (later != 0) {
+        long due = (current & ~(SLOTS - 1L)) + Long.numberOfTrailingZeros(later);
+        if (due > now) {
+          current = now;
+          return;
+        }
+        current = due;
+        expire(Long.numberOfTrailingZeros(later), expired);
+        continue;
+      }
+      long next = nextTurn();
+      if (next > now) {
+        current = now;
+        return;
+      }
+      current = next;
+      cascade(expired);
+    }
+  }
+
+  /**
+   * The earliest time advancing may expire an entry, or {@link Long#MAX_VALUE} if the wheel is empty.
+   */
+  long nextAdvance() {
+    if (size == 0) {
+      return Long.MAX_VALUE;
+    }
+    long later = laterInTurn();
+    return later != 0 ? (current & ~(SLOTS - 1L)) + Long.numberOfTrailingZeros(later) : nextTurn();
+  }
+
+  private void place(E entry, long due) {
+    for (int level = 0; level < LEVELS; level++) {
+      int turnShift = SLOT_BITS * (level + 1);
+      if (due >> turnShift == current >> turnShift) {
+        int slot = (int) (due >> (SLOT_BITS * level)) & (SLOTS - 1);
+        List<E> entries = slots[level][slot];
+        if (entries == null) {
+          entries = slots[level][slot] = new ArrayList<>();
+        }
+        entries.add(entry);
+        occupied[level] |= 1L << slot;
+        return;
+      }
+    }
+    overflow.add(entry);
+  }
+
+  /**
+   * The occupied slots of the lowest level after the current one.
+   */
+  private long laterInTurn() {
+    int slot = (int) current & (SLOTS - 1);
+    return slot == SLOTS - 1 ? 0 : occupied[0] & (-1L << (slot + 1));
+  }
+
+  /**
+   * The start of the next turn of the lowest level above the first that has entries, with nothing due before it.
+   */
+  private long nextTurn() {
+    int level = 1;
+    while (level < LEVELS && occupied[level] == 0) {
+      level++;
+    }
+    long span = 1L << (SLOT_BITS * level);
+    return (current | (span - 1)) + 1;
+  }
+
+  private void expire(int slot, Consumer<? super E> expired) {
+    List<E> entries = take(0, slot);
+    size -= entries.size();
+    entries.forEach(expired);
+  }
+
+  /**
+   * Moves the entries of the slots starting at the current time down, top level first, so that entries moved from a
+   * higher level go on down with the lower slots.
+   */
+  private void cascade(Consumer<? super E> expired) {
+    if ((current & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0 && !overflow.isEmpty()) {
+      List<E> entries = new ArrayList<>(overflow);
+      overflow.clear();
+      entries.forEach(entry -> reinsert(entry, expired));
+    }
+    for (int level = LEVELS - 1; level > 0; level--) {
+      if ((current & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+        int slot = (int) (current >> (SLOT_BITS * level)) & (SLOTS - 1);
+        if ((occupied[level] & (1L << slot)) != 0) {
+          take(level, slot).forEach(entry -> reinsert(entry, expired));
+        }
+      }
+    }
+  }
+
+  private void reinsert(E entry, Consumer<? super E> expired) {
+    long due = deadline.applyAsLong(entry);
+    if (due <= current) {
+      size--;
+      expired.accept(entry);
+    } else {
+      place(entry, due);
+    }
+  }
+
+  private List<E> take(int level, int slot) {
+    List<E> entries = slots[level][slot];
+    slots[level][slot] = null;
+    occupied[level] &= ~(1L << slot);
+    return entries;
+  }
+
+}
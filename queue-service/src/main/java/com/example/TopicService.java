@@ -0,0 +1,36 @@
+package com.example;
+
+import java.util.List;
+
+/**
+ * Topics that fan every published message out to all their subscriptions.
+ *
+ * A subscription is an ordinary queue of the same service: consumers pull, delete and change the visibility of its
+ * messages through {@link QueueService} as with any other queue, independently of the other subscriptions. The body of
+ * a published message is stored once, however many subscriptions it reaches.
+ */
+public interface TopicService<T> {
+
+  /**
+   * Subscribes a queue to a topic, so that it receives every message published from now on. Subscribing again does
+   * nothing; subscriptions cannot be cancelled.
+   * @param topicName the name of the topic
+   * @param queueName the name of the queue receiving the messages
+   */
+  void subscribe(String topicName, String queueName);
+
+  /**
+   * Publishes a message to every queue subscribed to a topic; it is dropped if there are none.
+   * @param topicName the name of the topic
+   * @param messageBody the message to publish
+   */
+  void publish(String topicName, T messageBody);
+
+  /**
+   * Publishes several messages to every queue subscribed to a topic in one operation.
+   * @param topicName the name of the topic
+   * @param messageBodies the messages to publish, in order
+   */
+  void publishBatch(String topicName, List<T> messageBodies);
+
+}
@@ -0,0 +1,306 @@
+package com.example;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Storage of the bodies published to a single topic of a {@link FileQueueService}, each written once however many
+ * queues are subscribed.
+ *
+ * Bodies are appended in the {@link RecordCodec} format to data files of {@value SegmentStore#MESSAGES_PER_SEGMENT}
+ * bodies each, numbered by sequence like the segments of a queue. A cursor file keeps the next free sequence number
+ * (tail) and the first segment whose data file is still there (head). Subscribed queues get reference records naming
+ * the topic, the sequence number and the place of the body instead of the body itself.
+ *
+ * A queue receives the references of a topic in order of sequence, so the first one it has not deleted is the oldest
+ * body it may still read. Whenever a data file fills up, the data files before the oldest body any subscription may
+ * still read are deleted.
+ *
+ * The subscribed queues are listed in a subscriptions file, one Base64 encoded name a line, which is only ever
+ * appended to.
+ *
+ * Not thread-safe: every operation must be made with the topic lock held, starting with {@link #refresh()} and ending
+ * with {@link #commit()}. References are read through a {@link Reader} with the lock of the queue holding them.
+ */
+final class TopicStore implements Closeable {
+
+  private static final int CURSOR_SIZE = 16;
+  private static final int ID_SIZE = 16;
+  private static final int REFERENCE_SIZE = 1 + ID_SIZE + 8 + 8 + 4;
+  private static final String CURSOR_FILE = "cursor";
+  private static final String SUBSCRIPTIONS_FILE = "subscriptions";
+  private static final BaseEncoding DIRECTORY_NAMES = BaseEncoding.base16().lowerCase();
+
+  private final Path directory;
+  private final byte[] id;
+  private final FileChannel cursorChannel;
+  private final FileChannel subscriptionsChannel;
+  private final List<String> subscriptions = new ArrayList<>();
+  private long subscriptionsRead;
+  private FileChannel data;
+  private long dataSegment = -1;
+
+  private long head;
+  private long tail;
+  private ByteBuffer storedCursor;
+  private boolean filledSegment;
+  private boolean dirty;
+
+  private TopicStore(Path directory) throws IOException {
+    this.directory = directory;
+    this.id = DIRECTORY_NAMES.decode(directory.getFileName().toString());
+    this.cursorChannel = FileChannel.open(directory.resolve(CURSOR_FILE), CREATE, READ, WRITE);
+    this.subscriptionsChannel = FileChannel.open(directory.resolve(SUBSCRIPTIONS_FILE), CREATE, READ, WRITE);
+    readCursor();
+  }
+
+  /**
+   * @param directory the directory of the topic, named by the hexadecimal {@value #ID_SIZE} byte id of the topic
+   */
+  static TopicStore open(Path directory) throws IOException {
+    return new TopicStore(directory);
+  }
+
+  /**
+   * The queues subscribed to the topic, in order of subscription.
+   */
+  List<String> subscriptions() throws IOException {
+    long size = subscriptionsChannel.size();
+    if (size > subscriptionsRead) {
+      ByteBuffer buffer = ByteBuffer.allocate((int) (size - subscriptionsRead));
+      SegmentStore.read(subscriptionsChannel, buffer, subscriptionsRead);
+      String lines = new String(buffer.array(), US_ASCII);
+      int end = lines.lastIndexOf('\n') + 1;
+      for (String line : lines.substring(0, end).split("\n")) {
+        if (!line.isEmpty()) {
+          subscriptions.add(new String(Base64.getDecoder().decode(line), UTF_8));
+        }
+      }
+      subscriptionsRead += end;
+    }
+    return subscriptions;
+  }
+
+  void subscribe(String queueName) throws IOException {
+    if (subscriptions().contains(queueName)) {
+      return;
+    }
+    byte[] line = (Base64.getEncoder().encodeToString(queueName.getBytes(UTF_8)) + "\n").getBytes(US_ASCII);
+    SegmentStore.write(subscriptionsChannel, ByteBuffer.wrap(line), subscriptionsRead);
+    subscriptionsRead += line.length;
+    subscriptions.add(queueName);
+    dirty = true;
+  }
+
+  /**
+   * Appends records holding bodies.
+   * @return the reference records that stand in for them in the subscribed queues
+   */
+  List<byte[]> append(List<byte[]> records) throws IOException {
+    long segment = segmentOf(tail);
+    List<byte[]> references = new ArrayList<>();
+    for (byte[] record : records) {
+      FileChannel channel = data(segmentOf(tail));
+      long offset = channel.size();
+      SegmentStore.write(channel, ByteBuffer.wrap(record), offset);
+      references.add(ByteBuffer.allocate(REFERENCE_SIZE)
+          .put(RecordCodec.REFERENCE)
+          .put(id)
+          .putLong(tail)
+          .putLong(offset)
+          .putInt(record.length)
+          .array());
+      tail++;
+      dirty = true;
+    }
+    filledSegment = segmentOf(tail) != segment;
+    return references;
+  }
+
+  /**
+   * Whether the last append filled up a data file, the time to reclaim those no longer read.
+   */
+  boolean filledSegment() {
+    return filledSegment;
+  }
+
+  /**
+   * Whether a record is a reference to a body of this topic.
+   */
+  boolean isReference(byte[] record) {
+    return RecordCodec.isReference(record) && record.length == REFERENCE_SIZE
+        && Arrays.equals(Arrays.copyOfRange(record, 1, 1 + ID_SIZE), id);
+  }
+
+  /**
+   * The next free sequence number, which no reference reaches.
+   */
+  long tail() {
+    return tail;
+  }
+
+  /**
+   * Deletes the data files of the bodies before the given one.
+   * @param oldest the sequence number of the oldest body any subscription may still read
+   */
+  void reclaim(long oldest) throws IOException {
+    for (; head < segmentOf(oldest); head++) {
+      if (dataSegment == head) {
+        data.close();
+        dataSegment = -1;
+      }
+      Files.deleteIfExists(dataFile(directory, head));
+    }
+  }
+
+  static long sequenceOf(byte[] reference) {
+    return ByteBuffer.wrap(reference, 1 + ID_SIZE, 8).getLong();
+  }
+
+  private FileChannel data(long segment) throws IOException {
+    if (segment != dataSegment) {
+      if (dataSegment >= 0) {
+        data.close();
+      }
+      data = FileChannel.open(dataFile(directory, segment), CREATE, READ, WRITE);
+      dataSegment = segment;
+    }
+    return data;
+  }
+
+  private void readCursor() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(CURSOR_SIZE);
+    SegmentStore.read(cursorChannel, buffer, 0);
+    buffer.flip();
+    head = buffer.getLong();
+    tail = buffer.getLong();
+    storedCursor = (ByteBuffer) buffer.flip();
+  }
+
+  /**
+   * Picks up the changes of other instances and processes, to be called first whenever the topic lock is taken.
+   */
+  void refresh() throws IOException {
+    readCursor();
+    filledSegment = false;
+    dirty = false;
+    if (dataSegment >= 0 && dataSegment < head) {
+      data.close();
+      dataSegment = -1;
+    }
+  }
+
+  /**
+   * Writes the cursor, to be called before the appended bodies are referenced and last before the topic lock is
+   * released.
+   * @return whether this store wrote anything since the last commit
+   */
+  boolean commit() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(CURSOR_SIZE);
+    buffer.putLong(head).putLong(tail);
+    buffer.flip();
+    if (!buffer.equals(storedCursor)) {
+      SegmentStore.write(cursorChannel, buffer, 0);
+      storedCursor = (ByteBuffer) buffer.flip();
+      dirty = true;
+    }
+    boolean written = dirty;
+    dirty = false;
+    return written;
+  }
+
+  /**
+   * Forces everything written through this store to disk.
+   */
+  void force() throws IOException {
+    if (dataSegment >= 0) {
+      data.force(false);
+    }
+    subscriptionsChannel.force(false);
+    cursorChannel.force(false);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      commit();
+    } finally {
+      if (dataSegment >= 0) {
+        data.close();
+      }
+      subscriptionsChannel.close();
+      cursorChannel.close();
+    }
+  }
+
+  private static Path dataFile(Path directory, long segment) {
+    return directory.resolve(String.format("%019d.log", segment));
+  }
+
+  private static long segmentOf(long sequence) {
+    return sequence / SegmentStore.MESSAGES_PER_SEGMENT;
+  }
+
+  /**
+   * Reads the bodies that reference records point to, keeping the data files open until closed. Safe without the
+   * topic lock, as the bodies of references a queue has not deleted are not reclaimed.
+   */
+  static final class Reader implements Closeable {
+
+    private final Path topicsDirectory;
+    private final Map<Path, FileChannel> channels = new HashMap<>();
+
+    /**
+     * @param topicsDirectory the directory holding the directories of the topics
+     */
+    Reader(Path topicsDirectory) {
+      this.topicsDirectory = topicsDirectory;
+    }
+
+    /**
+     * @return the record holding the body
+     */
+    byte[] read(byte[] reference) throws IOException {
+      ByteBuffer fields = ByteBuffer.wrap(reference, 1 + ID_SIZE, REFERENCE_SIZE - 1 - ID_SIZE);
+      long sequence = fields.getLong();
+      long offset = fields.getLong();
+      int length = fields.getInt();
+      String topic = DIRECTORY_NAMES.encode(reference, 1, ID_SIZE);
+      Path file = dataFile(topicsDirectory.resolve(topic), segmentOf(sequence));
+      FileChannel channel = channels.get(file);
+      if (channel == null) {
+        channel = FileChannel.open(file, READ);
+        channels.put(file, channel);
+      }
+      ByteBuffer record = ByteBuffer.allocate(length);
+      SegmentStore.read(channel, record, offset);
+      return record.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (FileChannel channel : channels.values()) {
+        channel.close();
+      }
+    }
+  }
+
+}
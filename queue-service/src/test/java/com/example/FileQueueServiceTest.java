@@ -0,0 +1,456 @@
+package com.example;
+
+import com.google.common.hash.Hashing;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.nCopies;
+import static java.util.Collections.singletonList;
+import static java.util.Comparator.reverseOrder;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FileQueueServiceTest extends QueueTestBase<FileQueueService<String>> {
+
+  private static final String queuesDirectory = randomUUID().toString();
+
+  @Override
+  protected FileQueueService<String> newQueueService() {
+    return new FileQueueService<>(queuesDirectory, clock, Serializer.utf8());
+  }
+
+  @Test
+  public void fullyDeletedSegmentsAreRemoved() throws IOException {
+    queueService.pushBatch(someQueue, nCopies(SegmentStore.MESSAGES_PER_SEGMENT + 1, someMessage));
+    List<String> receiptHandles = queueService.pull(someQueue, SegmentStore.MESSAGES_PER_SEGMENT).stream()
+        .map(Message::getReceiptHandle)
+        .collect(toList());
+
+    queueService.deleteBatch(someQueue, receiptHandles);
+
+    assertThat(segmentFiles(), is(2L));
+  }
+
+  @Test
+  public void receiptHandleOfEarlierDeliveryDoesNotDeleteMessage() {
+    queueService.push(someQueue, someMessage);
+    String staleReceiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+    setTimeTo(30_000L);
+    queueService.pull(someQueue);
+
+    queueService.delete(someQueue, staleReceiptHandle);
+    setTimeTo(60_000L);
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(true));
+  }
+
+  @Test
+  public void instancesSeeEachOthersChanges() throws IOException {
+    try (FileQueueService<String> otherInstance = newQueueService()) {
+      queueService.pushBatch(someQueue, asList(someMessage, someMessage));
+      String receiptHandle = otherInstance.pull(someQueue).get().getReceiptHandle();
+      queueService.pull(someQueue);
+
+      otherInstance.delete(someQueue, receiptHandle);
+      queueService.push(someQueue, someMessage);
+      setTimeTo(30_000L);
+
+      assertThat(otherInstance.pull(someQueue, 10).size(), is(2));
+    }
+  }
+
+  @Test
+  public void messageMadeVisibleByAnotherProcessInLaterSegmentIsRedelivered() throws IOException {
+    try (FileQueueService<String> otherProcess = newQueueService()) {
+      queueService.pushBatch(someQueue, nCopies(SegmentStore.MESSAGES_PER_SEGMENT + 1, someMessage));
+      List<Message<String>> messages = queueService.pull(someQueue, SegmentStore.MESSAGES_PER_SEGMENT + 1);
+      String lastReceiptHandle = messages.get(SegmentStore.MESSAGES_PER_SEGMENT).getReceiptHandle();
+      setTimeTo(1_000L);
+      assertThat(queueService.pull(someQueue).isPresent(), is(false));
+
+      otherProcess.changeVisibility(someQueue, lastReceiptHandle, Duration.ZERO);
+
+      List<Message<String>> redelivered = queueService.pull(someQueue, 10);
+      assertThat(redelivered.size(), is(1));
+      assertThat(SegmentStore.sequenceOf(redelivered.get(0).getReceiptHandle()),
+          is((long) SegmentStore.MESSAGES_PER_SEGMENT));
+    }
+  }
+
+  @Test
+  public void fsyncedQueueWorks() {
+    queueService.configure(someQueue, QueueConfig.builder().durability(Durability.FSYNC).build());
+
+    queueService.push(someQueue, someMessage);
+    queueService.delete(someQueue, queueService.pull(someQueue).get().getReceiptHandle());
+    setTimeTo(30_000L);
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+  }
+
+  @Test
+  public void concurrentPushesWithGroupCommitAllComplete() throws Exception {
+    queueService.configure(someQueue, QueueConfig.builder().durability(Durability.GROUP_COMMIT).build());
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> pushes = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        pushes.add(executor.submit(() -> queueService.push(someQueue, someMessage)));
+      }
+      for (Future<?> push : pushes) {
+        push.get(10, SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(queueService.pull(someQueue, 10).size(), is(8));
+  }
+
+  @Test
+  public void queuesThatAreEachOthersDeadLetterQueueMoveMessagesConcurrentlyWithoutLosingAny() throws Exception {
+    String otherQueue = someQueue + "-other";
+    queueService.configure(someQueue, QueueConfig.builder().deadLetterQueue(otherQueue, 1).build());
+    queueService.configure(otherQueue, QueueConfig.builder().deadLetterQueue(someQueue, 1).build());
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (int round = 1; round <= 10; round++) {
+        queueService.pushBatch(someQueue, nCopies(10, someMessage));
+        queueService.pushBatch(otherQueue, nCopies(10, someMessage));
+        queueService.pull(someQueue, 100);
+        queueService.pull(otherQueue, 100);
+        setTimeTo(round * 60_000L);
+
+        Future<?> pull = executor.submit(() -> queueService.pull(someQueue, 100));
+        Future<?> otherPull = executor.submit(() -> queueService.pull(otherQueue, 100));
+        pull.get(10, SECONDS);
+        otherPull.get(10, SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    queueService.configure(someQueue, QueueConfig.DEFAULT);
+    queueService.configure(otherQueue, QueueConfig.DEFAULT);
+    setTimeTo(3_600_000L);
+
+    assertThat(queueService.pull(someQueue, 1_000).size() + queueService.pull(otherQueue, 1_000).size(), is(200));
+  }
+
+  @Test
+  public void longPollWakesUpOnPushFromAnotherProcess() throws Exception {
+    FutureTask<Optional<Message<String>>> message = new FutureTask<>(() -> queueService.pull(someQueue, Duration.ofSeconds(10)));
+    Thread consumer = new Thread(message);
+    consumer.start();
+    try {
+      awaitLongPoll(consumer);
+
+      appendAsAnotherProcess(someMessage);
+
+      assertThat(message.get(1, SECONDS).get().getBody(), is(someMessage));
+    } finally {
+      consumer.interrupt();
+    }
+  }
+
+  @Test
+  public void bytePayloadsAreStoredAsTheyAre() throws IOException {
+    byte[] body = {0, -1, 42, -128, 127, '\n'};
+    try (FileQueueService<byte[]> byteQueueService = new FileQueueService<>(queuesDirectory, clock, Serializer.bytes())) {
+      byteQueueService.push(someQueue, body);
+
+      assertThat(byteQueueService.pull(someQueue).get().getBody(), is(body));
+    }
+  }
+
+  @Test
+  public void bodiesFromCompressionThresholdOnAreStoredCompressed() throws IOException {
+    String largeMessage = String.join("", nCopies(1_000, "{\"key\":\"value\"}"));
+    queueService.configure(someQueue, QueueConfig.builder().compressionThreshold(1_000).build());
+
+    queueService.pushBatch(someQueue, asList(someMessage, largeMessage));
+
+    assertThat(dataBytes() < largeMessage.length() / 2, is(true));
+    List<Message<String>> messages = queueService.pull(someQueue, 10);
+    assertThat(messages.get(0).getBody(), is(someMessage));
+    assertThat(messages.get(1).getBody(), is(largeMessage));
+  }
+
+  @Test
+  public void compressedBodiesRemainReadableWithoutCompression() {
+    String largeMessage = String.join("", nCopies(1_000, someMessage));
+    queueService.configure(someQueue, QueueConfig.builder().compressionThreshold(0).build());
+    queueService.push(someQueue, largeMessage);
+
+    queueService.configure(someQueue, QueueConfig.DEFAULT);
+
+    assertThat(queueService.pull(someQueue).get().getBody(), is(largeMessage));
+  }
+
+  @Test
+  public void asyncOperationsRunOnIoThreads() throws Exception {
+    queueService.pushAsync(someQueue, someMessage).get(1, SECONDS);
+
+    Message<String> message = queueService.pullAsync(someQueue).get(1, SECONDS).get();
+    queueService.deleteAsync(someQueue, message.getReceiptHandle()).get(1, SECONDS);
+
+    assertThat(message.getBody(), is(someMessage));
+    assertThat(queueService.pullAsync(someQueue, 10).get(1, SECONDS).isEmpty(), is(true));
+  }
+
+  @Test
+  public void asyncLongPollCompletesOnPush() throws Exception {
+    CompletableFuture<Optional<Message<String>>> message = queueService.pullAsync(someQueue, Duration.ofSeconds(10));
+
+    queueService.push(someQueue, someMessage);
+
+    assertThat(message.get(1, SECONDS).get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void asyncLongPollCompletesEmptyAfterMaxWait() throws Exception {
+    assertThat(queueService.pullAsync(someQueue, Duration.ofMillis(50)).get(1, SECONDS).isPresent(), is(false));
+  }
+
+  @Test
+  public void watcherCallbackRemovedBeforeSignalDoesNotRun() {
+    QueueWatcher watcher = new QueueWatcher();
+    Path queueDirectory = Paths.get(queuesDirectory, someQueue);
+    List<String> runs = new ArrayList<>();
+    Runnable forget = watcher.onSignal(queueDirectory, watcher.version(queueDirectory), () -> runs.add("forgotten"));
+    watcher.onSignal(queueDirectory, watcher.version(queueDirectory), () -> runs.add("kept"));
+
+    forget.run();
+    watcher.signal(queueDirectory);
+
+    assertThat(runs, is(singletonList("kept")));
+  }
+
+  @Test
+  public void closeCancelsPendingLongPolls() throws Exception {
+    CompletableFuture<Optional<Message<String>>> message = queueService.pullAsync(someQueue, Duration.ofSeconds(10));
+
+    queueService.close();
+
+    assertThat(message.isCancelled(), is(true));
+  }
+
+  @Test
+  public void messagesOfFormerTextFileAreMigratedToNamedQueue() throws IOException {
+    Path legacyFile = FileQueueService.legacyMessagesFile(queuesDirectory);
+    Files.createDirectories(legacyFile.getParent());
+    Files.write(legacyFile, asList(
+        "0:0:" + randomUUID() + ":" + base64("a"),
+        "2:" + Long.MAX_VALUE + ":" + randomUUID() + ":" + base64("b:c")), Charset.defaultCharset());
+
+    queueService.migrate(legacyFile, someQueue, Function.identity());
+
+    List<Message<String>> messages = queueService.pull(someQueue, 10);
+    assertThat(messages.stream().map(Message::getBody).collect(toList()), is(asList("a", "b:c")));
+    assertThat(messages.get(1).getAttempts(), is(1));
+    assertThat(Files.exists(legacyFile), is(false));
+  }
+
+  @Test
+  public void segmentsBehindMessageInFlightAreCompacted() throws Exception {
+    int count = SegmentStore.MESSAGES_PER_SEGMENT * 2 + 1;
+    int kept = SegmentStore.MESSAGES_PER_SEGMENT + 5;
+    List<String> bodies = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      bodies.add(i + someMessage);
+    }
+    queueService.pushBatch(someQueue, bodies);
+
+    try (FileQueueService<String> otherProcess = newQueueService()) {
+      List<Message<String>> messages = otherProcess.pull(someQueue, count);
+      List<String> receiptHandles = new ArrayList<>();
+      for (int i = 1; i < count; i++) {
+        if (i != kept) {
+          receiptHandles.add(messages.get(i).getReceiptHandle());
+        }
+      }
+      long dataBytes = dataBytes();
+
+      queueService.deleteBatch(someQueue, receiptHandles);
+
+      long deadline = System.nanoTime() + SECONDS.toNanos(5);
+      while (dataBytes() > dataBytes / 10 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertThat(dataBytes() <= dataBytes / 10, is(true));
+      setTimeTo(30_000L);
+      List<String> redelivered = otherProcess.pull(someQueue, 10).stream().map(Message::getBody).collect(toList());
+      assertThat(redelivered, is(asList(bodies.get(0), bodies.get(kept))));
+    }
+  }
+
+  @Test
+  public void tailSegmentWithDeletesIsCompactedOnceFull() throws Exception {
+    String large = String.join("", nCopies(10_000, "a"));
+    queueService.pushBatch(someQueue, asList("first", large, large, large));
+    List<Message<String>> messages = queueService.pull(someQueue, 4);
+    queueService.deleteBatch(someQueue, messages.subList(1, 4).stream()
+        .map(Message::getReceiptHandle)
+        .collect(toList()));
+    Thread.sleep(FileQueueService.COMPACTION_DELAY_MILLISECONDS * 3);
+
+    queueService.pushBatch(someQueue, nCopies(SegmentStore.MESSAGES_PER_SEGMENT - 3, "b"));
+
+    long deadline = System.nanoTime() + SECONDS.toNanos(5);
+    while (dataBytes() > large.length() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(dataBytes() <= large.length(), is(true));
+  }
+
+  @Test
+  public void segmentsBelowDeadRatioAreNotCompacted() throws Exception {
+    queueService.configure(someQueue, QueueConfig.builder().compactionDeadRatio(1.0).build());
+    int count = SegmentStore.MESSAGES_PER_SEGMENT + 1;
+    queueService.pushBatch(someQueue, nCopies(count, someMessage));
+    List<String> receiptHandles = queueService.pull(someQueue, count).stream()
+        .skip(1)
+        .map(Message::getReceiptHandle)
+        .collect(toList());
+    long dataBytes = dataBytes();
+
+    queueService.deleteBatch(someQueue, receiptHandles.subList(0, count - 2));
+    Thread.sleep(FileQueueService.COMPACTION_DELAY_MILLISECONDS * 3);
+
+    assertThat(dataBytes(), is(dataBytes));
+  }
+
+  @Test
+  public void publishedMessageReachesQueuesSubscribedByAnyInstance() throws IOException {
+    try (FileQueueService<String> otherInstance = newQueueService()) {
+      otherInstance.subscribe("topic", someQueue);
+      queueService.subscribe("topic", someQueue + "-other");
+
+      queueService.publish("topic", someMessage);
+
+      assertThat(otherInstance.pull(someQueue).get().getBody(), is(someMessage));
+      assertThat(otherInstance.pull(someQueue + "-other").get().getBody(), is(someMessage));
+    }
+  }
+
+  @Test
+  public void publishedBodyIsStoredOnce() throws IOException {
+    String body = String.join("", nCopies(1_000, someMessage));
+    for (int i = 0; i < 5; i++) {
+      queueService.subscribe("topic", someQueue + i);
+    }
+
+    queueService.publish("topic", body);
+
+    assertThat(storedBytes() < 2 * body.length(), is(true));
+    assertThat(queueService.pull(someQueue + 4).get().getBody(), is(body));
+  }
+
+  @Test
+  public void topicBodiesAreReclaimedOnceDeletedByEveryQueue() throws IOException {
+    List<String> queueNames = asList(someQueue, someQueue + "-other");
+    queueNames.forEach(queueName -> queueService.subscribe("topic", queueName));
+    queueService.publishBatch("topic", nCopies(SegmentStore.MESSAGES_PER_SEGMENT, "a"));
+    for (String queueName : queueNames) {
+      List<String> receiptHandles = queueService.pull(queueName, SegmentStore.MESSAGES_PER_SEGMENT).stream()
+          .map(Message::getReceiptHandle)
+          .collect(toList());
+      queueService.deleteBatch(queueName, receiptHandles);
+    }
+
+    queueService.publishBatch("topic", nCopies(SegmentStore.MESSAGES_PER_SEGMENT, "b"));
+
+    assertThat(topicDataFiles(), is(1L));
+    assertThat(queueService.pull(someQueue).get().getBody(), is("b"));
+  }
+
+  private Path createQueueDirectory() throws IOException {
+    String directoryName = Hashing.md5().hashString(someQueue, Charset.defaultCharset()).toString();
+    return Files.createDirectories(Paths.get(queuesDirectory, directoryName));
+  }
+
+  private long dataBytes() throws IOException {
+    try (Stream<Path> files = Files.list(createQueueDirectory())) {
+      return files.filter(file -> file.toString().endsWith(".log")).mapToLong(file -> file.toFile().length()).sum();
+    }
+  }
+
+  private long storedBytes() throws IOException {
+    try (Stream<Path> files = Files.walk(Paths.get(queuesDirectory))) {
+      return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+    }
+  }
+
+  private long topicDataFiles() throws IOException {
+    try (Stream<Path> files = Files.walk(Paths.get(queuesDirectory, "topics"))) {
+      return files.filter(file -> file.toString().endsWith(".log")).count();
+    }
+  }
+
+  private String base64(String messageBody) {
+    return Base64.getEncoder().encodeToString(messageBody.getBytes(Charset.defaultCharset()));
+  }
+
+  /**
+   * Waits until the thread found the queue empty and waits for a signal of the {@link QueueWatcher}.
+   */
+  private void awaitLongPoll(Thread thread) throws InterruptedException {
+    while (Arrays.stream(thread.getStackTrace()).noneMatch(frame ->
+        frame.getClassName().equals(QueueWatcher.class.getName()) && frame.getMethodName().equals("await"))) {
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * Appends while the consumer waits, without the process lock, which would overlap with the consumer's within this JVM.
+   */
+  private void appendAsAnotherProcess(String messageBody) throws IOException {
+    Path queueDirectory = Files.list(Paths.get(queuesDirectory)).findFirst().get();
+    byte[] record = RecordCodec.encode(messageBody.getBytes(Charset.defaultCharset()));
+    try (SegmentStore store = SegmentStore.open(queueDirectory)) {
+      store.append(singletonList(record));
+    }
+  }
+
+  private long segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.walk(Paths.get(queuesDirectory))) {
+      return files.filter(file -> file.toString().endsWith(".log") || file.toString().endsWith(".state")).count();
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    queueService.close();
+    Path queues = Paths.get(queuesDirectory);
+    if(queues.toFile().exists()) {
+      Files.walk(queues)
+          .sorted(reverseOrder())
+          .map(Path::toFile)
+          .forEach(File::delete);
+    }
+  }
+
+}
@@ -0,0 +1,74 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class GroupCommitTest {
+
+  private final GroupCommit groupCommit = new GroupCommit();
+  private final AtomicInteger forces = new AtomicInteger();
+
+  @Test
+  public void writersWithinWindowShareOneForce() throws Exception {
+    List<Long> tickets = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      tickets.add(groupCommit.ticket());
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(tickets.size());
+    try {
+      List<Future<?>> commits = new ArrayList<>();
+      for (long ticket : tickets) {
+        commits.add(executor.submit(() -> {
+          groupCommit.await(ticket, Duration.ofMillis(10), forces::incrementAndGet);
+          return null;
+        }));
+      }
+      for (Future<?> commit : commits) {
+        commit.get(1, SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(forces.get(), is(1));
+  }
+
+  @Test
+  public void writerAfterForceGetsAnotherForce() throws Exception {
+    groupCommit.await(groupCommit.ticket(), Duration.ZERO, forces::incrementAndGet);
+
+    groupCommit.await(groupCommit.ticket(), Duration.ZERO, forces::incrementAndGet);
+
+    assertThat(forces.get(), is(2));
+  }
+
+  @Test
+  public void failedForceIsRetriedByNextWriter() throws Exception {
+    long ticket = groupCommit.ticket();
+    try {
+      groupCommit.await(ticket, Duration.ZERO, () -> {
+        throw new IOException();
+      });
+    } catch (IOException expected) {
+      // the next writer leads again
+    }
+
+    groupCommit.await(ticket, Duration.ZERO, forces::incrementAndGet);
+
+    assertThat(forces.get(), is(1));
+  }
+
+}
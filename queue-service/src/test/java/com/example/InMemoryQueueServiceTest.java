@@ -0,0 +1,283 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class InMemoryQueueServiceTest extends QueueTestBase<InMemoryQueueService<String>> {
+
+  @Override
+  protected InMemoryQueueService<String> newQueueService() {
+    return new InMemoryQueueService<>(clock);
+  }
+
+  @Test
+  public void asyncOperationsCompleteInline() {
+    assertThat(queueService.pushAsync(someQueue, someMessage).isDone(), is(true));
+    CompletableFuture<Optional<Message<String>>> message = queueService.pullAsync(someQueue);
+    assertThat(message.isDone(), is(true));
+    assertThat(queueService.deleteAsync(someQueue, message.join().get().getReceiptHandle()).isDone(), is(true));
+
+    assertThat(queueService.pullAsync(someQueue, 10).join().isEmpty(), is(true));
+  }
+
+  @Test
+  public void asyncLongPollCompletesOnPush() throws Exception {
+    CompletableFuture<Optional<Message<String>>> message = queueService.pullAsync(someQueue, Duration.ofSeconds(10));
+
+    queueService.push(someQueue, someMessage);
+
+    assertThat(message.get(1, SECONDS).get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void pushToFullQueueIsRejected() {
+    List<String> fullQueues = new ArrayList<>();
+    queueService = InMemoryQueueService.<String>builder(clock)
+        .queueFullListener((queueName, policy) -> fullQueues.add(queueName + ":" + policy))
+        .build();
+    queueService.configure(someQueue, QueueConfig.builder().maxMessages(1).build());
+    queueService.push(someQueue, someMessage);
+
+    try {
+      queueService.push(someQueue, someMessage);
+      throw new AssertionError("Push to full queue succeeded");
+    } catch (IllegalStateException expected) {
+      assertThat(fullQueues, is(asList(someQueue + ":REJECT")));
+    }
+  }
+
+  @Test
+  public void deleteMakesRoomInFullQueue() {
+    queueService.configure(someQueue, QueueConfig.builder().maxMessages(1).build());
+    queueService.push(someQueue, someMessage);
+
+    queueService.delete(someQueue, queueService.pull(someQueue).get().getReceiptHandle());
+    queueService.push(someQueue, someMessage);
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(true));
+  }
+
+  @Test
+  public void dropOldestPolicyDropsOldestVisibleMessages() {
+    queueService.configure(someQueue,
+        QueueConfig.builder().maxMessages(2).overflowPolicy(OverflowPolicy.DROP_OLDEST).build());
+
+    queueService.pushBatch(someQueue, asList("a", "b"));
+    queueService.push(someQueue, "c");
+    queueService.push(someQueue, "d");
+
+    assertThat(bodies(queueService.pull(someQueue, 10)), is(asList("c", "d")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void dropOldestPolicyDoesNotDropMessagesInFlight() {
+    queueService.configure(someQueue,
+        QueueConfig.builder().maxMessages(1).overflowPolicy(OverflowPolicy.DROP_OLDEST).build());
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+
+    queueService.push(someQueue, someMessage);
+  }
+
+  @Test
+  public void blockedPushCompletesOnDelete() throws Exception {
+    queueService.configure(someQueue, QueueConfig.builder()
+        .maxMessages(1)
+        .overflowPolicy(OverflowPolicy.BLOCK)
+        .blockTimeout(Duration.ofSeconds(10))
+        .build());
+    queueService.push(someQueue, "a");
+    String receiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+
+    ExecutorService producer = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> push = producer.submit(() -> queueService.push(someQueue, "b"));
+      Thread.sleep(50);
+      assertThat(push.isDone(), is(false));
+
+      queueService.delete(someQueue, receiptHandle);
+
+      push.get(1, SECONDS);
+    } finally {
+      producer.shutdown();
+    }
+    assertThat(queueService.pull(someQueue).get().getBody(), is("b"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void blockedPushFailsAfterBlockTimeout() {
+    queueService.configure(someQueue, QueueConfig.builder()
+        .maxMessages(1)
+        .overflowPolicy(OverflowPolicy.BLOCK)
+        .blockTimeout(Duration.ofMillis(10))
+        .build());
+    queueService.push(someQueue, someMessage);
+
+    queueService.push(someQueue, someMessage);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void queueIsFullAtMaxBytes() {
+    queueService.configure(someQueue, QueueConfig.builder().maxBytes(10).build());
+    queueService.push(someQueue, "abcde");
+
+    queueService.push(someQueue, "f");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void memoryBudgetIsSharedByAllQueues() {
+    queueService = InMemoryQueueService.<String>builder(clock).memoryBudget(10).build();
+    queueService.push(someQueue, "abcde");
+
+    queueService.push(someQueue + "-other", "f");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void batchLargerThanQueueIsInvalid() {
+    queueService.configure(someQueue,
+        QueueConfig.builder().maxMessages(2).overflowPolicy(OverflowPolicy.DROP_OLDEST).build());
+
+    queueService.pushBatch(someQueue, asList("a", "b", "c"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void maxMessagesMustBePositive() {
+    QueueConfig.builder().maxMessages(0).build();
+  }
+
+  @Test
+  public void publishedMessageReachesEverySubscribedQueue() {
+    queueService.subscribe("topic", someQueue);
+    queueService.subscribe("topic", someQueue + "-other");
+
+    queueService.publish("topic", someMessage);
+
+    assertThat(queueService.pull(someQueue).get().getBody(), is(someMessage));
+    assertThat(queueService.pull(someQueue + "-other").get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void subscribedQueuesDeleteIndependently() {
+    queueService.subscribe("topic", someQueue);
+    queueService.subscribe("topic", someQueue + "-other");
+    queueService.publishBatch("topic", asList("a", "b"));
+
+    Message<String> message = queueService.pull(someQueue).get();
+    queueService.delete(someQueue, message.getReceiptHandle());
+
+    assertThat(bodies(queueService.pull(someQueue, 10)), is(asList("b")));
+    assertThat(bodies(queueService.pull(someQueue + "-other", 10)), is(asList("a", "b")));
+  }
+
+  @Test
+  public void messagesPublishedBeforeSubscribingAreNotReceived() {
+    queueService.publish("topic", someMessage);
+
+    queueService.subscribe("topic", someQueue);
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+  }
+
+  @Test
+  public void publishedBodyCountsOnceAgainstMemoryBudget() {
+    queueService = InMemoryQueueService.<String>builder(clock).memoryBudget(10).build();
+    List<String> queueNames = asList(someQueue + "-1", someQueue + "-2", someQueue + "-3");
+    queueNames.forEach(queueName -> queueService.subscribe("topic", queueName));
+
+    queueService.publish("topic", "abcde");
+    for (String queueName : queueNames.subList(0, 2)) {
+      queueService.delete(queueName, queueService.pull(queueName).get().getReceiptHandle());
+    }
+    try {
+      queueService.push(someQueue, "f");
+      fail();
+    } catch (IllegalStateException e) {
+      queueService.delete(queueNames.get(2), queueService.pull(queueNames.get(2)).get().getReceiptHandle());
+    }
+
+    queueService.push(someQueue, "abcde");
+  }
+
+  @Test
+  public void publishToFullQueueReachesNoQueue() {
+    queueService.configure(someQueue + "-other", QueueConfig.builder().maxMessages(1).build());
+    queueService.subscribe("topic", someQueue);
+    queueService.subscribe("topic", someQueue + "-other");
+    queueService.push(someQueue + "-other", "a");
+
+    try {
+      queueService.publish("topic", someMessage);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(queueService.pull(someQueue).isPresent(), is(false));
+    }
+  }
+
+  @Test
+  public void blockedPushCompletesOnDeleteOfBodyStillHeldByOtherSubscription() throws Exception {
+    queueService.configure(someQueue, QueueConfig.builder()
+        .maxMessages(1)
+        .overflowPolicy(OverflowPolicy.BLOCK)
+        .blockTimeout(Duration.ofSeconds(10))
+        .build());
+    queueService.subscribe("topic", someQueue);
+    queueService.subscribe("topic", someQueue + "-other");
+    queueService.publish("topic", "a");
+    String receiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+
+    ExecutorService producer = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> push = producer.submit(() -> queueService.push(someQueue, "b"));
+      Thread.sleep(50);
+      assertThat(push.isDone(), is(false));
+
+      queueService.delete(someQueue, receiptHandle);
+
+      push.get(1, SECONDS);
+    } finally {
+      producer.shutdown();
+    }
+    assertThat(queueService.pull(someQueue).get().getBody(), is("b"));
+  }
+
+  @Test
+  public void receivedMessagesAreVisibleAgainWhenDeadLetterQueueIsFull() {
+    String deadLetterQueue = someQueue + "-dead";
+    queueService.configure(deadLetterQueue, QueueConfig.builder().maxMessages(1).build());
+    queueService.push(deadLetterQueue, "x");
+    queueService.configure(someQueue, QueueConfig.builder().deadLetterQueue(deadLetterQueue, 2).build());
+    queueService.push(someQueue, "a");
+    queueService.pull(someQueue);
+    setTimeTo(30_000L);
+    queueService.pull(someQueue);
+    setTimeTo(60_000L);
+    queueService.push(someQueue, "b");
+
+    try {
+      queueService.pull(someQueue, 10);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(queueService.pull(someQueue).get().getBody(), is("b"));
+    }
+  }
+
+  private static List<String> bodies(List<Message<String>> messages) {
+    return messages.stream().map(Message::getBody).collect(toList());
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.example;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InstrumentedQueueServiceTest {
+
+  private static final String someQueue = "someQueue";
+  private static final String someMessage = "someMessage";
+
+  private Clock clock;
+  private MBeanServer server;
+  private JmxMetricsSink sink;
+  private InstrumentedQueueService<String> queueService;
+
+  @Before
+  public void setUp() {
+    clock = mock(Clock.class);
+    setTimeTo(0L);
+    server = MBeanServerFactory.newMBeanServer();
+    sink = new JmxMetricsSink(server, "test");
+    queueService = new InstrumentedQueueService<>(new InMemoryQueueService<>(clock), sink);
+  }
+
+  @Test
+  public void countsOperations() {
+    queueService.pushBatch(someQueue, asList(someMessage, someMessage));
+    String receiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+    queueService.pull(someQueue, 10);
+    queueService.pull(someQueue);
+    queueService.delete(someQueue, receiptHandle);
+
+    QueueMetrics metrics = queueService.getMetrics(someQueue);
+    assertThat(metrics.getPushCount(), is(2L));
+    assertThat(metrics.getPullCount(), is(2L));
+    assertThat(metrics.getEmptyPullCount(), is(1L));
+    assertThat(metrics.getDeleteCount(), is(1L));
+    assertThat(metrics.getInFlightCount(), is(1L));
+    assertThat(metrics.getPullLatency().getCount(), is(3L));
+  }
+
+  @Test
+  public void countsRedeliveries() {
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+    setTimeTo(30_000L);
+
+    String receiptHandle = queueService.pull(someQueue, Duration.ZERO).get().getReceiptHandle();
+    queueService.deleteBatch(someQueue, singletonList(receiptHandle));
+
+    QueueMetrics metrics = queueService.getMetrics(someQueue);
+    assertThat(metrics.getRedeliveryCount(), is(1L));
+    assertThat(metrics.getInFlightCount(), is(0L));
+  }
+
+  @Test
+  public void deletesOfHandlesNotHandedOutLeaveInFlightAlone() {
+    queueService.push(someQueue, someMessage);
+    String receiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+    queueService.delete(someQueue, receiptHandle);
+    queueService.delete(someQueue, receiptHandle);
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+    queueService.deleteBatch(someQueue, asList("foreignHandle", receiptHandle));
+
+    QueueMetrics metrics = queueService.getMetrics(someQueue);
+    assertThat(metrics.getDeleteCount(), is(4L));
+    assertThat(metrics.getInFlightCount(), is(1L));
+  }
+
+  @Test
+  public void messagesVisibleAgainAreNotInFlight() {
+    queueService.pushBatch(someQueue, asList(someMessage, someMessage));
+    String receiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+    queueService.pull(someQueue);
+    queueService.changeVisibility(someQueue, receiptHandle, Duration.ofMinutes(1));
+    setTimeTo(30_000L);
+
+    assertThat(queueService.getMetrics(someQueue).getInFlightCount(), is(1L));
+
+    queueService.changeVisibility(someQueue, receiptHandle, Duration.ZERO);
+
+    assertThat(queueService.getMetrics(someQueue).getInFlightCount(), is(0L));
+  }
+
+  @Test
+  public void publishesMetricsThroughJmx() throws Exception {
+    queueService.push(someQueue, someMessage);
+
+    Object pushCount = server.getAttribute(sink.objectName(someQueue), "PushCount");
+
+    assertThat(pushCount, is(1L));
+  }
+
+  @Test
+  public void histogramReportsPercentilesWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long nanos = 1; nanos <= 1_000; nanos++) {
+      histogram.record(nanos);
+    }
+
+    assertThat(histogram.getCount(), is(1_000L));
+    assertThat(histogram.getMax(), is(1_000L));
+    assertThat(histogram.getPercentile(0.5) >= 500 && histogram.getPercentile(0.5) <= 500 * 1.125, is(true));
+    assertThat(histogram.getPercentile(0.99) >= 990 && histogram.getPercentile(0.99) <= 1_000, is(true));
+  }
+
+  @Test
+  public void histogramBucketsCoverAllValues() {
+    for (long value : new long[]{0, 7, 8, 15, 16, 17, 1_000_000, Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.bucketOf(value);
+      assertThat(LatencyHistogram.upperBoundOf(bucket) >= value, is(true));
+      assertThat(bucket == 0 || LatencyHistogram.upperBoundOf(bucket - 1) < value, is(true));
+    }
+  }
+
+  private void setTimeTo(long milliseconds) {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(milliseconds));
+  }
+
+}
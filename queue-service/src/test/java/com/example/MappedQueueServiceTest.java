@@ -0,0 +1,123 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.FutureTask;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.nCopies;
+import static java.util.Collections.singletonList;
+import static java.util.Comparator.reverseOrder;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MappedQueueServiceTest extends QueueTestBase<MappedQueueService<String>> {
+
+  private static final String queuesDirectory = randomUUID().toString();
+
+  private MappedQueueService<String> otherProcess;
+
+  @Override
+  protected MappedQueueService<String> newQueueService() {
+    return new MappedQueueService<>(queuesDirectory, clock, Serializer.utf8(), 4, 64);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void pushOntoFullQueueFails() {
+    queueService.pushBatch(someQueue, nCopies(5, someMessage));
+  }
+
+  @Test
+  public void deletedMessagesFreeTheirSlots() {
+    queueService.pushBatch(someQueue, nCopies(4, someMessage));
+    for (int i = 0; i < 4; i++) {
+      queueService.delete(someQueue, queueService.pull(someQueue).get().getReceiptHandle());
+    }
+
+    queueService.pushBatch(someQueue, nCopies(4, someMessage));
+
+    assertThat(queueService.pull(someQueue, 10).size(), is(4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pushOfMessageLargerThanSlotFails() {
+    queueService.push(someQueue, new String(new char[65]));
+  }
+
+  @Test
+  public void bytePayloadsAreStoredAsTheyAre() throws IOException {
+    byte[] body = {0, -1, 42, -128, 127};
+    try (MappedQueueService<byte[]> byteQueueService = new MappedQueueService<>(queuesDirectory, clock, Serializer.bytes(), 4, 64)) {
+      byteQueueService.push(someQueue, body);
+
+      assertThat(byteQueueService.pull(someQueue).get().getBody(), is(body));
+    }
+  }
+
+  @Test
+  public void queueIsSharedWithAnotherProcess() {
+    otherProcess = newQueueService();
+    otherProcess.push(someQueue, someMessage);
+
+    assertThat(queueService.pull(someQueue).get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void longPollWakesUpOnPushFromAnotherProcess() throws Exception {
+    queueService.pull(someQueue);
+    FutureTask<Optional<Message<String>>> message = new FutureTask<>(() -> queueService.pull(someQueue, Duration.ofSeconds(10)));
+    Thread consumer = new Thread(message);
+    consumer.start();
+    try {
+      awaitWaiting(consumer);
+
+      appendAsAnotherProcess(someMessage);
+
+      assertThat(message.get(1, SECONDS).get().getBody(), is(someMessage));
+    } finally {
+      consumer.interrupt();
+    }
+  }
+
+  private void awaitWaiting(Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * Appends while the consumer waits, without the process lock, which would overlap with the consumer's within this JVM.
+   */
+  private void appendAsAnotherProcess(String messageBody) throws IOException {
+    Path ringFile = Files.list(Paths.get(queuesDirectory)).findFirst().get();
+    try (MappedRing ring = MappedRing.open(ringFile, 4, 64)) {
+      ring.append(singletonList(messageBody.getBytes(UTF_8)));
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    queueService.close();
+    if (otherProcess != null) {
+      otherProcess.close();
+    }
+    Path queues = Paths.get(queuesDirectory);
+    if(queues.toFile().exists()) {
+      Files.walk(queues)
+          .sorted(reverseOrder())
+          .map(Path::toFile)
+          .forEach(File::delete);
+    }
+  }
+
+}
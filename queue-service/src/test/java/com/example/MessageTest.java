@@ -12,7 +12,7 @@ public class MessageTest {
 
   private final Clock clock = Clock.systemUTC();
 
-  private final Message message = Message.builder()
+  private final Message<String> message = Message.<String>builder()
       .attempts(1)
       .visibleFrom(123)
       .receiptHandle("hash")
@@ -38,4 +38,13 @@ public class MessageTest {
     assertThat(fromString, is(equalTo(message)));
   }
 
-}
\ No newline at end of file
+
+  @Test
+  public void fromOldIsNextDeliveryWithGivenReceiptHandle() {
+    Message<String> redelivered = Message.fromOld(message, "next");
+
+    assertThat(redelivered.getAttempts(), is(equalTo(2)));
+    assertThat(redelivered.getReceiptHandle(), is(equalTo("next")));
+    assertThat(redelivered.getBody(), is(equalTo(message.getBody())));
+  }
+}
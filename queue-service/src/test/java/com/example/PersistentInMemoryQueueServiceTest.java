@@ -0,0 +1,195 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.util.Arrays.asList;
+import static java.util.Collections.nCopies;
+import static java.util.Comparator.reverseOrder;
+import static java.util.UUID.randomUUID;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PersistentInMemoryQueueServiceTest extends QueueTestBase<InMemoryQueueService<String>> {
+
+  private static final long SNAPSHOT_LOG_BYTES = 4_096;
+
+  private final String journalDirectory = randomUUID().toString();
+  private final List<InMemoryQueueService<String>> services = new ArrayList<>();
+  private InMemoryJournal<String> journal;
+
+  @Override
+  protected InMemoryQueueService<String> newQueueService() {
+    journal = InMemoryJournal.open(Paths.get(journalDirectory), Serializer.utf8(), clock, SNAPSHOT_LOG_BYTES);
+    InMemoryQueueService<String> service = new InMemoryQueueService<>(clock, 1, journal);
+    services.add(service);
+    return service;
+  }
+
+  @Test
+  public void messagesSurviveRestart() throws IOException {
+    queueService.pushBatch(someQueue, asList("a", "b"));
+
+    restart();
+
+    assertThat(bodies(queueService.pull(someQueue, 10)), is(asList("a", "b")));
+  }
+
+  @Test
+  public void deletedMessagesStayDeletedAfterCrash() {
+    queueService.pushBatch(someQueue, asList("a", "b"));
+    queueService.delete(someQueue, queueService.pull(someQueue).get().getReceiptHandle());
+
+    crash();
+
+    assertThat(bodies(queueService.pull(someQueue, 10)), is(asList("b")));
+  }
+
+  @Test
+  public void inFlightMessagesAreDeliveredAgainAfterCrash() {
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+
+    crash();
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+    setTimeTo(30_000L);
+    Message<String> message = queueService.pull(someQueue).get();
+    assertThat(message.getBody(), is(someMessage));
+    assertThat(message.getAttempts(), is(2));
+  }
+
+  @Test
+  public void changedVisibilitySurvivesCrash() {
+    queueService.push(someQueue, someMessage);
+    String receiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+    queueService.changeVisibility(someQueue, receiptHandle, Duration.ZERO);
+
+    crash();
+
+    assertThat(queueService.pull(someQueue).get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void replayStopsAtTornRecord() throws IOException {
+    queueService.push(someQueue, someMessage);
+    journal.sync();
+    try (Stream<Path> files = Files.list(Paths.get(journalDirectory))) {
+      Path log = files.filter(file -> file.getFileName().toString().startsWith("log-")).findFirst().get();
+      Files.write(log, new byte[]{0, 0, 0, 42, 1, 2}, APPEND);
+    }
+
+    crash();
+
+    assertThat(queueService.pull(someQueue).get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void snapshotsReplaceOlderLogs() throws IOException {
+    queueService.pushBatch(someQueue, nCopies(100, someMessage));
+    List<String> receiptHandles = queueService.pull(someQueue, 90).stream()
+        .map(Message::getReceiptHandle)
+        .collect(toList());
+    queueService.deleteBatch(someQueue, receiptHandles);
+    journal.sync();
+
+    assertThat(journalFiles().stream().filter(name -> name.startsWith("snapshot-")).count(), is(1L));
+    assertThat(journalFiles().stream().filter(name -> name.startsWith("log-")).count(), is(1L));
+    crash();
+    assertThat(queueService.pull(someQueue, 100).size(), is(10));
+  }
+
+  @Test
+  public void journaledBodiesCountAgainstMemoryBudget() {
+    MemoryBudget budget = new MemoryBudget(10);
+    journal.countAgainst(budget);
+    InMemoryQueue.Journal<String> queueJournal = journal.forQueue(someQueue);
+
+    queueJournal.pushed(new Message<>(0, 0, "receiptHandle", "abc", clock));
+    journal.sync();
+
+    assertThat(budget.tryReserve(8), is(false));
+    queueJournal.deleted("receiptHandle");
+    journal.sync();
+    assertThat(budget.tryReserve(8), is(true));
+  }
+
+  @Test
+  public void changesHandedOverWhileClosingAreWrittenOrRefused() throws Exception {
+    InMemoryQueue.Journal<String> queueJournal = journal.forQueue(someQueue);
+    AtomicInteger journaled = new AtomicInteger();
+    Thread pusher = new Thread(() -> {
+      try {
+        while (true) {
+          queueJournal.pushed(new Message<>(0, 0, "receiptHandle" + journaled.get(), someMessage, clock));
+          journaled.incrementAndGet();
+        }
+      } catch (IllegalStateException e) {
+        // closed
+      }
+    });
+    pusher.start();
+    while (journaled.get() < 100) {
+      Thread.yield();
+    }
+
+    journal.close();
+    pusher.join();
+
+    InMemoryJournal<String> reopened = InMemoryJournal.open(Paths.get(journalDirectory), Serializer.utf8(), clock,
+        SNAPSHOT_LOG_BYTES);
+    try {
+      assertThat(reopened.recovered().get(someQueue).size(), is(journaled.get()));
+    } finally {
+      reopened.close();
+    }
+  }
+
+  private void restart() throws IOException {
+    queueService.close();
+    queueService = newQueueService();
+  }
+
+  private void crash() {
+    journal.sync();
+    queueService = newQueueService();
+  }
+
+  private List<String> journalFiles() throws IOException {
+    try (Stream<Path> files = Files.list(Paths.get(journalDirectory))) {
+      return files.map(file -> file.getFileName().toString()).collect(toList());
+    }
+  }
+
+  private static List<String> bodies(List<Message<String>> messages) {
+    return messages.stream().map(Message::getBody).collect(toList());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (InMemoryQueueService<String> service : services) {
+      service.close();
+    }
+    Path journal = Paths.get(journalDirectory);
+    if (journal.toFile().exists()) {
+      Files.walk(journal)
+          .sorted(reverseOrder())
+          .map(Path::toFile)
+          .forEach(File::delete);
+    }
+  }
+
+}
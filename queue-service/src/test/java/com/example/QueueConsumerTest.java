@@ -0,0 +1,136 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class QueueConsumerTest {
+
+  private static final String someQueue = "someQueue";
+
+  private Clock clock;
+  private QueueService<String> queueService;
+  private QueueConsumer<String> consumer;
+
+  @Before
+  public void setUp() {
+    clock = mock(Clock.class);
+    setTimeTo(0L);
+    queueService = new InMemoryQueueService<>(clock);
+  }
+
+  @After
+  public void tearDown() {
+    if (consumer != null) {
+      consumer.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructorHandlesZeroConcurrency() {
+    new QueueConsumer<>(queueService, someQueue, body -> { }, 0);
+  }
+
+  @Test
+  public void processesAndDeletesAllMessages() throws InterruptedException {
+    Set<String> processed = ConcurrentHashMap.newKeySet();
+    CountDownLatch latch = new CountDownLatch(3);
+    queueService.pushBatch(someQueue, asList("a", "b", "c"));
+
+    startConsumer(body -> {
+      processed.add(body);
+      latch.countDown();
+    });
+
+    assertThat(latch.await(1, SECONDS), is(true));
+    consumer.close();
+    setTimeTo(30_000L);
+    assertThat(processed, is(new HashSet<>(asList("a", "b", "c"))));
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+  }
+
+  @Test
+  public void failedMessagesAreLeftForRedelivery() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+    queueService.push(someQueue, "poison");
+
+    startConsumer(body -> {
+      latch.countDown();
+      throw new IllegalStateException();
+    });
+
+    assertThat(latch.await(1, SECONDS), is(true));
+    consumer.close();
+    setTimeTo(30_000L);
+    assertThat(queueService.pull(someQueue).get().getBody(), is("poison"));
+  }
+
+  @Test
+  public void workerKeepsGoingAfterHandlerError() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+    queueService.pushBatch(someQueue, asList("poison", "a"));
+
+    startConsumer(body -> {
+      if (body.equals("poison")) {
+        throw new AssertionError();
+      }
+      latch.countDown();
+    });
+
+    assertThat(latch.await(1, SECONDS), is(true));
+  }
+
+  @Test
+  public void closeProcessesPrefetchedMessages() throws InterruptedException {
+    Set<String> processed = ConcurrentHashMap.newKeySet();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    queueService.pushBatch(someQueue, asList("a", "b", "c"));
+
+    startConsumer(body -> {
+      started.countDown();
+      awaitQuietly(release);
+      processed.add(body);
+    });
+    assertThat(started.await(1, SECONDS), is(true));
+
+    release.countDown();
+    consumer.close();
+
+    assertThat(processed.size(), is(3));
+  }
+
+  private void startConsumer(Consumer<String> handler) {
+    consumer = new QueueConsumer<>(queueService, someQueue, handler, 1, 3, Duration.ofMillis(10));
+    consumer.start();
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void setTimeTo(long milliseconds) {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(milliseconds));
+  }
+
+}
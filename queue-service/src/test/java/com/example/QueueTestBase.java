@@ -0,0 +1,411 @@
+package com.example;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Arrays.asList;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public abstract class QueueTestBase<T extends QueueService<String>> {
+
+  protected Clock clock;
+
+  protected T queueService;
+
+  protected String someQueue;
+  protected String someMessage;
+  protected String someReceiptHandle;
+
+  protected abstract T newQueueService();
+
+
+  @Before
+  public void baseSetUp() {
+    someQueue = randomUUID().toString();
+    someMessage = randomUUID().toString() + "\nfoo";
+    someReceiptHandle = randomUUID().toString();
+
+    clock = mock(Clock.class);
+    setTimeTo(0L);
+    queueService = newQueueService();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pushHandlesNullInputs() {
+    queueService.push(null, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pushHandlesNullQueueName() {
+    queueService.push(null, someMessage);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pushHandlesEmptyQueueName() {
+    queueService.push("", someMessage);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pushHandlesNullMessage() {
+    queueService.push(someQueue, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pullHandlesNullInput() {
+    queueService.pull(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pullHandlesEmptyInput() {
+    queueService.pull("");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deleteHandlesNullInputs() {
+    queueService.delete(null, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deleteHandlesNullQueueName() {
+    queueService.delete(null, someReceiptHandle);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deleteHandlesEmptyQueueName() {
+    queueService.delete("", someReceiptHandle);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deleteHandlesNullReceiptHandle() {
+    queueService.delete(someQueue, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deleteHandlesEmptyReceiptHandle() {
+    queueService.delete(someQueue, "");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pushBatchHandlesNullMessages() {
+    queueService.pushBatch(someQueue, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pullBatchHandlesZeroMaxMessages() {
+    queueService.pull(someQueue, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deleteBatchHandlesNullReceiptHandles() {
+    queueService.deleteBatch(someQueue, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void longPollHandlesNullWait() {
+    queueService.pull(someQueue, (Duration) null);
+  }
+
+  @Test
+  public void canPushMessageToQueue() {
+    queueService.push(someQueue, someMessage);
+  }
+
+  @Test
+  public void canPullMessagesFromQueue() {
+    queueService.push(someQueue, someMessage);
+
+    Optional<Message<String>> message = queueService.pull(someQueue);
+
+    assertThat(message.isPresent(), is(true));
+    assertThat(message.get().getBody(), is(equalTo(someMessage)));
+    assertThat(message.get().getReceiptHandle(), is(any(String.class)));
+    assertThat(message.get().getAttempts(), is(1));
+    assertThat(message.get().getVisibleFrom(), is(30_000L));
+    assertThat(message.get().getDelay(MILLISECONDS), is(30_000L));
+  }
+
+  @Test
+  public void canDeleteMessagesFromQueue() {
+    queueService.push(someQueue, someMessage);
+    Optional<Message<String>> message = queueService.pull(someQueue);
+
+    queueService.delete(someQueue, message.get().getReceiptHandle());
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+  }
+
+  @Test
+  public void deleteOnlyRemovesMessageWithGivenReceiptHandle() {
+    String someOtherMessage = randomUUID().toString();
+    queueService.push(someQueue, someMessage);
+    queueService.push(someQueue, someOtherMessage);
+    Optional<Message<String>> message = queueService.pull(someQueue);
+    queueService.pull(someQueue);
+
+    queueService.delete(someQueue, message.get().getReceiptHandle());
+    setTimeTo(30_000L);
+
+    Optional<Message<String>> redelivered = queueService.pull(someQueue);
+    assertThat(redelivered.get().getBody(), is(someOtherMessage));
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+  }
+
+  @Test
+  public void canPullMessagesFromEmptyQueue() {
+    Optional<Message<String>> message = queueService.pull(someQueue);
+
+    assertThat(message.isPresent(), is(false));
+  }
+
+  @Test
+  public void canDeleteMessagesFromEmptyQueueWithoutExceptions() {
+    queueService.delete(someQueue, someReceiptHandle);
+  }
+
+  @Test
+  public void queueWorksAsFifo() {
+    String someOtherMessage = randomUUID().toString();
+    queueService.push(someQueue, someMessage);
+    queueService.push(someQueue, someOtherMessage);
+
+    Optional<Message<String>> firstMessage = queueService.pull(someQueue);
+    Optional<Message<String>> secondMessage = queueService.pull(someQueue);
+
+
+    assertThat(firstMessage.get().getBody(), is(someMessage));
+    assertThat(secondMessage.get().getBody(), is(someOtherMessage));
+  }
+
+  @Test
+  public void messagesDontBecomeVisibleBeforeVisibilityTimeout() {
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+    setTimeTo(29_999L);
+
+    Optional<Message<String>> message = queueService.pull(someQueue);
+
+    assertThat(message.isPresent(), is(false));
+  }
+
+  @Test
+  public void canPullMessageAgainOnVisibilityTimeout() {
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+    setTimeTo(30_000L);
+
+    Optional<Message<String>> message = queueService.pull(someQueue);
+
+    assertThat(message.isPresent(), is(true));
+    assertThat(message.get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void canPullMessageAgainAfterVisibilityTimeout() {
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+    setTimeTo(30_001L);
+
+    Optional<Message<String>> message = queueService.pull(someQueue);
+
+    assertThat(message.isPresent(), is(true));
+    assertThat(message.get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void configuredVisibilityTimeoutApplies() {
+    queueService.configure(someQueue, QueueConfig.builder().visibilityTimeout(Duration.ofSeconds(5)).build());
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+
+    setTimeTo(4_999L);
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+    setTimeTo(5_000L);
+    assertThat(queueService.pull(someQueue).isPresent(), is(true));
+  }
+
+  @Test
+  public void pullWithVisibilityTimeoutOverridesQueueDefault() {
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue, 1, Duration.ofSeconds(10));
+    setTimeTo(10_000L);
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(true));
+  }
+
+  @Test
+  public void changeVisibilityExtendsVisibilityTimeout() {
+    queueService.push(someQueue, someMessage);
+    String receiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+    setTimeTo(20_000L);
+
+    queueService.changeVisibility(someQueue, receiptHandle, Duration.ofSeconds(30));
+
+    setTimeTo(49_999L);
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+    setTimeTo(50_000L);
+    assertThat(queueService.pull(someQueue).isPresent(), is(true));
+  }
+
+  @Test
+  public void changeVisibilityToZeroReleasesMessage() {
+    queueService.push(someQueue, someMessage);
+    String receiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+
+    queueService.changeVisibility(someQueue, receiptHandle, Duration.ZERO);
+
+    Optional<Message<String>> message = queueService.pull(someQueue);
+    assertThat(message.get().getAttempts(), is(2));
+  }
+
+  @Test
+  public void messageWithChangedVisibilityCanBeDeleted() {
+    queueService.push(someQueue, someMessage);
+    String receiptHandle = queueService.pull(someQueue).get().getReceiptHandle();
+    queueService.changeVisibility(someQueue, receiptHandle, Duration.ofSeconds(10));
+
+    queueService.delete(someQueue, receiptHandle);
+    setTimeTo(30_000L);
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void changeVisibilityHandlesNegativeTimeout() {
+    queueService.changeVisibility(someQueue, someReceiptHandle, Duration.ofSeconds(-1));
+  }
+
+  @Test
+  public void messageReceivedMaxReceivesTimesMovesToDeadLetterQueue() {
+    String deadLetterQueue = randomUUID().toString();
+    queueService.configure(someQueue, QueueConfig.builder().deadLetterQueue(deadLetterQueue, 2).build());
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+    setTimeTo(30_000L);
+    queueService.pull(someQueue);
+    setTimeTo(60_000L);
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+    Optional<Message<String>> deadLetter = queueService.pull(deadLetterQueue);
+    assertThat(deadLetter.get().getBody(), is(someMessage));
+    assertThat(deadLetter.get().getAttempts(), is(1));
+    setTimeTo(120_000L);
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+  }
+
+  @Test
+  public void pullReceivesNextMessageInPlaceOfDeadLetter() {
+    String deadLetterQueue = randomUUID().toString();
+    String someOtherMessage = randomUUID().toString();
+    queueService.configure(someQueue, QueueConfig.builder().deadLetterQueue(deadLetterQueue, 1).build());
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+    queueService.push(someQueue, someOtherMessage);
+    setTimeTo(30_000L);
+
+    assertThat(queueService.pull(someQueue, 10).get(0).getBody(), is(someOtherMessage));
+    assertThat(queueService.pull(deadLetterQueue).get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void longPollMovesMessageOverReceiveLimitToDeadLetterQueue() {
+    String deadLetterQueue = randomUUID().toString();
+    queueService.configure(someQueue, QueueConfig.builder().deadLetterQueue(deadLetterQueue, 1).build());
+    queueService.push(someQueue, someMessage);
+    queueService.pull(someQueue);
+    setTimeTo(30_000L);
+
+    assertThat(queueService.pull(someQueue, Duration.ZERO).isPresent(), is(false));
+    assertThat(queueService.pull(deadLetterQueue).get().getBody(), is(someMessage));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deadLetterQueueNeedsPositiveMaxReceives() {
+    QueueConfig.builder().deadLetterQueue(randomUUID().toString(), 0).build();
+  }
+
+  @Test
+  public void canPullBatchOfMessagesFromQueue() {
+    String someOtherMessage = randomUUID().toString();
+    queueService.pushBatch(someQueue, asList(someMessage, someOtherMessage));
+
+    List<Message<String>> messages = queueService.pull(someQueue, 10);
+
+    assertThat(messages.size(), is(2));
+    assertThat(messages.get(0).getBody(), is(someMessage));
+    assertThat(messages.get(1).getBody(), is(someOtherMessage));
+    assertThat(messages.get(1).getAttempts(), is(1));
+  }
+
+  @Test
+  public void pullBatchReturnsAtMostMaxMessages() {
+    queueService.pushBatch(someQueue, asList(someMessage, someMessage, someMessage));
+
+    assertThat(queueService.pull(someQueue, 2).size(), is(2));
+    assertThat(queueService.pull(someQueue, 2).size(), is(1));
+    assertThat(queueService.pull(someQueue, 2).isEmpty(), is(true));
+  }
+
+  @Test
+  public void canDeleteBatchOfMessagesFromQueue() {
+    queueService.pushBatch(someQueue, asList(someMessage, someMessage));
+    List<String> receiptHandles = queueService.pull(someQueue, 2).stream()
+        .map(Message::getReceiptHandle)
+        .collect(toList());
+
+    queueService.deleteBatch(someQueue, receiptHandles);
+    setTimeTo(30_000L);
+
+    assertThat(queueService.pull(someQueue, 2).isEmpty(), is(true));
+  }
+
+  @Test
+  public void longPollReturnsVisibleMessageImmediately() {
+    queueService.push(someQueue, someMessage);
+
+    Optional<Message<String>> message = queueService.pull(someQueue, Duration.ofSeconds(10));
+
+    assertThat(message.get().getBody(), is(someMessage));
+  }
+
+  @Test
+  public void longPollReturnsEmptyAfterWaitOnEmptyQueue() {
+    Optional<Message<String>> message = queueService.pull(someQueue, Duration.ofMillis(20));
+
+    assertThat(message.isPresent(), is(false));
+  }
+
+  @Test
+  public void longPollWakesUpOnPush() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Optional<Message<String>>> message = executor.submit(() -> queueService.pull(someQueue, Duration.ofSeconds(10)));
+
+      queueService.push(someQueue, someMessage);
+
+      assertThat(message.get(1, SECONDS).get().getBody(), is(someMessage));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  protected void setTimeTo(long milliseconds) {
+    when(clock.instant()).thenReturn(Instant.ofEpochMilli(milliseconds));
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,170 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class RemoteQueueServiceTest extends QueueTestBase<RemoteQueueService> {
+
+  private QueueServer server;
+
+  @Override
+  protected RemoteQueueService newQueueService() {
+    server = QueueServer.start(new InMemoryQueueService<>(clock),
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    return new RemoteQueueService(server.getAddress(), clock);
+  }
+
+  @Test
+  public void pipelinedRequestsOfManyThreadsAllComplete() throws Exception {
+    List<Thread> threads = new ArrayList<>();
+    List<CompletableFuture<Void>> pushes = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      Thread thread = new Thread(() -> {
+        for (int j = 0; j < 100; j++) {
+          CompletableFuture<Void> push = queueService.pushAsync(someQueue, someMessage);
+          synchronized (pushes) {
+            pushes.add(push);
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    pushes.forEach(CompletableFuture::join);
+
+    int pulled = 0;
+    List<Message<String>> messages;
+    while (!(messages = queueService.pull(someQueue, 10)).isEmpty()) {
+      pulled += messages.size();
+    }
+    assertThat(pulled, is(800));
+  }
+
+  @Test(expected = QueueFullException.class)
+  public void fullQueueIsReportedToClient() {
+    queueService.configure(someQueue, QueueConfig.builder().maxMessages(1).build());
+    queueService.push(someQueue, someMessage);
+
+    queueService.push(someQueue, someMessage);
+  }
+
+  @Test
+  public void longPollCompletesOnPushFromAnotherClient() throws IOException {
+    try (RemoteQueueService otherClient = new RemoteQueueService(server.getAddress(), clock)) {
+      CompletableFuture<Optional<Message<String>>> message = queueService.pullAsync(someQueue, Duration.ofSeconds(10));
+
+      otherClient.push(someQueue, someMessage);
+
+      assertThat(message.join().get().getBody(), is(someMessage));
+    }
+  }
+
+  @Test
+  public void requestsHeldBackWhileTooManyAreUnansweredRunOnceOthersAre() throws IOException {
+    try (RemoteQueueService oneConnection = new RemoteQueueService(server.getAddress(), clock, 1)) {
+      List<CompletableFuture<Optional<Message<String>>>> messages = new ArrayList<>();
+      List<String> messageBodies = new ArrayList<>();
+      for (int i = 0; i < 300; i++) {
+        messages.add(oneConnection.pullAsync(someQueue, Duration.ofSeconds(10)));
+        messageBodies.add(someMessage);
+      }
+
+      queueService.pushBatch(someQueue, messageBodies);
+
+      for (CompletableFuture<Optional<Message<String>>> message : messages) {
+        assertThat(message.join().get().getBody(), is(someMessage));
+      }
+    }
+  }
+
+  @Test
+  public void pipelinedPushesOfOneConnectionRunInOrderBeforeLaterPulls() throws IOException {
+    try (RemoteQueueService oneConnection = new RemoteQueueService(server.getAddress(), clock, 1)) {
+      for (int i = 0; i < 200; i++) {
+        oneConnection.pushAsync(someQueue, String.valueOf(i));
+      }
+      CompletableFuture<List<Message<String>>> messages = oneConnection.pullAsync(someQueue, 10);
+
+      List<String> messageBodies = new ArrayList<>();
+      messages.join().forEach(message -> messageBodies.add(message.getBody()));
+      List<Message<String>> pulled;
+      while (!(pulled = oneConnection.pull(someQueue, 10)).isEmpty()) {
+        pulled.forEach(message -> messageBodies.add(message.getBody()));
+      }
+      for (int i = 0; i < 200; i++) {
+        assertThat(messageBodies.get(i), is(String.valueOf(i)));
+      }
+      assertThat(messageBodies.size(), is(200));
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void otherIllegalStateIsNotReportedAsFullQueue() throws IOException {
+    QueueService<String> brokenService = mock(QueueService.class);
+    doThrow(new IllegalStateException("closed")).when(brokenService).push(someQueue, someMessage);
+    try (QueueServer brokenServer = QueueServer.start(brokenService,
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+         RemoteQueueService client = new RemoteQueueService(brokenServer.getAddress(), clock)) {
+      client.push(someQueue, someMessage);
+      fail();
+    } catch (RuntimeException e) {
+      assertThat(e instanceof IllegalStateException, is(false));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void configWithUnknownDurabilityIsInvalid() {
+    QueueProtocol.Frame frame = new QueueProtocol.Frame(1, QueueProtocol.CONFIGURE);
+    QueueProtocol.putConfig(frame, QueueConfig.DEFAULT);
+    ByteBuffer buffer = frame.finish();
+    int configStart = Integer.BYTES + Integer.BYTES + 1;
+    buffer.put(configStart + Long.BYTES, (byte) Durability.values().length);
+    buffer.position(configStart);
+
+    QueueProtocol.getConfig(buffer);
+  }
+
+  @Test
+  public void requestsInFlightFailWhenServerCloses() throws IOException {
+    CompletableFuture<Optional<Message<String>>> message = queueService.pullAsync(someQueue, Duration.ofSeconds(10));
+
+    server.close();
+
+    try {
+      message.join();
+      fail();
+    } catch (CompletionException e) {
+      assertThat(e.getCause(), instanceOf(UncheckedIOException.class));
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    queueService.close();
+    server.close();
+  }
+
+}
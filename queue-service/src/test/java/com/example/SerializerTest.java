@@ -0,0 +1,58 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class SerializerTest {
+
+  private static final byte[] someBytes = {0, -1, 42, -128, 127};
+
+  @Test
+  public void utf8IsIndependentOfPlatformCharset() {
+    String body = "\u00e4\u20ac\ud83d\ude00";
+
+    assertThat(Serializer.utf8().serialize(body), is(body.getBytes(UTF_8)));
+    assertThat(Serializer.utf8().deserialize(Serializer.utf8().serialize(body)), is(body));
+  }
+
+  @Test
+  public void utf8StringsAreTheirOwnText() {
+    assertThat(Serializer.utf8().toText("some body"), is("some body"));
+    assertThat(Serializer.utf8().fromText("some body"), is("some body"));
+  }
+
+  @Test
+  public void bytesAreNotCopied() {
+    assertThat(Serializer.bytes().serialize(someBytes), is(sameInstance(someBytes)));
+    assertThat(Serializer.bytes().deserialize(someBytes), is(sameInstance(someBytes)));
+  }
+
+  @Test
+  public void bytesAreBase64AsText() {
+    Serializer<byte[]> serializer = Serializer.bytes();
+
+    assertThat(serializer.fromText(serializer.toText(someBytes)), is(someBytes));
+  }
+
+  @Test
+  public void byteBufferSerializesRemainingBytesWithoutMovingPosition() {
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    buffer.put((byte) 1).put(someBytes);
+    buffer.flip().position(1);
+
+    assertThat(Serializer.byteBuffer().serialize(buffer), is(someBytes));
+    assertThat(buffer.position(), is(1));
+  }
+
+  @Test
+  public void wholeArrayBufferIsNotCopied() {
+    assertThat(Serializer.byteBuffer().serialize(ByteBuffer.wrap(someBytes)), is(sameInstance(someBytes)));
+  }
+
+}
@@ -0,0 +1,84 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ShardedInMemoryQueueServiceTest extends QueueTestBase<InMemoryQueueService<String>> {
+
+  private static final int SHARDS = 4;
+
+  @Override
+  protected InMemoryQueueService<String> newQueueService() {
+    return new InMemoryQueueService<>(clock, SHARDS);
+  }
+
+  @Test
+  public void pullStealsMessagesPushedByOtherThreads() throws Exception {
+    ExecutorService producers = Executors.newFixedThreadPool(SHARDS * 2);
+    try {
+      for (int i = 0; i < SHARDS * 2; i++) {
+        String message = String.valueOf(i);
+        producers.submit(() -> queueService.push(someQueue, message)).get();
+      }
+    } finally {
+      producers.shutdown();
+    }
+
+    Set<String> bodies = new HashSet<>();
+    for (Message<String> message : queueService.pull(someQueue, SHARDS * 4)) {
+      bodies.add(message.getBody());
+    }
+
+    assertThat(bodies.size(), is(SHARDS * 2));
+  }
+
+  @Test
+  public void messagesPulledByOtherThreadsCanBeDeleted() throws Exception {
+    queueService.pushBatch(someQueue, asList(someMessage, someMessage));
+    ExecutorService consumer = Executors.newSingleThreadExecutor();
+    try {
+      Future<List<Message<String>>> pulled = consumer.submit(() -> queueService.pull(someQueue, 2));
+      for (Message<String> message : pulled.get()) {
+        queueService.delete(someQueue, message.getReceiptHandle());
+      }
+    } finally {
+      consumer.shutdown();
+    }
+    setTimeTo(30_000L);
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(false));
+  }
+
+  @Test
+  public void longPollWakesUpOnPushFromAnotherThread() throws Exception {
+    FutureTask<Optional<Message<String>>> message = new FutureTask<>(() -> queueService.pull(someQueue, Duration.ofSeconds(10)));
+    Thread consumer = new Thread(message);
+    consumer.start();
+    try {
+      while (consumer.getState() != Thread.State.TIMED_WAITING) {
+        Thread.sleep(1);
+      }
+
+      queueService.push(someQueue, someMessage);
+
+      assertThat(message.get(1, SECONDS).get().getBody(), is(someMessage));
+    } finally {
+      consumer.interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,474 @@
+package com.example;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.MessageNotInflightException;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiptHandleIsInvalidException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner.StrictStubs;
+import org.mockito.stubbing.Answer;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static com.example.SqsQueueService.APPROXIMATE_RECEIVE_COUNT;
+import static com.example.SqsQueueService.CONTENT_ENCODING;
+import static java.util.Arrays.asList;
+import static java.util.Collections.nCopies;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(StrictStubs.class)
+public class SqsQueueServiceTest {
+
+  @Mock
+  private AmazonSQS sqsClient;
+
+  @Mock
+  private AmazonSQSAsync sqsAsyncClient;
+
+  private QueueService<String> queueService;
+
+  private static final String someQueue = "someQueue";
+  private static final String someMessage = "someMessage";
+  private static final String someUrl = "someUrl";
+  private static final String someBody = "someBody";
+  private static final String someReceiptHandle = "someReceiptHandle";
+  private static final String deadLetterQueue = "deadLetterQueue";
+  private static final String deadLetterUrl = "deadLetterUrl";
+  private static final String deadLetterArn = "arn:aws:sqs:eu-west-1:123456789012:deadLetterQueue";
+
+  @Before
+  public void setUp() {
+    queueService = new SqsQueueService<>(sqsClient, Serializer.utf8());
+  }
+
+  @Test
+  public void canPushMessagesToQueue() {
+    mockQueueUrl(someQueue, someUrl);
+
+    queueService.push(someQueue, someMessage);
+
+    verify(sqsClient).sendMessage(new SendMessageRequest(someUrl, someMessage));
+  }
+
+  @Test
+  public void canPullMessagesFromQueue() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.receiveMessage(receiveRequest().withMaxNumberOfMessages(1)))
+        .thenReturn(receiveMessageResultWith(someReceiptHandle, someBody));
+
+    Optional<Message<String>> message = queueService.pull(someQueue);
+
+    assertThat(message.isPresent(), is(true));
+    assertThat(message.get().getBody(), is(someBody));
+    assertThat(message.get().getReceiptHandle(), is(someReceiptHandle));
+    assertThat(message.get().getAttempts(), is(1));
+  }
+
+  @Test
+  public void longPollUsesWaitTimeSeconds() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.receiveMessage(receiveRequest().withMaxNumberOfMessages(1).withWaitTimeSeconds(20)))
+        .thenReturn(receiveMessageResultWith(someReceiptHandle, someBody));
+
+    Optional<Message<String>> message = queueService.pull(someQueue, Duration.ofMinutes(1));
+
+    assertThat(message.get().getBody(), is(someBody));
+  }
+
+  @Test
+  public void pullWithVisibilityTimeoutSetsVisibilityTimeout() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.receiveMessage(receiveRequest().withMaxNumberOfMessages(10).withVisibilityTimeout(90)))
+        .thenReturn(receiveMessageResultWith(someReceiptHandle, someBody));
+
+    assertThat(queueService.pull(someQueue, 10, Duration.ofSeconds(90)).size(), is(1));
+  }
+
+  @Test
+  public void configureSetsVisibilityTimeoutAttribute() {
+    mockQueueUrl(someQueue, someUrl);
+
+    queueService.configure(someQueue, QueueConfig.builder().visibilityTimeout(Duration.ofMinutes(2)).build());
+
+    verify(sqsClient).setQueueAttributes(someUrl, singletonMap("VisibilityTimeout", "120"));
+  }
+
+  @Test
+  public void configureSetsRedrivePolicyWithDeadLetterQueueArn() {
+    mockQueueUrl(someQueue, someUrl);
+    doReturn(new CreateQueueResult().withQueueUrl(deadLetterUrl)).when(sqsClient).createQueue(deadLetterQueue);
+    when(sqsClient.getQueueAttributes(deadLetterUrl, singletonList("QueueArn")))
+        .thenReturn(new GetQueueAttributesResult().addAttributesEntry("QueueArn", deadLetterArn));
+
+    queueService.configure(someQueue, QueueConfig.builder()
+        .visibilityTimeout(Duration.ofMinutes(2))
+        .deadLetterQueue(deadLetterQueue, 3)
+        .build());
+
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put("VisibilityTimeout", "120");
+    attributes.put("RedrivePolicy", "{\"maxReceiveCount\":\"3\",\"deadLetterTargetArn\":\"" + deadLetterArn + "\"}");
+    verify(sqsClient).setQueueAttributes(someUrl, attributes);
+  }
+
+  @Test
+  public void changeVisibilityChangesMessageVisibility() {
+    mockQueueUrl(someQueue, someUrl);
+
+    queueService.changeVisibility(someQueue, someReceiptHandle, Duration.ofSeconds(45));
+
+    verify(sqsClient).changeMessageVisibility(someUrl, someReceiptHandle, 45);
+  }
+
+  @Test
+  public void changeVisibilityRoundsUpToWholeSeconds() {
+    mockQueueUrl(someQueue, someUrl);
+
+    queueService.changeVisibility(someQueue, someReceiptHandle, Duration.ofMillis(500));
+
+    verify(sqsClient).changeMessageVisibility(someUrl, someReceiptHandle, 1);
+  }
+
+  @Test
+  public void changeVisibilityOfMessageNoLongerInFlightIsIgnored() {
+    mockQueueUrl(someQueue, someUrl);
+    doThrow(new MessageNotInflightException("not in flight"))
+        .when(sqsClient).changeMessageVisibility(someUrl, someReceiptHandle, 45);
+
+    queueService.changeVisibility(someQueue, someReceiptHandle, Duration.ofSeconds(45));
+  }
+
+  @Test
+  public void changeVisibilityWithInvalidReceiptHandleIsIgnored() {
+    mockQueueUrl(someQueue, someUrl);
+    doThrow(new ReceiptHandleIsInvalidException("invalid"))
+        .when(sqsClient).changeMessageVisibility(someUrl, someReceiptHandle, 45);
+
+    queueService.changeVisibility(someQueue, someReceiptHandle, Duration.ofSeconds(45));
+  }
+
+  @Test
+  public void canDeleteMessagesFromQueue() {
+    mockQueueUrl(someQueue, someUrl);
+
+    queueService.delete(someQueue, someReceiptHandle);
+
+    verify(sqsClient).deleteMessage(someUrl, someReceiptHandle);
+  }
+
+  @Test
+  public void canPushBatchOfMessagesToQueue() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.sendMessageBatch(eq(someUrl), anyList())).thenReturn(new SendMessageBatchResult());
+
+    queueService.pushBatch(someQueue, asList(someMessage, someMessage));
+
+    verify(sqsClient).sendMessageBatch(someUrl, asList(
+        new SendMessageBatchRequestEntry("0", someMessage),
+        new SendMessageBatchRequestEntry("1", someMessage)));
+  }
+
+  @Test
+  public void pushBatchSplitsIntoSqsSizedBatches() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.sendMessageBatch(eq(someUrl), anyList())).thenReturn(new SendMessageBatchResult());
+
+    queueService.pushBatch(someQueue, nCopies(11, someMessage));
+
+    verify(sqsClient, times(2)).sendMessageBatch(eq(someUrl), anyList());
+  }
+
+  @Test
+  public void pushBatchSendsEntriesFailedBySqsAgain() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.sendMessageBatch(eq(someUrl), anyList()))
+        .thenReturn(new SendMessageBatchResult().withFailed(
+            new BatchResultErrorEntry().withId("1").withSenderFault(false).withCode("InternalError")))
+        .thenReturn(new SendMessageBatchResult());
+
+    queueService.pushBatch(someQueue, asList(someMessage, someBody));
+
+    verify(sqsClient).sendMessageBatch(someUrl, singletonList(new SendMessageBatchRequestEntry("1", someBody)));
+  }
+
+  @Test
+  public void pushBatchSendsOnlyTheBatchThatFoundQueueGoneAgain() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.sendMessageBatch(eq(someUrl), anyList()))
+        .thenReturn(new SendMessageBatchResult())
+        .thenThrow(new QueueDoesNotExistException("gone"))
+        .thenReturn(new SendMessageBatchResult());
+
+    queueService.pushBatch(someQueue, nCopies(11, someMessage));
+
+    verify(sqsClient, times(1)).sendMessageBatch(eq(someUrl), argThat(entries -> entries.size() == 10));
+    verify(sqsClient, times(2)).sendMessageBatch(eq(someUrl), argThat(entries -> entries.size() == 1));
+  }
+
+  @Test
+  public void canPullBatchOfMessagesFromQueue() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.receiveMessage(receiveRequest().withMaxNumberOfMessages(10)))
+        .thenReturn(receiveMessageResultWith(someReceiptHandle, someBody));
+
+    List<Message<String>> messages = queueService.pull(someQueue, 20);
+
+    assertThat(messages.size(), is(1));
+    assertThat(messages.get(0).getBody(), is(someBody));
+  }
+
+  @Test
+  public void canDeleteBatchOfMessagesFromQueue() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.deleteMessageBatch(eq(someUrl), anyList())).thenReturn(new DeleteMessageBatchResult());
+
+    queueService.deleteBatch(someQueue, singletonList(someReceiptHandle));
+
+    verify(sqsClient).deleteMessageBatch(someUrl, singletonList(
+        new DeleteMessageBatchRequestEntry("0", someReceiptHandle)));
+  }
+
+  @Test
+  public void deleteBatchThrowsIdsOfRefusedEntries() {
+    mockQueueUrl(someQueue, someUrl);
+    when(sqsClient.deleteMessageBatch(eq(someUrl), anyList()))
+        .thenReturn(new DeleteMessageBatchResult().withFailed(
+            new BatchResultErrorEntry().withId("1").withSenderFault(true).withCode("ReceiptHandleIsInvalid")));
+
+    try {
+      queueService.deleteBatch(someQueue, asList(someReceiptHandle, "invalid"));
+      fail();
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage().contains("1 (ReceiptHandleIsInvalid)"), is(true));
+    }
+    verify(sqsClient, times(1)).deleteMessageBatch(eq(someUrl), anyList());
+  }
+
+  @Test
+  public void resolvesQueueUrlOnlyOnce() {
+    mockQueueUrl(someQueue, someUrl);
+
+    queueService.push(someQueue, someMessage);
+    queueService.delete(someQueue, someReceiptHandle);
+
+    verify(sqsClient, times(1)).createQueue(someQueue);
+    verify(sqsClient, never()).getQueueUrl(anyString());
+  }
+
+  @Test
+  public void recreatesQueueThatNoLongerExists() {
+    String someOtherUrl = "someOtherUrl";
+    when(sqsClient.createQueue(someQueue))
+        .thenReturn(new CreateQueueResult().withQueueUrl(someUrl))
+        .thenReturn(new CreateQueueResult().withQueueUrl(someOtherUrl));
+    doThrow(new QueueDoesNotExistException("gone")).when(sqsClient).deleteMessage(someUrl, someReceiptHandle);
+
+    queueService.delete(someQueue, someReceiptHandle);
+
+    verify(sqsClient).deleteMessage(someOtherUrl, someReceiptHandle);
+  }
+
+  @Test
+  public void bytePayloadsAreSentAsBase64() {
+    mockQueueUrl(someQueue, someUrl);
+    byte[] body = {0, -1, 42};
+
+    new SqsQueueService<>(sqsClient, Serializer.bytes()).push(someQueue, body);
+
+    verify(sqsClient).sendMessage(new SendMessageRequest(someUrl, "AP8q"));
+  }
+
+  @Test
+  public void bodiesFromCompressionThresholdOnAreSentDeflated() {
+    mockQueueUrl(someQueue, someUrl);
+    String largeMessage = String.join("", nCopies(1_000, someMessage));
+    queueService.configure(someQueue, QueueConfig.builder().compressionThreshold(1_000).build());
+
+    queueService.push(someQueue, largeMessage);
+
+    ArgumentCaptor<SendMessageRequest> request = ArgumentCaptor.forClass(SendMessageRequest.class);
+    verify(sqsClient).sendMessage(request.capture());
+    assertThat(request.getValue().getMessageBody().length() < largeMessage.length() / 10, is(true));
+    assertThat(request.getValue().getMessageAttributes().get(CONTENT_ENCODING).getStringValue(), is("deflate"));
+  }
+
+  @Test
+  public void deflatedBodiesAreInflatedOnReceive() {
+    mockQueueUrl(someQueue, someUrl);
+    String largeMessage = String.join("", nCopies(1_000, someMessage));
+    queueService.configure(someQueue, QueueConfig.builder().compressionThreshold(0).build());
+    queueService.push(someQueue, largeMessage);
+    ArgumentCaptor<SendMessageRequest> sent = ArgumentCaptor.forClass(SendMessageRequest.class);
+    verify(sqsClient).sendMessage(sent.capture());
+    com.amazonaws.services.sqs.model.Message sqsMessage = new com.amazonaws.services.sqs.model.Message()
+        .withBody(sent.getValue().getMessageBody())
+        .withMessageAttributes(sent.getValue().getMessageAttributes())
+        .withReceiptHandle(someReceiptHandle);
+    when(sqsClient.receiveMessage(receiveRequest().withMaxNumberOfMessages(1)))
+        .thenReturn(new ReceiveMessageResult().withMessages(sqsMessage));
+
+    assertThat(queueService.pull(someQueue).get().getBody(), is(largeMessage));
+  }
+
+  @Test
+  public void pushAsyncSendsMessageThroughAsyncClient() throws Exception {
+    mockAsyncQueueUrl(someQueue, someUrl);
+    doAnswer(succeedWith(new SendMessageResult()))
+        .when(sqsAsyncClient).sendMessageAsync(eq(new SendMessageRequest(someUrl, someMessage)), any());
+
+    new SqsQueueService<>(sqsAsyncClient, Serializer.utf8()).pushAsync(someQueue, someMessage).get();
+  }
+
+  @Test
+  public void pullAsyncReceivesThroughAsyncClient() throws Exception {
+    mockAsyncQueueUrl(someQueue, someUrl);
+    com.amazonaws.services.sqs.model.Message sqsMessage = new com.amazonaws.services.sqs.model.Message()
+        .withBody(someBody)
+        .withReceiptHandle(someReceiptHandle);
+    doAnswer(succeedWith(new ReceiveMessageResult().withMessages(sqsMessage)))
+        .when(sqsAsyncClient).receiveMessageAsync(eq(receiveRequest().withMaxNumberOfMessages(1)), any());
+
+    Message<String> message = new SqsQueueService<>(sqsAsyncClient, Serializer.utf8()).pullAsync(someQueue).get().get();
+
+    assertThat(message.getBody(), is(someBody));
+    assertThat(message.getReceiptHandle(), is(someReceiptHandle));
+  }
+
+  @Test
+  public void deleteAsyncRecreatesQueueThatNoLongerExists() throws Exception {
+    String someOtherUrl = "someOtherUrl";
+    doAnswer(succeedWith(new CreateQueueResult().withQueueUrl(someUrl)))
+        .doAnswer(succeedWith(new CreateQueueResult().withQueueUrl(someOtherUrl)))
+        .when(sqsAsyncClient).createQueueAsync(eq(someQueue), any());
+    doAnswer(failWith(new QueueDoesNotExistException("gone")))
+        .when(sqsAsyncClient).deleteMessageAsync(eq(new DeleteMessageRequest(someUrl, someReceiptHandle)), any());
+    doAnswer(succeedWith(null))
+        .when(sqsAsyncClient).deleteMessageAsync(eq(new DeleteMessageRequest(someOtherUrl, someReceiptHandle)), any());
+
+    new SqsQueueService<>(sqsAsyncClient, Serializer.utf8()).deleteAsync(someQueue, someReceiptHandle).get();
+
+    verify(sqsAsyncClient).deleteMessageAsync(eq(new DeleteMessageRequest(someOtherUrl, someReceiptHandle)), any());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pushAsyncToEmptyQueueNameThrows() {
+    new SqsQueueService<>(sqsAsyncClient, Serializer.utf8()).pushAsync("", someMessage);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pushAsyncOfNullBodyThrows() {
+    new SqsQueueService<>(sqsAsyncClient, Serializer.utf8()).pushAsync(someQueue, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pullAsyncFromNullQueueNameThrows() {
+    new SqsQueueService<>(sqsAsyncClient, Serializer.utf8()).pullAsync(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deleteAsyncWithEmptyReceiptHandleThrows() {
+    new SqsQueueService<>(sqsAsyncClient, Serializer.utf8()).deleteAsync(someQueue, "");
+  }
+
+  @Test
+  public void asyncOperationFailsWithoutAsyncClient() throws Exception {
+    try {
+      new SqsQueueService<>(sqsClient, Serializer.utf8()).pushAsync(someQueue, someMessage).get();
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause() instanceof IllegalStateException, is(true));
+    }
+  }
+
+  @Test
+  public void receiveTemplateIsAppliedToEveryReceive() {
+    mockQueueUrl(someQueue, someUrl);
+    queueService = new SqsQueueService<>(sqsClient, Serializer.utf8(), new ReceiveMessageRequest().withVisibilityTimeout(60));
+    when(sqsClient.receiveMessage(receiveRequest().withMaxNumberOfMessages(1).withVisibilityTimeout(60)))
+        .thenReturn(receiveMessageResultWith(someReceiptHandle, someBody));
+
+    assertThat(queueService.pull(someQueue).isPresent(), is(true));
+  }
+
+  private void mockQueueUrl(String someQueue, String someUrl) {
+    when(sqsClient.createQueue(someQueue)).thenReturn(new CreateQueueResult().withQueueUrl(someUrl));
+  }
+
+  private void mockAsyncQueueUrl(String someQueue, String someUrl) {
+    doAnswer(succeedWith(new CreateQueueResult().withQueueUrl(someUrl)))
+        .when(sqsAsyncClient).createQueueAsync(eq(someQueue), any());
+  }
+
+  private static <R> Answer<Future<R>> succeedWith(R result) {
+    return invocation -> {
+      AsyncHandler<AmazonWebServiceRequest, R> handler = invocation.getArgument(invocation.getArguments().length - 1);
+      handler.onSuccess(null, result);
+      return null;
+    };
+  }
+
+  private static <R> Answer<Future<R>> failWith(Exception exception) {
+    return invocation -> {
+      AsyncHandler<AmazonWebServiceRequest, R> handler = invocation.getArgument(invocation.getArguments().length - 1);
+      handler.onError(exception);
+      return null;
+    };
+  }
+
+  private ReceiveMessageRequest receiveRequest() {
+    return new ReceiveMessageRequest(someUrl)
+        .withAttributeNames(APPROXIMATE_RECEIVE_COUNT)
+        .withMessageAttributeNames(CONTENT_ENCODING);
+  }
+
+  private ReceiveMessageResult receiveMessageResultWith(String receiptHandle, String body) {
+    return new ReceiveMessageResult()
+      .withMessages(new com.amazonaws.services.sqs.model.Message()
+        .withReceiptHandle(receiptHandle)
+        .withBody(body)
+      .withAttributes(Collections.singletonMap(APPROXIMATE_RECEIVE_COUNT, "1")));
+  }
+
+}
\ No newline at end of file
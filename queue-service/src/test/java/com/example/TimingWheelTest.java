@@ -0,0 +1,110 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TimingWheelTest {
+
+  private static final long START = 1_500_000_000_000L;
+
+  private final TimingWheel<Long> wheel = new TimingWheel<>(START, Long::longValue);
+  private final List<Long> expired = new ArrayList<>();
+
+  @Test
+  public void entryDueByCurrentTimeIsNotTaken() {
+    assertThat(wheel.add(START), is(false));
+    assertThat(wheel.add(START - 1), is(false));
+    assertThat(wheel.size(), is(0));
+  }
+
+  @Test
+  public void entriesExpireOnceTheirTimeIsReached() {
+    wheel.add(START + 10);
+
+    wheel.advance(START + 9, expired::add);
+    assertThat(expired.isEmpty(), is(true));
+
+    wheel.advance(START + 10, expired::add);
+    assertThat(expired, is(asList(START + 10)));
+    assertThat(wheel.size(), is(0));
+  }
+
+  @Test
+  public void entriesExpireInOrderOfDeadlineAcrossLevels() {
+    List<Long> deadlines = asList(START + 30_000, START + 1, START + 4_000_000, START + 64, START + 100, START + 30_000);
+    deadlines.forEach(wheel::add);
+
+    wheel.advance(START + 5_000_000, expired::add);
+
+    assertThat(expired, is(deadlines.stream().sorted().collect(toList())));
+  }
+
+  @Test
+  public void deadlinesBeyondTheTopLevelExpireFromOverflow() {
+    long twentyDays = 20L * 24 * 60 * 60 * 1_000;
+    wheel.add(START + twentyDays);
+
+    wheel.advance(START + twentyDays - 1, expired::add);
+    assertThat(expired.isEmpty(), is(true));
+
+    wheel.advance(START + twentyDays, expired::add);
+    assertThat(expired, is(asList(START + twentyDays)));
+  }
+
+  @Test
+  public void entriesAddedAfterAdvancingExpireRelativeToNewTime() {
+    wheel.advance(START + 1_000, expired::add);
+    wheel.add(START + 1_050);
+
+    wheel.advance(START + 1_049, expired::add);
+    assertThat(expired.isEmpty(), is(true));
+    wheel.advance(START + 1_050, expired::add);
+    assertThat(expired, is(asList(START + 1_050)));
+  }
+
+  @Test
+  public void nextAdvanceIsNeverAfterTheEarliestDeadline() {
+    Random random = new Random(42);
+    for (int i = 0; i < 1_000; i++) {
+      wheel.add(wheel.current() + 1 + random.nextInt(100_000));
+      long now = wheel.current() + random.nextInt(50_000);
+      long nextAdvance = wheel.nextAdvance();
+      wheel.advance(now, expired::add);
+      if (now < nextAdvance) {
+        assertThat(expired.isEmpty(), is(true));
+      }
+      for (long deadline : expired) {
+        assertThat(deadline <= now, is(true));
+      }
+      expired.clear();
+    }
+  }
+
+  @Test
+  public void randomDeadlinesAllExpireInOrder() {
+    Random random = new Random(7);
+    List<Long> deadlines = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      long deadline = START + 1 + (long) (random.nextDouble() * random.nextDouble() * 100_000_000L);
+      deadlines.add(deadline);
+      wheel.add(deadline);
+    }
+
+    for (long now = START; now < START + 100_000_000L; now += random.nextInt(1_000_000)) {
+      wheel.advance(now, expired::add);
+    }
+    wheel.advance(START + 100_000_000L, expired::add);
+
+    assertThat(expired, is(deadlines.stream().sorted().collect(toList())));
+    assertThat(wheel.size(), is(0));
+  }
+
+}